@@ -0,0 +1,56 @@
+package MainProgram;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * One change recorded in the audit trail: a field of a project or person that changed from one value to another, or
+ * a record that was added or deleted.
+ */
+public class AuditEntry implements Pickable {
+    public static final String ENTITY_PROJECT = "Project";
+    public static final String ENTITY_PERSON = "Person";
+
+    public static final String ACTION_INSERT = "INSERT";
+    public static final String ACTION_UPDATE = "UPDATE";
+    public static final String ACTION_DELETE = "DELETE";
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String[] COLUMN_HEADERS = {"When", "Change", "Field", "Old value", "New value", "By"};
+
+    public LocalDateTime changedAt;
+    public String entityType;
+    public long entityId;
+    public String action;
+    public String fieldName;
+    public String oldValue;
+    public String newValue;
+    public String changedBy;
+
+    @Override
+    public String[] getColumns() {
+        return new String[] {changedAt.format(TIMESTAMP_FORMAT), action, fieldName == null ? "" : fieldName,
+                oldValue == null ? "" : oldValue, newValue == null ? "" : newValue, changedBy};
+    }
+
+    @Override
+    public String[] getColumnHeaders() {
+        return COLUMN_HEADERS;
+    }
+
+    @Override
+    public String getOneLineString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(changedAt.format(TIMESTAMP_FORMAT)).append(' ').append(action).append(' ')
+                .append(entityType).append(" #").append(entityId);
+        if (fieldName != null) {
+            builder.append(' ').append(fieldName).append(": ").append(oldValue).append(" -> ").append(newValue);
+        }
+        return builder.append(" (").append(changedBy).append(')').toString();
+    }
+
+    @Override
+    public String toString() {
+        return getOneLineString();
+    }
+}
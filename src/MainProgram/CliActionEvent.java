@@ -0,0 +1,22 @@
+package MainProgram;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event for each state the program goes through, e.g. showing the overdue projects. The
+ * duration includes the time the user spends typing.
+ */
+@Name("pms.CliAction")
+@Label("CLI Action")
+@Category({"PMS", "CLI"})
+@Description("One step of the program's state machine")
+@StackTrace(false)
+class CliActionEvent extends Event {
+    @Label("State")
+    String state;
+}
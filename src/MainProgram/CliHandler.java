@@ -1,37 +1,187 @@
 package MainProgram;
 
+import database.ActionTrace;
 import database.DataSource;
 import database.DatabaseException;
+import database.PaymentTable;
 import database.PersonTable;
 import database.ProjectTable;
+import database.QueryTimeoutException;
 
 
-import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.text.ParseException;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.*;
 
 /**
- * This class is where most interactions with the user should occur. It maintains a Scanner instance that can be used to
- * capture user input. Because of this, it's {@code close()} method should be called when no longer in use.
+ * This class is where most interactions with the user should occur. It maintains the reader that all user input is
+ * read through. Because of this, it's {@code close()} method should be called when no longer in use.
+ * <p><br>
+ * Output is written to the buffered stream of a {@link ConsoleRenderer} and only sent to the terminal when input is
+ * read (or {@link #flush()} is called).
  */
 class CliHandler {
-    Scanner consoleReader;
+    //The only reader of System.in, so that no reader buffers input meant for another (see PersonTypeAhead).
+    private final BufferedReader consoleReader;
+    private final ConsoleRenderer renderer;
+    private final PrintStream out;
+    private DeadlineBanner deadlineBanner;
+    //True while waiting for the user to type something, false while the program is busy (e.g. running a query).
+    //Set while holding inputLock so that the cancel watcher stops reading before a prompt reads.
+    private volatile boolean waitingForInput;
+    private final Object inputLock = new Object();
+    private Thread cancelWatcher;
+    //Input read by the cancel watcher while the program was busy that is meant for the next prompts: the complete
+    //lines typed ahead and the start of the line being typed. Guarded by inputLock.
+    private final ArrayDeque<String> typedAheadLines = new ArrayDeque<>();
+    private final StringBuilder partialLine = new StringBuilder();
 
     public CliHandler() {
-        consoleReader = new Scanner(System.in);
+        consoleReader = new BufferedReader(new InputStreamReader(System.in));
+        renderer = new ConsoleRenderer();
+        out = renderer.out();
+    }
+
+    /**
+     * Sends any buffered output to the terminal. Call this before other classes print directly to System.out so that
+     * the output stays in order.
+     */
+    public void flush() {
+        renderer.flush();
+    }
+
+    /**
+     * Sets the banner whose deadline alerts are shown above the main menu.
+     *
+     * @param banner The banner to show. Can be null to stop showing alerts.
+     */
+    public void setDeadlineBanner(DeadlineBanner banner) {
+        deadlineBanner = banner;
+    }
+
+    /**
+     * Reads a line of input from the user, flushing the buffered output first so that the prompt is visible.
+     *
+     * @return The line entered by the user.
+     */
+    private String readLine() {
+        renderer.flush();
+        final String typedAhead;
+        final String lineStart;
+        synchronized (inputLock) {
+            waitingForInput = true;
+            typedAhead = typedAheadLines.poll();
+            lineStart = partialLine.toString();
+            if (typedAhead == null) {
+                partialLine.setLength(0);
+            }
+        }
+        try {
+            if (typedAhead != null) {
+                return typedAhead;
+            }
+            //The lock isn't held here, so a half typed line doesn't hold up the cancel watcher or anything else.
+            String line = consoleReader.readLine();
+            if (line == null) {
+                if (!lineStart.isEmpty()) {
+                    return lineStart;
+                }
+                throw new NoSuchElementException("The console input has ended.");
+            }
+            return withoutCarriageReturn(lineStart + line);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            waitingForInput = false;
+        }
+    }
+
+    /**
+     * @return {@code true} if the program is waiting for the user to enter something.
+     */
+    public boolean isWaitingForInput() {
+        return waitingForInput;
+    }
+
+    /**
+     * Starts a background thread that runs the given action when the user presses Enter on an empty line while the
+     * program is busy, e.g. to cancel a slow query. Anything else typed while the program is busy is kept for the
+     * next prompts. Nothing is read while the program is waiting for input.
+     * <p><br>
+     * The watcher is only started when the program is run from a terminal. When the input is redirected, every line is
+     * an answer for a prompt, even an empty one.
+     *
+     * @param onCancel Run on the watcher thread each time Enter is pressed while the program is busy.
+     */
+    public void startCancelWatcher(Runnable onCancel) {
+        if (System.console() == null) {
+            return;
+        }
+        cancelWatcher = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    boolean cancel = false;
+                    synchronized (inputLock) {
+                        //Only the characters that have arrived are read, so the lock is never held while waiting.
+                        while (!waitingForInput && consoleReader.ready()) {
+                            final int next = consoleReader.read();
+                            if (next < 0) {
+                                break;
+                            }
+                            if (next != '\n') {
+                                partialLine.append((char) next);
+                                continue;
+                            }
+                            final String line = withoutCarriageReturn(partialLine.toString());
+                            partialLine.setLength(0);
+                            if (line.isEmpty()) {
+                                cancel = true;
+                            } else {
+                                typedAheadLines.add(line);
+                            }
+                        }
+                    }
+                    if (cancel) {
+                        onCancel.run();
+                    }
+                    Thread.sleep(100);
+                }
+            } catch (IOException | InterruptedException ex) {
+                //The console has been closed or the program is exiting.
+            }
+        }, "cancel-watcher");
+        cancelWatcher.setDaemon(true);
+        cancelWatcher.start();
+    }
+
+    /**
+     * @return {@code true} if Enter can be pressed to cancel a running query (see {@link #startCancelWatcher}).
+     */
+    public boolean canCancelWithEnter() {
+        return cancelWatcher != null;
+    }
+
+    private static String withoutCarriageReturn(String line) {
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
     }
     
     public void printTitle() {
-        System.out.println(
+        out.println(
             """
                 Poised Project Management System
                 ================================
             """
         );
-        System.out.println();
+        out.println();
     }
 
     /**
@@ -46,7 +196,8 @@ class CliHandler {
             //Nothing selected. Call the version of the menu without the extra options.
             return printMainMenu();
         }
-        System.out.println(
+        printDeadlineAlerts();
+        out.println(
             """
             Main  Menu
             ==========
@@ -57,12 +208,12 @@ class CliHandler {
             4. View & Select from all projects
             5. Edit people
             6. Progress/Edit/Delete the selected project
+            9. Start/stop a performance recording
             0. Exit
             """
         );
-        System.out.println("Selected project: " + selectedProject.getOneLineString());
-        boolean haveValidInput = false;
-        return getMenuChoice("Menu choice: ", 0, 6);
+        out.println("Selected project: " + selectedProject.getOneLineString());
+        return getMainMenuChoice(6);
     }
 
     /**
@@ -72,7 +223,8 @@ class CliHandler {
      * @return The user's selection
      */
     public int printMainMenu() {
-        System.out.println(
+        printDeadlineAlerts();
+        out.println(
             """
             Main Menu
             =========
@@ -82,24 +234,73 @@ class CliHandler {
             3. View & Select from all overdue projects
             4. View & Select from all projects
             5. Edit people
+            9. Start/stop a performance recording
             0. Exit
             """
         );
-        System.out.println();
-        return getMenuChoice("Menu choice: ", 0, 5);
+        out.println();
+        return getMainMenuChoice(5);
+    }
+
+    /**
+     * Gets the user's choice from the main menu. The recording option is always 9 so that it doesn't move when the
+     * options for the selected project are shown.
+     *
+     * @param lastOption The last of the numbered options before the recording option.
+     * @return The user's selection.
+     */
+    private int getMainMenuChoice(int lastOption) {
+        int choice = getMenuChoice("Menu choice: ", 0, 9);
+        while (choice > lastOption && choice != 9) {
+            choice = getMenuChoice("Menu choice: ", 0, 9);
+        }
+        return choice;
+    }
+
+    /**
+     * Starts a performance recording, or stops the running one and tells the user where it was saved.
+     *
+     * @param recording The program's recording.
+     */
+    public void toggleRecording(PerformanceRecording recording) {
+        try {
+            if (recording.isRunning()) {
+                out.println("Performance recording saved to " + recording.stop());
+            } else {
+                recording.start();
+                out.println("Performance recording started. Choose option 9 again to stop it and save it to a file.");
+            }
+        } catch (IOException | ParseException ex) {
+            out.println("The performance recording failed: " + ex.getMessage());
+        }
+        out.println();
     }
 
 
+    private void printDeadlineAlerts() {
+        if (DataSource.getInstance() != null && DataSource.getInstance().isDegraded()) {
+            out.println("*** The database isn't responding. Listings may be out of date. ***\n");
+        }
+        if (deadlineBanner != null) {
+            deadlineBanner.printPending(out);
+        }
+    }
+
     /**
      * The method called by selecting 'Add to Project' from the menu. Collects the information from the
      * user and calls to the database as needed.
      *
-     * @return The project that should be the new currently selected project.
+     * @return The project that should be the new currently selected project or {@code null} if the user didn't choose
+     * a customer.
      * @throws DatabaseException If an error occurs when calling the database.
      */
     public Project addProject() throws DatabaseException{
-        System.out.println("Please search for a customer to assign the new project (The customer will be created if they don't exist yet):");
+        out.println("Please search for a customer to assign the new project (The customer will be created if they don't exist yet):");
         Project newProject = getBasicProjectInfoFromUser();
+        if (newProject == null) {
+            out.println("No customer was chosen. The project was not added.");
+            return null;
+        }
         newProject.number = DataSource.getInstance().insertProject(newProject);
 
         return newProject;
@@ -110,11 +311,14 @@ class CliHandler {
      * to create a project record. The resulting project will not yet have a project number because it has not been
      * added into the database yet.
      *
-     * @return The resulting project object.
+     * @return The resulting project object or {@code null} if the user backed out of choosing the customer.
      * @throws DatabaseException If a database error occurs.
      */
     private Project getBasicProjectInfoFromUser() throws DatabaseException {
         Person customer = findOrCreatePerson();
+        if (customer == null) {
+            return null;
+        }
         ProjectType type = chooseProjectType();
 
         String projectName = getStringFromUser("Project name [leave blank if this is not known yet]: ",
@@ -132,7 +336,7 @@ class CliHandler {
      * @return The selected type (Enum value).
      */
     private ProjectType chooseProjectType() {
-        System.out.println(
+        out.println(
                 """
                 What is the project type:
                 =========================
@@ -157,37 +361,90 @@ class CliHandler {
      * @throws DatabaseException If a database error occurs.
      */
     private Person findOrCreatePerson() throws DatabaseException {
-        String name = getStringFromUser("Name to search: ", PersonTable.COL_FIRST_NAME_SIZE,
+        final int maxLength = PersonTable.COL_FIRST_NAME_SIZE;
+        PersonTypeAhead.Result typed = typeAheadSearch("Name to search (1-9 picks a match, Enter to add a new person): ");
+        if (typed != null && typed.selected != null) {
+            return typed.selected;
+        }
+        if (typed != null && !typed.cancelled && !typed.text.isBlank() && typed.text.length() <= maxLength) {
+            //The user has already seen the closest matches while typing and chose not to pick one.
+            return createPerson(typed.text);
+        }
+
+        String name = getStringFromUser("Name to search: ", maxLength,
                 "People's names are limited to ? characters.", false);
         ArrayList<Pickable> peopleFound = new ArrayList(DataSource.getInstance().searchPeople(name));
         Person answer;
         if (!peopleFound.isEmpty()) {
-            System.out.println("Here are some similar people already in the system.\n Choose one of the or cancel [enter 0] to continue creating a new persona:\n");
+            out.println("Here are some similar people already in the system.\n Choose one of the or cancel [enter 0] to continue creating a new persona:\n");
             answer = (Person) printAndPickResult(peopleFound);
         } else {
-            System.out.println("No existing matches found.\n");
-            answer = new Person();
-            if (getYesNoFromUser("Is " + name + " a surname? [y/n] ")) {
-                answer.surname = name;
-                answer.firstName = getStringFromUser("First name : ", PersonTable.COL_FIRST_NAME_SIZE,
-                        "People's names are limited to ? characters.", false);
-            } else {
-                answer.firstName = name;
-                answer.surname = getStringFromUser("Surname : ", PersonTable.COL_FIRST_NAME_SIZE,
-                        "People's names are limited to ? characters.", false);
-            }
+            out.println("No existing matches found.\n");
+            answer = createPerson(name);
+        }
+        out.println();
+        return answer;
+    }
 
-            answer.email = getStringFromUser("E-mail : ", PersonTable.COL_EMAIL_SIZE,
+    /**
+     * Collects the rest of a new person's details from the user and adds them to the database.
+     *
+     * @param name The name the user searched for. The user is asked whether it is a first name or surname.
+     * @return The new person with their database ID set.
+     * @throws DatabaseException If a database error occurs.
+     */
+    private Person createPerson(String name) throws DatabaseException {
+        Person answer = new Person();
+        if (getYesNoFromUser("Is " + name + " a surname? [y/n] ")) {
+            answer.surname = name;
+            answer.firstName = getStringFromUser("First name : ", PersonTable.COL_FIRST_NAME_SIZE,
                     "People's names are limited to ? characters.", false);
-            answer.address = getStringFromUser("Physical Address : ", PersonTable.COL_PHYS_ADDR_SIZE,
+        } else {
+            answer.firstName = name;
+            answer.surname = getStringFromUser("Surname : ", PersonTable.COL_FIRST_NAME_SIZE,
                     "People's names are limited to ? characters.", false);
-
-            answer.id = DataSource.getInstance().insertPerson(answer);
         }
-        System.out.println();
+
+        answer.email = getStringFromUser("E-mail : ", PersonTable.COL_EMAIL_SIZE,
+                "People's names are limited to ? characters.", false);
+        answer.address = getStringFromUser("Physical Address : ", PersonTable.COL_PHYS_ADDR_SIZE,
+                "People's names are limited to ? characters.", false);
+
+        answer.id = DataSource.getInstance().insertPerson(answer);
+        out.println();
         return answer;
     }
 
+    /**
+     * Runs an incremental person search if the terminal supports it. Matches are shown as the user types.
+     *
+     * @param prompt The prompt to show in front of the search text.
+     * @return The outcome of the search, or {@code null} if incremental search isn't available and the caller should
+     * fall back to a normal search.
+     */
+    private PersonTypeAhead.Result typeAheadSearch(String prompt) {
+        if (!PersonTypeAhead.isSupported()) {
+            return null;
+        }
+        renderer.flush();
+        //The type-ahead reads the keys itself, so the cancel watcher must leave the input alone. Input typed ahead
+        //while the program was busy is answered by the normal search instead, which reads it as a line.
+        synchronized (inputLock) {
+            if (!typedAheadLines.isEmpty() || partialLine.length() > 0) {
+                return null;
+            }
+            waitingForInput = true;
+        }
+        try {
+            return new PersonTypeAhead(out, consoleReader).run(prompt);
+        } catch (IOException ex) {
+            out.println("Incremental search is unavailable (" + ex.getMessage() + ")\n");
+            return null;
+        } finally {
+            waitingForInput = false;
+        }
+    }
+
     /**
      * Finds and displays all projects that are not overdue or finalised then allows the user to select one.
      *
@@ -199,10 +456,10 @@ class CliHandler {
         ArrayList<Pickable> currentProjects = new ArrayList<>(DataSource.getInstance().getCurrentProjects());
 
         if ( currentProjects.isEmpty() ) {
-            System.out.println("---  No active or unscheduled projects on record  ---\n");
+            out.println("---  No active or unscheduled projects on record  ---\n");
             return currentSelection;
         } else {
-            return (Project) printAndPickResult(currentProjects);
+            return pickProject(currentProjects);
         }
     }
 
@@ -217,10 +474,10 @@ class CliHandler {
         ArrayList<Pickable> overdueProjects = new ArrayList<>(DataSource.getInstance().getOverdueProjects());
 
         if ( overdueProjects.isEmpty() ) {
-            System.out.println("---  No overdue projects on record.  ---\n");
+            out.println("---  No overdue projects on record.  ---\n");
             return currentSelection;
         } else {
-            return (Project) printAndPickResult(overdueProjects);
+            return pickProject(overdueProjects);
         }
     }
 
@@ -232,13 +489,13 @@ class CliHandler {
      * @throws DatabaseException If a database error occurs.
      */
     public Project showAllProjects(Project currentSelection) throws DatabaseException{
-        ArrayList<Pickable> allProjects = new ArrayList<>(DataSource.getInstance().getOverdueProjects());
+        ArrayList<Pickable> allProjects = new ArrayList<>(DataSource.getInstance().getAllProjects());
 
         if ( allProjects.isEmpty() ) {
-            System.out.println("---  No projects on record.  ---\n");
+            out.println("---  No projects on record.  ---\n");
             return currentSelection;
         } else {
-            return (Project) printAndPickResult(allProjects);
+            return pickProject(allProjects);
         }
     }
 
@@ -252,60 +509,128 @@ class CliHandler {
      * @throws DatabaseException If a database error occurs during the search.
      */
     public Project searchDialog() throws DatabaseException{
-        System.out.println("""
+        out.println("""
             How would you like to search:
 
             1. By project name
             2. By address
             3. By person
+            4. Portfolio as it was on a past date
             0. Back to Main menu
         """);
+        if (canCancelWithEnter()) {
+            out.println("A slow search can be stopped by pressing Enter.");
+        }
 
-        System.out.println();
-        final int input = getMenuChoice("Menu choice: ", 0, 3);
+        out.println();
+        final int input = getMenuChoice("Menu choice: ", 0, 4);
 
         ArrayList<Pickable> searchResults;
-        System.out.println();
+        out.println();
         String searchTerm;
-
-        switch (input) {
-            case 0:
-                return null;
-            case 1:
-                final int maxProjectLength = ProjectTable.COL_PROJECT_NAME_SIZE;
-                searchTerm = getStringFromUser("Project name: ",
-                        maxProjectLength,
-                        "Project names can be at most" + maxProjectLength + " characters long."
-                        , false);
-                searchResults = new ArrayList<>(DataSource.getInstance().getProjectsByName(searchTerm));
-                break;
-            case 2:
-                final int maxAddressLength = ProjectTable.COL_PHYS_ADDR_SIZE;
-                searchTerm = getStringFromUser("Project Address: ",
-                        maxAddressLength,
-                        "Project addresses can be at most" + maxAddressLength + " characters long."
-                        , false);
-                searchResults = new ArrayList<>(DataSource.getInstance().getProjectsByAddress(searchTerm));
-                break;
-            case 3:
-                final Person personToSearch = findOrCreatePerson();
-                if (personToSearch == null) {
+        //Finalised projects are moved to the archive after a while. They are only searched when asked for.
+        final boolean includeArchived = input >= 1 && input <= 3
+                && getYesNoFromUser("Include archived projects? [y/n]: ");
+
+        //A slow search can be stopped by pressing Enter (from a terminal) or by its timeout. The results found until
+        //then are still shown.
+        try {
+            switch (input) {
+                case 0:
                     return null;
-                }
-                searchResults = new ArrayList<>(DataSource.getInstance().getProjectsByPerson(personToSearch));
-                break;
-            default:
-                throw new AssertionError("Unhandled menu choice" + input + " encountered in search dialog");
+                case 1:
+                    final int maxProjectLength = ProjectTable.COL_PROJECT_NAME_SIZE;
+                    searchTerm = getStringFromUser("Project name: ",
+                            maxProjectLength,
+                            "Project names can be at most" + maxProjectLength + " characters long."
+                            , false);
+                    searchResults = new ArrayList<>(DataSource.getInstance().getProjectsByName(searchTerm, includeArchived));
+                    break;
+                case 2:
+                    final int maxAddressLength = ProjectTable.COL_PHYS_ADDR_SIZE;
+                    searchTerm = getStringFromUser("Project Address: ",
+                            maxAddressLength,
+                            "Project addresses can be at most" + maxAddressLength + " characters long."
+                            , false);
+                    searchResults = new ArrayList<>(DataSource.getInstance().getProjectsByAddress(searchTerm, includeArchived));
+                    break;
+                case 3:
+                    final Person personToSearch = findOrCreatePerson();
+                    if (personToSearch == null) {
+                        return null;
+                    }
+                    searchResults = new ArrayList<>(DataSource.getInstance().getProjectsByPerson(personToSearch, includeArchived));
+                    break;
+                case 4:
+                    showPortfolioAsOf();
+                    return null;
+                default:
+                    throw new AssertionError("Unhandled menu choice" + input + " encountered in search dialog");
+            }
+        } catch (QueryTimeoutException ex) {
+            out.println(ex.getMessage());
+            searchResults = new ArrayList<>();
+            for (Object result : ex.getPartialResult()) {
+                searchResults.add((Pickable) result);
+            }
+            if (!searchResults.isEmpty()) {
+                out.println("Showing the results found before the search was stopped.");
+            }
         }
 
         if (searchResults.isEmpty()) {
-            System.out.println(" -- No search results -- ");
+            out.println(" -- No search results -- ");
             return null;
         } else {
-            return (Project) printAndPickResult(searchResults);
+            return pickProject(searchResults);
         }
     }
 
+    /**
+     * Asks the user for a date and shows the active and overdue projects as they were at the end of that day.
+     *
+     * @throws DatabaseException If a database error occurs.
+     */
+    private void showPortfolioAsOf() throws DatabaseException {
+        LocalDate date = getDateFromUser("Date in the format YYYY-MM-DD [leave blank for today]: ");
+        LocalDateTime endOfDay = date.atTime(LocalTime.MAX);
+        DataSource dataSource = DataSource.getInstance();
+
+        List<ProjectSummary> active = dataSource.getCurrentProjectsAsOf(endOfDay);
+        out.println("Active projects on " + date + ":");
+        if (active.isEmpty()) {
+            out.println(" -- None -- ");
+        } else {
+            renderer.printTable(active, 0, active.size());
+        }
+        out.println();
+
+        List<ProjectSummary> overdue = dataSource.getOverdueProjectsAsOf(endOfDay);
+        out.println("Overdue projects on " + date + ":");
+        if (overdue.isEmpty()) {
+            out.println(" -- None -- ");
+        } else {
+            renderer.printTable(overdue, 0, overdue.size());
+        }
+        out.println();
+    }
+
+    /**
+     * Shows a list of project summaries for the user to pick from and then fetches the full record of the project
+     * that was picked.
+     *
+     * @param summaries A List of {@link ProjectSummary} objects to select from.
+     * @return The full {@link Project} that was selected or {@code null} if the user cancelled.
+     * @throws DatabaseException If a database error occurs while fetching the selected project.
+     */
+    private Project pickProject(List<Pickable> summaries) throws DatabaseException {
+        ProjectSummary choice = (ProjectSummary) printAndPickResult(summaries);
+        if (choice == null) {
+            return null;
+        }
+        return DataSource.getInstance().getProjectByNumber(choice.number);
+    }
+
 
     /**
      * Helper method for getting user input for a menu and validating that it is within the range of values from the menu.
@@ -320,8 +645,8 @@ class CliHandler {
         int input = minChoice -1;
         while (!haveValidInput) {
             input = minChoice -1;
-            System.out.print(prompt);
-            String stringInput = consoleReader.nextLine();
+            out.print(prompt);
+            String stringInput = readLine();
             try {
                 input = Integer.parseInt(stringInput);
             } catch (NumberFormatException exc) {
@@ -337,90 +662,324 @@ class CliHandler {
                 haveValidInput = true;
             }
         }
-        System.out.println();
+        out.println();
         return input;
     }
 
     /**
      * Helper method to print out a list of {@link Pickable} objects (i.e. Projects or People) and ask the user to select one.
      * <p><br>
-     * Called on search results received from a database search method.
+     * Called on search results received from a database search method. The results are shown as a table, one page at a
+     * time, so the time taken to print is bounded by the page size rather than the number of results. The user can
+     * move between pages, jump to a page or filter the results by typing some text.
      *
      * @param searchResults A List of {@link Pickable} objects to select from.
      * @return The selected {@link Pickable}. Typical you should cast this to the relevant object type afterwards.
      */
     private Pickable printAndPickResult(List<Pickable> searchResults) {
-        System.out.println(" -- Search results -- ");
-        System.out.println();
-        for (int index = 0; index < searchResults.size(); ++index) {
-            StringBuilder result = new StringBuilder();
-            if ( index < 9 ) {
-                result.append(' ');
-            }
-            result.append(index + 1);
-            result.append(" - ");
-            result.append(searchResults.get(index).getOneLineString());
-            System.out.println(result);
-        }
-        System.out.println();
-        int choice = getMenuChoice("Select a result [0 to cancel]: ", 0, searchResults.size());
-        System.out.println();
-        if (choice == 0) {
-            return null;
-        } else {
-            return searchResults.get(choice -1);
+        final int pageSize = renderer.pageSize();
+        List<Pickable> shownResults = searchResults;
+        String filter = "";
+        int page = 0;
+        while (true) {
+            final int pageCount = Math.max(1, (shownResults.size() + pageSize - 1) / pageSize);
+            page = Math.max(0, Math.min(page, pageCount - 1));
+            final int fromIndex = page * pageSize;
+            final int toIndex = Math.min(shownResults.size(), fromIndex + pageSize);
+
+            out.println(" -- Search results -- ");
+            out.println();
+            if (shownResults.isEmpty()) {
+                out.println("No results match the filter '" + filter + "'");
+            } else {
+                renderer.printTable(shownResults, fromIndex, toIndex);
+            }
+            out.println();
+
+            StringBuilder prompt = new StringBuilder();
+            if (pageCount > 1 || !filter.isEmpty()) {
+                prompt.append("Page ").append(page + 1).append(" of ").append(pageCount)
+                        .append(" (").append(shownResults.size()).append(" results");
+                if (!filter.isEmpty()) {
+                    prompt.append(" matching '").append(filter).append('\'');
+                }
+                prompt.append(")\n");
+                prompt.append("[n]ext, [p]revious, [g]<page> to go to a page, /<text> to filter, / to clear the filter\n");
+            } else if (searchResults.size() > 1) {
+                prompt.append("/<text> to filter the results\n");
+            }
+            prompt.append("Select a result [0 to cancel]: ");
+            out.print(prompt);
+
+            String input = readLine().trim();
+            out.println();
+
+            if (input.startsWith("/")) {
+                filter = input.substring(1).trim();
+                shownResults = filterResults(searchResults, filter);
+                page = 0;
+                continue;
+            }
+            if (input.equalsIgnoreCase("n")) {
+                ++page;
+                continue;
+            }
+            if (input.equalsIgnoreCase("p")) {
+                --page;
+                continue;
+            }
+            if (input.length() > 1 && (input.charAt(0) == 'g' || input.charAt(0) == 'G')) {
+                try {
+                    page = Integer.parseInt(input.substring(1).trim()) - 1;
+                } catch (NumberFormatException ex) {
+                    out.println("Invalid page number.");
+                }
+                continue;
+            }
+
+            int choice;
+            try {
+                choice = Integer.parseInt(input);
+            } catch (NumberFormatException ex) {
+                continue;
+            }
+            if (choice == 0) {
+                return null;
+            }
+            if (choice >= 1 && choice <= shownResults.size()) {
+                return shownResults.get(choice - 1);
+            }
+        }
+    }
+
+    /**
+     * Returns the results whose one-line description contains the given text (ignoring case).
+     */
+    private static List<Pickable> filterResults(List<Pickable> results, String filter) {
+        if (filter.isEmpty()) {
+            return results;
         }
+        final String lowerCaseFilter = filter.toLowerCase();
+        ArrayList<Pickable> answer = new ArrayList<>();
+        for (Pickable result : results) {
+            if (result.getOneLineString().toLowerCase().contains(lowerCaseFilter)) {
+                answer.add(result);
+            }
+        }
+        return answer;
     }
 
     /**
      * Displays the update menu. This menu is used to change/enrich each project record but also to delete them or
-     * advance the status to the next stage.
+     * advance the status to the next stage. Archived projects can't be changed, so only their history is offered.
      *
      * @param selectedProject The currently selected project which will be modified.
      * @throws DatabaseException If an error occurs in the underlying database call.
      */
     public Project updateMenu(Project selectedProject) throws DatabaseException{
+        if (selectedProject.isArchived()) {
+            return archivedProjectMenu(selectedProject);
+        }
         int choice = -1;
         while (choice != 0) {
-            System.out.println("Selected project: " + selectedProject.getOneLineString());
-            System.out.println(""" 
+            out.println("Selected project: " + selectedProject.getOneLineString());
+            out.println(""" 
                     What would you like to change in the selected item?
                     1. Update project record
                     2. Advance project stage
                     3. Delete project
+                    4. View change history
+                    5. Payments
                     0. Return to Main Menu
                     """);
 
-            choice = getMenuChoice("Make a selection [0 to cancel]: ", 0, 3);
-            System.out.println();
+            choice = getMenuChoice("Make a selection [0 to cancel]: ", 0, 5);
+            out.println();
 
-            switch (choice) {
-                case 1:
-                    selectedProject = updateProjectDetailMenu(selectedProject);
-                    break;
-                case 2:
-                    selectedProject.advanceStage();
-                    break;
-                case 3:
-                    if (deleteProject(selectedProject)) {
-                        selectedProject = null;
-                        choice = 0;
-                    }
-                    else {
-                        choice = -1;
-                    }
-                    break;
+            //Each action gets its own trace so that repeating an action isn't reported as a statement storm.
+            ActionTrace trace = ActionTrace.start("Update menu option " + choice, this::flush);
+            try {
+                switch (choice) {
+                    case 1:
+                        selectedProject = updateProjectDetailMenu(selectedProject);
+                        break;
+                    case 2:
+                        //advanceStage prints directly to System.out.
+                        flush();
+                        selectedProject.advanceStage();
+                        break;
+                    case 3:
+                        if (deleteProject(selectedProject)) {
+                            selectedProject = null;
+                            choice = 0;
+                        }
+                        else {
+                            choice = -1;
+                        }
+                        break;
+                    case 4:
+                        showProjectHistory(selectedProject);
+                        break;
+                    case 5:
+                        paymentsMenu(selectedProject);
+                        break;
+                }
+            } finally {
+                trace.close();
+            }
+        }
+        out.println();
+        return selectedProject;
+    }
+
+    /**
+     * The update menu of an archived project. The project is finalised and has been moved to the archive, so it can
+     * only be looked at.
+     *
+     * @param selectedProject The archived project.
+     * @return The selected project, unchanged.
+     * @throws DatabaseException If an error occurs in the underlying database call.
+     */
+    private Project archivedProjectMenu(Project selectedProject) throws DatabaseException {
+        int choice = -1;
+        while (choice != 0) {
+            out.println("Selected project: " + selectedProject.getOneLineString());
+            out.println("""
+                    This project has been archived and can't be changed.
+                    1. View change history
+                    0. Return to Main Menu
+                    """);
+
+            choice = getMenuChoice("Make a selection [0 to cancel]: ", 0, 1);
+            out.println();
+
+            if (choice == 1) {
+                ActionTrace trace = ActionTrace.start("Archived project history", this::flush);
+                try {
+                    showProjectHistory(selectedProject);
+                } finally {
+                    trace.close();
+                }
             }
         }
-        System.out.println();
+        out.println();
         return selectedProject;
     }
 
+    /**
+     * Prints the audit trail of a project, oldest change first.
+     *
+     * @param project The project whose history to show.
+     * @throws DatabaseException If a database error occurs.
+     */
+    private void showProjectHistory(Project project) throws DatabaseException {
+        List<AuditEntry> history = DataSource.getInstance().getProjectHistory(project.number);
+        if (history.isEmpty()) {
+            out.println("No changes have been recorded for this project.\n");
+            return;
+        }
+        out.println("Change history of project " + project.number + ":");
+        renderer.printTable(history, 0, history.size());
+        out.println();
+    }
+
+    /**
+     * Shows the payments made towards a project and lets the user record new payments or reverse one. Each payment is
+     * saved immediately and the project's total paid to-date is updated with it.
+     *
+     * @param project The selected project. Its total paid is kept up-to-date.
+     * @throws DatabaseException If a database error occurs.
+     */
+    private void paymentsMenu(Project project) throws DatabaseException {
+        DataSource dataSource = DataSource.getInstance();
+        int choice = -1;
+        while (choice != 0) {
+            //Each action gets its own trace so that recording several payments isn't reported as a statement storm.
+            ActionTrace trace = ActionTrace.start("Payments menu", this::flush);
+            try {
+                List<Payment> payments = dataSource.listPayments(project.number);
+                out.println("Payments towards project " + project.number + " (paid " + project.totalPaid + " of "
+                        + project.totalFee + "):");
+                if (payments.isEmpty()) {
+                    out.println("No payments have been recorded.");
+                } else {
+                    renderer.printTable(payments, 0, payments.size());
+                }
+                out.println("""
+
+                        1. Record a payment
+                        2. Reverse a payment
+                        0. Return to the update menu
+                        """);
+                choice = getMenuChoice("Make a selection [0 to cancel]: ", 0, 2);
+                out.println();
+
+                switch (choice) {
+                    case 1:
+                        Money amount = getNewMoneyValueForUpdateMenu("Amount paid", Money.ZERO, false);
+                        LocalDate paidOn = getDateFromUser("Date paid in the format YYYY-MM-DD [leave blank for today]: ");
+                        String reference = getStringFromUser("Reference (e.g. invoice number) [optional]: ",
+                                PaymentTable.COL_REFERENCE_SIZE,
+                                "References are limited to " + PaymentTable.COL_REFERENCE_SIZE + " characters.", true);
+                        dataSource.recordPayment(project.number, amount, paidOn, reference.isBlank() ? null : reference);
+                        project.totalPaid = project.totalPaid.plus(amount);
+                        out.println("Payment recorded.\n");
+                        break;
+                    case 2:
+                        if (payments.isEmpty()) {
+                            out.println("There are no payments to reverse.\n");
+                            break;
+                        }
+                        int paymentChoice = getMenuChoice("Number of the payment to reverse [0 to cancel]: ", 0,
+                                payments.size());
+                        if (paymentChoice == 0) {
+                            break;
+                        }
+                        Payment payment = payments.get(paymentChoice - 1);
+                        if (!payment.canBeReversed()) {
+                            out.println("That payment is a reversal or has already been reversed.\n");
+                            break;
+                        }
+                        if (getYesNoFromUser("Reverse the payment of " + payment.amount + " made on " + payment.paidOn
+                                + "? [y/n]: ")) {
+                            Payment reversal = dataSource.reversePayment(payment, LocalDate.now());
+                            project.totalPaid = project.totalPaid.plus(reversal.amount);
+                            out.println("Payment reversed.\n");
+                        }
+                        break;
+                }
+            } finally {
+                trace.close();
+            }
+        }
+    }
+
+    /**
+     * Asks the user for a date in the format YYYY-MM-DD until a valid one is given.
+     *
+     * @param prompt The prompt to show.
+     * @return The date or today's date if the user left the prompt blank.
+     */
+    private LocalDate getDateFromUser(String prompt) {
+        final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+        while (true) {
+            String input = getStringFromUser(prompt, true);
+            if (input.isBlank()) {
+                return LocalDate.now();
+            }
+            try {
+                return LocalDate.parse(input.trim(), formatter);
+            } catch (DateTimeParseException ex) {
+                out.println("Check your date format and try again");
+            }
+        }
+    }
+
     /**
      * Presents the user with a menu for editing the fields of a project (all the fields except the project status/stage).
-     * The menu is repeatedly shown to the user as they specify changes and the requested changes are buffered until the
-     * user indicates that they are done and wish to save their changes. Those changes are then submitted to the database
-     * in a single query. 
+     * The menu is repeatedly shown to the user as they specify changes. The changes are applied to a copy of the project
+     * which tracks which fields were changed. When the user indicates that they are done and wish to save their
+     * changes, only the changed fields are submitted to the database in a single query.
      * 
      * @param projectToChange The project being edited.
      * @return A project object representing the new state. Set the selected project to this value.
@@ -428,11 +987,11 @@ class CliHandler {
      */
     private Project updateProjectDetailMenu(Project projectToChange) throws DatabaseException{
         StringBuilder menuText = new StringBuilder();
-        HashMap<String, Object> changes = new HashMap<>();
+        Project editedProject = projectToChange.copy();
         String input = "";
         boolean shouldContinue = true;
         while (shouldContinue) {
-            System.out.println("Current project record: \n" +projectToChange.getFullDescription());
+            out.println("Current project record: \n" + editedProject.getFullDescription());
             menuText.setLength(0);
             menuText.append(
                     """
@@ -441,23 +1000,23 @@ class CliHandler {
                             2. Address
                             3. ERF number
                             4. Total Fee
-                            5. Total Paid to-date
+                            5. Total Paid to-date (see Payments in the update menu)
                             6. Project deadline 
                             """);
-            menuText.append(projectToChange.customer == null ? "7. Assign customer\n" : "7. Reassign customer\n");
-            menuText.append(projectToChange.engineer == null ? "8. Assign engineer\n" : "8. Reassign engineer\n");
-            menuText.append(projectToChange.projectManager == null ? "9. Assign project manager\n" : "9. Reassign project manager\n");
-            menuText.append(projectToChange.architect == null ? "10. Assign architect\n" : "10. Reassign architect\n");
+            menuText.append(!editedProject.hasCustomer() ? "7. Assign customer\n" : "7. Reassign customer\n");
+            menuText.append(!editedProject.hasEngineer() ? "8. Assign engineer\n" : "8. Reassign engineer\n");
+            menuText.append(!editedProject.hasProjectManager() ? "9. Assign project manager\n" : "9. Reassign project manager\n");
+            menuText.append(!editedProject.hasArchitect() ? "10. Assign architect\n" : "10. Reassign architect\n");
             menuText.append("11. Change project type\n\n");
-            if (!changes.isEmpty()) {
+            if (editedProject.isDirty()) {
                 menuText.append("'S'= Save changes and exit\n");
             }
             menuText.append("'Q'= Quit without saving\n\n");
             menuText.append("Please make a selection: ");
 
-            System.out.print(menuText);
+            out.print(menuText);
 
-            input = consoleReader.nextLine();
+            input = readLine();
             input = input.trim();
 
             int numberChoice;
@@ -470,141 +1029,107 @@ class CliHandler {
             if (input.equalsIgnoreCase("S") || input.equalsIgnoreCase("Q")) {
                 shouldContinue = false;
             } else if (numberChoice < 1 || numberChoice > 11 ) {
-                System.out.println("Invalid input. Please try again.");
+                out.println("Invalid input. Please try again.");
             } else {
                 String newStringValue;
-                int newIntValue = 0;
-                BigDecimal newBigDecimalValue;
                 Person newPerson;
 
-
                 switch (numberChoice) {
                     case 1: //Change Project Name
                         newStringValue = getNewStringValueForUpdateMenu(
                                 "New project name",
-                                projectToChange.name,
+                                editedProject.name,
                                 ProjectTable.COL_PROJECT_NAME_SIZE,
                                 "Project names are limited to ? characters"
 
                         );
                         if (!newStringValue.isBlank()) {
-                            changes.put(ProjectTable.COL_PROJECT_NAME, newStringValue);
-                        } else {
-                            changes.remove(ProjectTable.COL_PROJECT_NAME);
+                            editedProject.setName(newStringValue);
                         }
                         break;
                     case 2: //Change address
                         newStringValue = getNewStringValueForUpdateMenu(
                                 "New project address",
-                                projectToChange.address,
+                                editedProject.address,
                                 ProjectTable.COL_PHYS_ADDR_SIZE,
                                 "Project addresses are limited to ? characters"
 
                         );
                         if (!newStringValue.isBlank()) {
-                            changes.put(ProjectTable.COL_PHYS_ADDR, newStringValue);
-                        } else {
-                            changes.remove(ProjectTable.COL_PHYS_ADDR);
+                            editedProject.setAddress(newStringValue);
                         }
                         break;
                     case 3: //Change ERF
-                        newIntValue = getNewIntValueForUpdateMenu("New ERF number", projectToChange.erfNum, false);
-                        if (newIntValue != projectToChange.erfNum) {
-                            changes.put(ProjectTable.COL_ERF, newIntValue);
-                        } else {
-                            changes.remove(ProjectTable.COL_ERF);
-                        }
+                        editedProject.setErfNum(getNewIntValueForUpdateMenu("New ERF number", editedProject.erfNum, false));
                         break;
                     case 4: //Change total fee
-                        newBigDecimalValue = getNewDecimalValueForUpdateMenu("New Total Fee", projectToChange.totalFee, true);
-                        if (newBigDecimalValue != null) {
-                            changes.put(ProjectTable.COL_TOTAL_FEE, newBigDecimalValue);
-                        } else {
-                            changes.remove(ProjectTable.COL_TOTAL_FEE);
-                        }
+                        editedProject.setTotalFee(getNewMoneyValueForUpdateMenu("New Total Fee", editedProject.totalFee, true));
                         break;
-                    case 5: //Change total paid to-date
-                        newBigDecimalValue = getNewDecimalValueForUpdateMenu("New amount paid to-date", projectToChange.totalPaid, true);
-                        if (newBigDecimalValue != null) {
-                            changes.put(ProjectTable.COL_TOTAL_PAID, newBigDecimalValue);
-                        } else {
-                            changes.remove(ProjectTable.COL_TOTAL_PAID);
-                        }
+                    case 5: //Total paid to-date is the sum of the payments
+                        out.println("The total paid to-date is the sum of the recorded payments. Record or reverse "
+                                + "payments with the Payments option of the update menu.\n");
                         break;
                     case 6: //Change deadline
                         final DateTimeFormatter formatter  = DateTimeFormatter.ofPattern("yyyy-MM-dd");
                         StringBuilder prompt = new StringBuilder();
                         prompt.append("Enter a new deadline in the format YYYY-MM-DD");
-                        if (projectToChange.deadline != null) {
+                        if (editedProject.deadline != null) {
                             prompt.append(" [leave blank to keep the current value of ")
-                                    .append(projectToChange.deadline.format(formatter)).append(']');
+                                    .append(editedProject.deadline.format(formatter)).append(']');
                         }
                         prompt.append(": ");
                         LocalDate newDate = null;
                         while (newDate == null) {
-                            newStringValue = getStringFromUser(prompt.toString(), false);
+                            newStringValue = getStringFromUser(prompt.toString(), editedProject.deadline != null);
+                            if (newStringValue.isBlank()) {
+                                newDate = editedProject.deadline;
+                                break;
+                            }
                             try {
                                 newDate = LocalDate.parse(newStringValue, formatter);
                             } catch ( DateTimeParseException ex ) {
-                                System.out.println("Check your date format and try again");
+                                out.println("Check your date format and try again");
                             }
                         }
-
-                        if (!newDate.equals(projectToChange.deadline)) {
-                            changes.put(ProjectTable.COL_DEADLINE, newDate);
-                        } else {
-                            changes.remove(ProjectTable.COL_DEADLINE);
-                        }
+                        editedProject.setDeadline(newDate);
                         break;
                     case 7: //Change customer
-                        newPerson = getNewAssignee(projectToChange.customer, "customer");
-                        if (projectToChange.customer.id != newPerson.id) {
-                            changes.put(ProjectTable.COL_CUSTOMER, newPerson.id);
-                        } else {
-                            changes.remove(ProjectTable.COL_CUSTOMER);
+                        newPerson = getNewAssignee(editedProject.getCustomer(), "customer");
+                        if (newPerson != null) {
+                            editedProject.setCustomer(newPerson);
                         }
                         break;
                     case 8: //Change engineer
-                        newPerson = getNewAssignee(projectToChange.engineer, "engineer");
-                        if (projectToChange.engineer == null || projectToChange.engineer.id != newPerson.id) {
-                            changes.put(ProjectTable.COL_ENGINEER, newPerson.id);
-                        } else {
-                            changes.remove(ProjectTable.COL_ENGINEER);
+                        newPerson = getNewAssignee(editedProject.getEngineer(), "engineer");
+                        if (newPerson != null) {
+                            editedProject.setEngineer(newPerson);
                         }
                         break;
                     case 9: //Change PM
-                        newPerson = getNewAssignee(projectToChange.projectManager, "project manager");
-                        if (projectToChange.projectManager == null || projectToChange.projectManager.id != newPerson.id) {
-                            changes.put(ProjectTable.COL_PROJ_MANAGER, newPerson.id);
-                        } else {
-                            changes.remove(ProjectTable.COL_PROJ_MANAGER);
+                        newPerson = getNewAssignee(editedProject.getProjectManager(), "project manager");
+                        if (newPerson != null) {
+                            editedProject.setProjectManager(newPerson);
                         }
                         break;
                     case 10: //Change architect
-                        newPerson = getNewAssignee(projectToChange.architect, "architect");
-                        if (projectToChange.architect == null || projectToChange.architect.id != newPerson.id) {
-                            changes.put(ProjectTable.COL_ARCHITECT, newPerson.id);
-                        } else {
-                            changes.remove(ProjectTable.COL_ARCHITECT);
+                        newPerson = getNewAssignee(editedProject.getArchitect(), "architect");
+                        if (newPerson != null) {
+                            editedProject.setArchitect(newPerson);
                         }
                         break;
                     case  11: //Change project type
-                        System.out.println("The current project type is " + projectToChange.type.toString());
-                        ProjectType newType = chooseProjectType();
-                        if (newType != projectToChange.type) {
-                            changes.put(ProjectTable.COL_TYPE, newType.id());
-                        }
+                        out.println("The current project type is " + editedProject.type.toString());
+                        editedProject.setType(chooseProjectType());
                         break;
                 }
             }
         }
 
-        if (input.equalsIgnoreCase("S")) {
-            //Process all the changes and update the selected object
-            DataSource dataSource = DataSource.getInstance();
-            System.out.println("About to update the project");
-            if (dataSource.updateProject(projectToChange, changes)) {
-                return dataSource.getProjectByNumber(projectToChange.number);
+        if (input.equalsIgnoreCase("S") && editedProject.isDirty()) {
+            //Save the changed fields. The edited copy becomes the selected project.
+            out.println("About to update the project");
+            if (DataSource.getInstance().updateProject(editedProject)) {
+                return editedProject;
             }
         }
         return projectToChange;
@@ -622,17 +1147,31 @@ class CliHandler {
      */
     public void editPeople() throws DatabaseException{
         final int maxLength = PersonTable.COL_FIRST_NAME_SIZE;
-        String searchTerm = getStringFromUser("Enter a person's name to search for [blank to list all records]: ",
-                maxLength, "Names are limited to " + maxLength + "characters.", true);
         Person personToEdit = null;
         DataSource dataSource = DataSource.getInstance();
-        ArrayList<Pickable> results;
-        if (searchTerm.isBlank()) {
-            results = new ArrayList<>(dataSource.getAllPeople());
+        PersonTypeAhead.Result typed = typeAheadSearch(
+                "Enter a person's name to search for (1-9 picks a match, Enter on a blank line lists all records): ");
+        if (typed != null && typed.cancelled) {
+            return;
+        }
+        if (typed != null && typed.selected != null) {
+            personToEdit = typed.selected;
         } else {
-            results = new ArrayList<>(dataSource.searchPeople(searchTerm));
+            String searchTerm;
+            if (typed != null && typed.text.length() <= maxLength) {
+                searchTerm = typed.text;
+            } else {
+                searchTerm = getStringFromUser("Enter a person's name to search for [blank to list all records]: ",
+                        maxLength, "Names are limited to " + maxLength + "characters.", true);
+            }
+            ArrayList<Pickable> results;
+            if (searchTerm.isBlank()) {
+                results = new ArrayList<>(dataSource.getAllPeople());
+            } else {
+                results = new ArrayList<>(dataSource.searchPeople(searchTerm));
+            }
+            personToEdit = (Person) printAndPickResult(results);
         }
-        personToEdit = (Person) printAndPickResult(results);
         if (personToEdit == null){
             return;
         }
@@ -640,41 +1179,47 @@ class CliHandler {
         int choice = -1;
         while (choice != 0) {
             choice = personEditMenu(personToEdit);
-            String input;
-            int maxInput = 0;
-            switch (choice) {
-                case 1:
-                    maxInput = PersonTable.COL_FIRST_NAME_SIZE;
-                    input = getStringFromUser("New first name: ", maxInput,
-                            "Names are limited to " + maxInput + " characters.", false);
-                    if (dataSource.updatePerson(personToEdit, PersonTable.COL_FIRST_NAME, input)) {
-                        personToEdit.firstName = input;
-                    }
-                    break;
-                case 2:
-                    maxInput = PersonTable.COL_SURNAME_SIZE;
-                    input = getStringFromUser("New surname: ", maxInput,
-                            "Names are limited to " + maxInput + " characters.", false);
-                    if (dataSource.updatePerson(personToEdit, PersonTable.COL_SURNAME, input)) {
-                        personToEdit.surname = input;
-                    }
-                    break;
-                case 3:
-                    maxInput = PersonTable.COL_EMAIL_SIZE;
-                    input = getStringFromUser("New e-mail: ", maxInput,
-                            "E-mails are limited to " + maxInput + " characters.", false);
-                    if (dataSource.updatePerson(personToEdit, PersonTable.COL_EMAIL, input)) {
-                        personToEdit.email = input;
-                    }
-                    break;
-                case 4:
-                    maxInput = PersonTable.COL_PHYS_ADDR_SIZE;
-                    input = getStringFromUser("New address: ", maxInput,
-                            "Addresses are limited to " + maxInput + " characters.", false);
-                    if (dataSource.updatePerson(personToEdit, PersonTable.COL_PHYS_ADDR, input)) {
-                        personToEdit.address = input;
-                    }
-                    break;
+            //Each change gets its own trace so that editing several fields isn't reported as a statement storm.
+            ActionTrace trace = ActionTrace.start("Edit person option " + choice, this::flush);
+            try {
+                String input;
+                int maxInput = 0;
+                switch (choice) {
+                    case 1:
+                        maxInput = PersonTable.COL_FIRST_NAME_SIZE;
+                        input = getStringFromUser("New first name: ", maxInput,
+                                "Names are limited to " + maxInput + " characters.", false);
+                        if (dataSource.updatePerson(personToEdit, PersonTable.COL_FIRST_NAME, input)) {
+                            personToEdit.firstName = input;
+                        }
+                        break;
+                    case 2:
+                        maxInput = PersonTable.COL_SURNAME_SIZE;
+                        input = getStringFromUser("New surname: ", maxInput,
+                                "Names are limited to " + maxInput + " characters.", false);
+                        if (dataSource.updatePerson(personToEdit, PersonTable.COL_SURNAME, input)) {
+                            personToEdit.surname = input;
+                        }
+                        break;
+                    case 3:
+                        maxInput = PersonTable.COL_EMAIL_SIZE;
+                        input = getStringFromUser("New e-mail: ", maxInput,
+                                "E-mails are limited to " + maxInput + " characters.", false);
+                        if (dataSource.updatePerson(personToEdit, PersonTable.COL_EMAIL, input)) {
+                            personToEdit.email = input;
+                        }
+                        break;
+                    case 4:
+                        maxInput = PersonTable.COL_PHYS_ADDR_SIZE;
+                        input = getStringFromUser("New address: ", maxInput,
+                                "Addresses are limited to " + maxInput + " characters.", false);
+                        if (dataSource.updatePerson(personToEdit, PersonTable.COL_PHYS_ADDR, input)) {
+                            personToEdit.address = input;
+                        }
+                        break;
+                }
+            } finally {
+                trace.close();
             }
         }
 
@@ -691,9 +1236,9 @@ class CliHandler {
     private int personEditMenu(Person selectedPerson) {
         int choice = -1;
         if (selectedPerson != null) {
-            System.out.println("Selected person:\n" + selectedPerson.toString());
+            out.println("Selected person:\n" + selectedPerson.toString());
         }
-        System.out.println(""" 
+        out.println(""" 
                 What would you like to change in the selected item?
                 1. Update firstName
                 2. Update surname
@@ -703,7 +1248,7 @@ class CliHandler {
                 """);
 
         choice = getMenuChoice("Make a selection [0 to cancel]: ", 0, 4);
-        System.out.println();
+        out.println();
         return choice;
     }
 
@@ -757,7 +1302,7 @@ class CliHandler {
                 try {
                     answer = Integer.parseInt(newValue);
                 } catch (NumberFormatException ex) {
-                    System.out.println("The input given does not appear to be a number.");
+                    out.println("The input given does not appear to be a number.");
                 }
             }
             if ( answer != null && answer == 0 && !zeroAllowed ) {
@@ -768,19 +1313,18 @@ class CliHandler {
     }
 
     /**
-     * Used when updating a decimal field in a Project record. Prints a prompt that shows the user what the previous value in 
+     * Used when updating a money field in a Project record. Prints a prompt that shows the user what the previous value in 
      * the field was.
      *
      * @param promptPrefix The prompt to the user. Will be appended with a message containing the previous value.
      * @param oldValue The previous value. Can be zero if there was no previous value.
      * @param zeroAllowed Whether or not zero is considered valid input.
-     * @return The input from the user in a BigDecimal object.
+     * @return The input from the user as a Money object (rounded to the nearest cent).
      */
-    private BigDecimal getNewDecimalValueForUpdateMenu(String promptPrefix, BigDecimal oldValue, boolean zeroAllowed){
-        final BigDecimal ZERO = new BigDecimal(0);
+    private Money getNewMoneyValueForUpdateMenu(String promptPrefix, Money oldValue, boolean zeroAllowed){
         StringBuilder prompt = new StringBuilder();
         prompt.append(promptPrefix);
-        boolean oldValueIsNotZero = !oldValue.equals(ZERO);
+        boolean oldValueIsNotZero = !oldValue.isZero();
         if (!zeroAllowed) {
             prompt.append(" (Required Value) ");
         }
@@ -789,20 +1333,21 @@ class CliHandler {
         }
         prompt.append(':');
         String newValue;
-        BigDecimal answer = null;
+        Money answer = null;
         while (answer == null) {
             newValue = getStringFromUser(prompt.toString(), true);
             if ( newValue.isBlank() && (oldValueIsNotZero || zeroAllowed) ) {
                 return oldValue;
             } else {
                 try {
-                    answer = new BigDecimal(newValue);
-                    answer = answer.setScale(2, RoundingMode.HALF_UP);
+                    answer = Money.parse(newValue);
                 } catch (NumberFormatException ex) {
-                    System.out.println("The input given does not appear to be a number.");
+                    out.println("The input given does not appear to be a number.");
+                } catch (ArithmeticException ex) {
+                    out.println("The amount given is too large.");
                 }
             }
-            if (answer != null && answer.equals(ZERO) && !zeroAllowed) {
+            if (answer != null && (answer.isNegative() || (answer.isZero() && !zeroAllowed))) {
                 answer = null;
             }
         }
@@ -820,7 +1365,7 @@ class CliHandler {
      */
     private Person getNewAssignee(Person oldPerson, String role) throws DatabaseException {
         if (oldPerson != null) {
-            System.out.println("Current assigned " + role + " is: " + oldPerson.getOneLineString());
+            out.println("Current assigned " + role + " is: " + oldPerson.getOneLineString());
         }
         return findOrCreatePerson();
     }
@@ -834,7 +1379,7 @@ class CliHandler {
      */
     private boolean deleteProject(Project projectToDelete) throws DatabaseException{
 
-        System.out.println("Selected project: " + projectToDelete.getOneLineString());
+        out.println("Selected project: " + projectToDelete.getOneLineString());
         boolean confirmedDeletion = getYesNoFromUser("Are you sure you want to delete the selected project? [y/n]: ");
 
         boolean deleted = false;
@@ -855,9 +1400,9 @@ class CliHandler {
      */
     private boolean getYesNoFromUser(String prompt) {
         while (true) {
-            System.out.print(prompt);
-            String answer = consoleReader.nextLine();
-            System.out.println();
+            out.print(prompt);
+            String answer = readLine();
+            out.println();
 
             if (answer.length() != 1) {
                 continue;
@@ -884,17 +1429,17 @@ class CliHandler {
         boolean haveValidInput = false;
         String answer = "";
         while (!haveValidInput) {
-            System.out.print(prompt);
-            answer = consoleReader.nextLine();
-            System.out.println();
+            out.print(prompt);
+            answer = readLine();
+            out.println();
 
             if (answer.isBlank() && !acceptBlank) {
-                System.out.println("\nBlank input is not allowed for this field\n");
+                out.println("\nBlank input is not allowed for this field\n");
                 continue;
             }
 
             if (maxLength > 0 && answer.length() > maxLength) {
-                System.out.println("\n" + lengthErrorMsg.replace("?", Integer.toString(maxLength)) + "\n");
+                out.println("\n" + lengthErrorMsg.replace("?", Integer.toString(maxLength)) + "\n");
                 continue;
             }
             haveValidInput = true;
@@ -918,6 +1463,14 @@ class CliHandler {
      * is needed from the user.
      */
     public void close() {
-        consoleReader.close();
+        renderer.flush();
+        if (cancelWatcher != null) {
+            cancelWatcher.interrupt();
+        }
+        try {
+            consoleReader.close();
+        } catch (IOException ex) {
+            //The program is exiting anyway.
+        }
     }
 }
@@ -0,0 +1,161 @@
+package MainProgram;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * All the output to the terminal goes through a single buffered stream held by this class. Nothing is written to the
+ * terminal until {@link #flush()} is called, which {@link CliHandler} does just before it waits for user input. This
+ * way a whole screen of output is sent to the terminal in one write instead of one write per line.
+ * <p><br>
+ * Also contains the helpers for rendering column-aligned tables.
+ */
+class ConsoleRenderer {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_COLUMN_WIDTH = 50;
+    private static final String COLUMN_GAP = "  ";
+
+    private final PrintStream out;
+    private final int pageSize;
+
+    public ConsoleRenderer() {
+        //Deliberately not auto-flushing. See flush().
+        out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), BUFFER_SIZE), false);
+        pageSize = pageSizeFromTerminal();
+    }
+
+    /**
+     * Returns the stream to print to. Output is buffered until {@link #flush()} is called.
+     */
+    public PrintStream out() {
+        return out;
+    }
+
+    /**
+     * Sends everything that has been printed so far to the terminal.
+     */
+    public void flush() {
+        out.flush();
+    }
+
+    /**
+     * The number of rows to show per page in a list. Based on the height of the terminal if it is known.
+     */
+    public int pageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Prints a page of items as a table with aligned columns. Each row is numbered with its position in the whole list
+     * (starting at 1) so that the user can select it by that number.
+     *
+     * @param items The whole list of items.
+     * @param fromIndex The index of the first item on the page (inclusive).
+     * @param toIndex The index of the last item on the page (exclusive).
+     */
+    public void printTable(List<? extends Pickable> items, int fromIndex, int toIndex) {
+        if (fromIndex >= toIndex) {
+            return;
+        }
+        String[] headers = items.get(fromIndex).getColumnHeaders();
+        final int columnCount = headers.length;
+
+        //Only the rows on the page are measured so the cost is bounded by the page size, not the list size.
+        int[] widths = new int[columnCount];
+        for (int column = 0; column < columnCount; column++) {
+            widths[column] = Math.min(MAX_COLUMN_WIDTH, headers[column].length());
+        }
+        String[][] rows = new String[toIndex - fromIndex][];
+        for (int i = fromIndex; i < toIndex; i++) {
+            String[] row = items.get(i).getColumns();
+            rows[i - fromIndex] = row;
+            for (int column = 0; column < columnCount && column < row.length; column++) {
+                widths[column] = Math.min(MAX_COLUMN_WIDTH, Math.max(widths[column], lengthOf(row[column])));
+            }
+        }
+        final int numberWidth = Integer.toString(toIndex).length();
+
+        StringBuilder line = new StringBuilder(128);
+        pad(line, "#", numberWidth + 1);
+        for (int column = 0; column < columnCount; column++) {
+            line.append(COLUMN_GAP);
+            pad(line, headers[column], widths[column]);
+        }
+        printTrimmed(line);
+
+        line.setLength(0);
+        line.append("-".repeat(numberWidth + 1));
+        for (int column = 0; column < columnCount; column++) {
+            line.append(COLUMN_GAP).append("-".repeat(widths[column]));
+        }
+        printTrimmed(line);
+
+        for (int i = 0; i < rows.length; i++) {
+            line.setLength(0);
+            padLeft(line, Integer.toString(fromIndex + i + 1), numberWidth);
+            line.append('.');
+            for (int column = 0; column < columnCount; column++) {
+                line.append(COLUMN_GAP);
+                pad(line, column < rows[i].length ? rows[i][column] : "", widths[column]);
+            }
+            printTrimmed(line);
+        }
+    }
+
+    private void printTrimmed(StringBuilder line) {
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) == ' ') {
+            --end;
+        }
+        line.setLength(end);
+        out.println(line);
+    }
+
+    private static int lengthOf(String value) {
+        return value == null ? 0 : value.length();
+    }
+
+    /**
+     * Appends the value padded with spaces (or cut short with '~') to exactly the given width.
+     */
+    private static void pad(StringBuilder line, String value, int width) {
+        if (value == null) {
+            value = "";
+        }
+        if (value.length() > width) {
+            line.append(value, 0, width - 1).append('~');
+            return;
+        }
+        line.append(value);
+        for (int i = value.length(); i < width; i++) {
+            line.append(' ');
+        }
+    }
+
+    private static void padLeft(StringBuilder line, String value, int width) {
+        for (int i = value.length(); i < width; i++) {
+            line.append(' ');
+        }
+        line.append(value);
+    }
+
+    /**
+     * Uses the LINES environment variable (set by most shells) to fit a page on the screen with room for the table
+     * header and the prompt.
+     */
+    private static int pageSizeFromTerminal() {
+        String lines = System.getenv("LINES");
+        if (lines != null) {
+            try {
+                return Math.max(5, Integer.parseInt(lines.trim()) - 6);
+            } catch (NumberFormatException ex) {
+                //Fall through to the default
+            }
+        }
+        return DEFAULT_PAGE_SIZE;
+    }
+}
@@ -0,0 +1,36 @@
+package MainProgram;
+
+import java.io.PrintStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A {@link DeadlineListener} that collects deadline events so that the {@link CliHandler} can show them as a banner
+ * above the main menu. Events can arrive on the scheduler thread at any time, so they are queued until the menu is
+ * next shown.
+ */
+class DeadlineBanner implements DeadlineListener {
+    private final ConcurrentLinkedQueue<DeadlineEvent> pending = new ConcurrentLinkedQueue<>();
+
+    @Override
+    public void deadlineReached(DeadlineEvent event) {
+        pending.add(event);
+    }
+
+    /**
+     * Prints and removes all the events received since the last call. Prints nothing if there are none.
+     *
+     * @param out The stream to print to.
+     */
+    public void printPending(PrintStream out) {
+        DeadlineEvent event = pending.poll();
+        if (event == null) {
+            return;
+        }
+        out.println("*** Deadline alerts ***");
+        while (event != null) {
+            out.println(" ! " + event);
+            event = pending.poll();
+        }
+        out.println();
+    }
+}
@@ -0,0 +1,33 @@
+package MainProgram;
+
+import java.time.LocalDate;
+
+/**
+ * Published by the {@link DeadlineScheduler} when a project reaches its deadline (DUE) or the day after it (OVERDUE).
+ */
+public class DeadlineEvent {
+    public enum Kind {
+        DUE,
+        OVERDUE
+    }
+
+    public final Kind kind;
+    public final long projectNumber;
+    public final String projectName;
+    public final LocalDate deadline;
+
+    public DeadlineEvent(Kind kind, long projectNumber, String projectName, LocalDate deadline) {
+        this.kind = kind;
+        this.projectNumber = projectNumber;
+        this.projectName = projectName;
+        this.deadline = deadline;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(projectName).append(kind == Kind.DUE ? " is due today" : " is overdue")
+                .append(" (deadline ").append(deadline).append(')');
+        return builder.toString();
+    }
+}
@@ -0,0 +1,9 @@
+package MainProgram;
+
+/**
+ * A sink for the events published by the {@link DeadlineScheduler}. Listeners are called on the scheduler's background
+ * thread.
+ */
+public interface DeadlineListener {
+    public void deadlineReached(DeadlineEvent event);
+}
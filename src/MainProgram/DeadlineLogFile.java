@@ -0,0 +1,32 @@
+package MainProgram;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * A {@link DeadlineListener} that appends each deadline event as a line to a log file.
+ */
+class DeadlineLogFile implements DeadlineListener {
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final String path;
+
+    public DeadlineLogFile(String path) {
+        this.path = path;
+    }
+
+    @Override
+    public synchronized void deadlineReached(DeadlineEvent event) {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(path, true))) {
+            writer.println(new StringBuilder()
+                    .append(LocalDateTime.now().format(TIMESTAMP_FORMAT)).append(' ')
+                    .append(event.kind).append(" #").append(event.projectNumber).append(' ')
+                    .append(event.projectName).append(" (deadline ").append(event.deadline).append(')'));
+        } catch (IOException ex) {
+            //Logging is best effort. The event is still delivered to the other listeners.
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package MainProgram;
+
+import database.DataSource;
+import database.DatabaseException;
+import database.ProjectChangeListener;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the deadlines of all the unfinished projects in the background and publishes a {@link DeadlineEvent} to the
+ * registered {@link DeadlineListener}s when a project becomes due (on its deadline) and overdue (the day after).
+ * <p><br>
+ * The deadlines are loaded once when the scheduler starts and kept in a {@link DeadlineTimerWheel}. After that the
+ * scheduler listens for project changes made through the {@link DataSource} and only reloads the deadline of the
+ * project that changed. The wheel is checked once a minute, which costs nothing unless the date has changed. The date
+ * is the database server's, so the alerts agree with the due and overdue listings.
+ * <p><br>
+ * Reloading a project schedules its timers again, and a timer for a day that has passed fires straight away. The last
+ * event published for each project is remembered so that a change that doesn't move the deadline doesn't publish the
+ * same alert again.
+ * <p><br>
+ * All the work is done on a single background thread so the wheel and the timer map need no locking. The DataSource
+ * runs the scheduler's queries on a connection of their own, so they never share the main connection with the CLI.
+ */
+public class DeadlineScheduler implements ProjectChangeListener {
+    private static final long TICK_SECONDS = 60;
+
+    private final DataSource dataSource;
+    private final CopyOnWriteArrayList<DeadlineListener> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService worker;
+    private final DeadlineTimerWheel wheel;
+    //The DUE and OVERDUE timers of each project, so they can be cancelled when the project changes.
+    private final HashMap<Long, DeadlineTimerWheel.Timer[]> timersByProject = new HashMap<>();
+    //The last event published for each project, so that rescheduling an unchanged deadline doesn't repeat it.
+    private final HashMap<Long, DeadlineEvent> lastPublished = new HashMap<>();
+
+    public DeadlineScheduler(DataSource dataSource) {
+        this.dataSource = dataSource;
+        this.wheel = new DeadlineTimerWheel(dataSource.getServerDate().toEpochDay());
+        this.worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "deadline-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void addListener(DeadlineListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(DeadlineListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Loads the deadlines in the background and starts checking them. Projects that are already due or overdue are
+     * published straight away.
+     *
+     * @return A future that completes once the deadlines have been loaded.
+     */
+    public CompletableFuture<Void> start() {
+        dataSource.addProjectChangeListener(this);
+        CompletableFuture<Void> loaded = CompletableFuture.runAsync(this::loadAll, worker);
+        worker.scheduleAtFixedRate(this::tick, TICK_SECONDS, TICK_SECONDS, TimeUnit.SECONDS);
+        return loaded;
+    }
+
+    /**
+     * Stops the background thread. No more events are published after this.
+     */
+    public void stop() {
+        dataSource.removeProjectChangeListener(this);
+        worker.shutdownNow();
+    }
+
+    /**
+     * Called by the DataSource after a project is changed. The project's deadline is reloaded in the background.
+     */
+    @Override
+    public void projectChanged(long projectNumber) {
+        worker.execute(() -> reload(projectNumber));
+    }
+
+    private void loadAll() {
+        try {
+            List<ProjectSummary> projects = dataSource.getScheduledDeadlines();
+            for (ProjectSummary project : projects) {
+                schedule(project);
+            }
+        } catch (DatabaseException ex) {
+            //Deadlines will be picked up as projects change. The "view overdue" menu still works without this.
+            throw new CompletionException(ex);
+        }
+        tick();
+    }
+
+    private void reload(long projectNumber) {
+        cancel(projectNumber);
+        try {
+            ProjectSummary project = dataSource.getScheduledDeadline(projectNumber);
+            if (project != null) {
+                schedule(project);
+            } else {
+                //Finished or deleted. If it is ever reopened its alerts are new again.
+                lastPublished.remove(projectNumber);
+            }
+        } catch (DatabaseException ex) {
+            return;
+        }
+        tick();
+    }
+
+    private void schedule(ProjectSummary project) {
+        cancel(project.number);
+        final long deadlineDay = project.deadline.toEpochDay();
+        DeadlineTimerWheel.Timer[] timers = new DeadlineTimerWheel.Timer[2];
+        //A project that is already overdue is only reported once as overdue, not as due as well.
+        if (deadlineDay >= wheel.currentDay()) {
+            timers[0] = new DeadlineTimerWheel.Timer(deadlineDay,
+                    new DeadlineEvent(DeadlineEvent.Kind.DUE, project.number, project.name, project.deadline));
+            wheel.add(timers[0]);
+        }
+        timers[1] = new DeadlineTimerWheel.Timer(deadlineDay + 1,
+                new DeadlineEvent(DeadlineEvent.Kind.OVERDUE, project.number, project.name, project.deadline));
+        wheel.add(timers[1]);
+        timersByProject.put(project.number, timers);
+    }
+
+    private void cancel(long projectNumber) {
+        DeadlineTimerWheel.Timer[] timers = timersByProject.remove(projectNumber);
+        if (timers != null) {
+            for (DeadlineTimerWheel.Timer timer : timers) {
+                if (timer != null) {
+                    timer.cancelled = true;
+                }
+            }
+        }
+    }
+
+    private void tick() {
+        wheel.advanceTo(dataSource.getServerDate().toEpochDay(), timer -> publish(timer.event));
+    }
+
+    private void publish(DeadlineEvent event) {
+        final DeadlineEvent last = lastPublished.get(event.projectNumber);
+        if (last != null && last.kind == event.kind && last.deadline.equals(event.deadline)) {
+            return;
+        }
+        lastPublished.put(event.projectNumber, event);
+        for (DeadlineListener listener : listeners) {
+            try {
+                listener.deadlineReached(event);
+            } catch (RuntimeException ex) {
+                //One broken sink shouldn't stop the others from being notified.
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package MainProgram;
+
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timer wheel with a resolution of one day. Timers are kept in three levels of 64 slots each:
+ * <ul>
+ *     <li>Level 0 holds timers due within 64 days, one slot per day.</li>
+ *     <li>Level 1 holds timers due within 4096 days, one slot per block of 64 days.</li>
+ *     <li>Level 2 holds timers due within 262144 days, one slot per block of 4096 days.</li>
+ * </ul>
+ * Timers further away than that go into an overflow list. Each tick (day) only looks at one level 0 slot. When a level
+ * wraps around, the timers from the next slot of the level above are moved down ("cascaded"). Adding, cancelling and
+ * ticking are therefore O(1) on average no matter how many timers there are.
+ * <p><br>
+ * This class is not thread safe. The {@link DeadlineScheduler} only uses it from its own worker thread.
+ */
+class DeadlineTimerWheel {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 3;
+
+    /**
+     * A scheduled timer. Cancelled timers are left in their slot and skipped when the slot is processed.
+     */
+    static class Timer {
+        final long day;
+        final DeadlineEvent event;
+        boolean cancelled;
+
+        Timer(long day, DeadlineEvent event) {
+            this.day = day;
+            this.event = event;
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayList<Timer>[][] wheels = new ArrayList[LEVELS][SLOTS];
+    private final ArrayList<Timer> overflow = new ArrayList<>();
+    //Timers that were added for a day that has already been reached. Fired on the next call to advanceTo.
+    private ArrayList<Timer> expired = new ArrayList<>();
+    private long currentDay;
+
+    /**
+     * @param startDay The current day as an epoch day (see {@link java.time.LocalDate#toEpochDay()}).
+     */
+    DeadlineTimerWheel(long startDay) {
+        currentDay = startDay;
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                wheels[level][slot] = new ArrayList<>();
+            }
+        }
+    }
+
+    long currentDay() {
+        return currentDay;
+    }
+
+    /**
+     * Schedules a timer. Timers for today or earlier fire on the next call to {@link #advanceTo}.
+     */
+    void add(Timer timer) {
+        final long delta = timer.day - currentDay;
+        if (delta <= 0) {
+            expired.add(timer);
+            return;
+        }
+        for (int level = 0; level < LEVELS; level++) {
+            if (delta < 1L << (SLOT_BITS * (level + 1))) {
+                int slot = (int) ((timer.day >>> (SLOT_BITS * level)) & SLOT_MASK);
+                wheels[level][slot].add(timer);
+                return;
+            }
+        }
+        overflow.add(timer);
+    }
+
+    /**
+     * Moves the wheel forward to the given day and fires every timer that is due on or before it.
+     *
+     * @param day The new current day as an epoch day. Does nothing but fire expired timers if the day hasn't changed.
+     * @param fire Called for each timer that fires.
+     */
+    void advanceTo(long day, Consumer<Timer> fire) {
+        fireAll(takeExpired(), fire);
+        while (currentDay < day) {
+            ++currentDay;
+            if ((currentDay & SLOT_MASK) == 0) {
+                cascade();
+            }
+            ArrayList<Timer> slot = wheels[0][(int) (currentDay & SLOT_MASK)];
+            if (!slot.isEmpty()) {
+                ArrayList<Timer> due = new ArrayList<>(slot);
+                slot.clear();
+                fireAll(due, fire);
+            }
+            fireAll(takeExpired(), fire);
+        }
+    }
+
+    /**
+     * Called when level 0 wraps around. Moves the timers for the coming block down from the higher levels.
+     */
+    private void cascade() {
+        if (((currentDay >>> SLOT_BITS) & SLOT_MASK) == 0) {
+            if (((currentDay >>> (SLOT_BITS * 2)) & SLOT_MASK) == 0) {
+                reAdd(overflow);
+            }
+            reAdd(wheels[2][(int) ((currentDay >>> (SLOT_BITS * 2)) & SLOT_MASK)]);
+        }
+        reAdd(wheels[1][(int) ((currentDay >>> SLOT_BITS) & SLOT_MASK)]);
+    }
+
+    private void reAdd(ArrayList<Timer> timers) {
+        if (timers.isEmpty()) {
+            return;
+        }
+        ArrayList<Timer> moving = new ArrayList<>(timers);
+        timers.clear();
+        for (Timer timer : moving) {
+            if (!timer.cancelled) {
+                add(timer);
+            }
+        }
+    }
+
+    private ArrayList<Timer> takeExpired() {
+        ArrayList<Timer> answer = expired;
+        expired = new ArrayList<>();
+        return answer;
+    }
+
+    private static void fireAll(ArrayList<Timer> timers, Consumer<Timer> fire) {
+        for (Timer timer : timers) {
+            if (!timer.cancelled) {
+                fire.accept(timer);
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package MainProgram;
+
+import com.sun.net.httpserver.HttpServer;
+import database.DataSource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * A small HTTP server that serves the program's metrics at {@code /metrics} in the Prometheus text format. The
+ * metrics are only read when they are scraped; the counters themselves are updated by the {@link DataSource}.
+ * <p><br>
+ * The metrics include the shapes of the SQL the program runs, so the server only listens on the loopback interface
+ * unless another address is given.
+ */
+class MetricsServer {
+    private final HttpServer server;
+
+    /**
+     * Starts the server.
+     *
+     * @param host The host name or address to listen on, or null to listen on the loopback interface only.
+     * @param port The port to listen on.
+     * @param dataSource The DataSource whose metrics are served.
+     * @throws IOException If the host can't be resolved or the port can't be used.
+     */
+    public MetricsServer(String host, int port, DataSource dataSource) throws IOException {
+        final InetAddress address = host == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(host);
+        server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext("/metrics", exchange -> {
+            StringBuilder text = new StringBuilder();
+            dataSource.writeMetrics(text);
+            writeJvmMetrics(text);
+            final byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        //One daemon thread is enough for a scraper and doesn't keep the program running on exit.
+        server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-server");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    private static void writeJvmMetrics(StringBuilder out) {
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        out.append("# HELP jvm_memory_heap_bytes Heap memory used, committed and the maximum.\n");
+        out.append("# TYPE jvm_memory_heap_bytes gauge\n");
+        out.append("jvm_memory_heap_bytes{area=\"used\"} ").append(heap.getUsed()).append('\n');
+        out.append("jvm_memory_heap_bytes{area=\"committed\"} ").append(heap.getCommitted()).append('\n');
+        out.append("jvm_memory_heap_bytes{area=\"max\"} ").append(heap.getMax()).append('\n');
+
+        out.append("# HELP jvm_gc_collections_total Garbage collections per collector.\n");
+        out.append("# TYPE jvm_gc_collections_total counter\n");
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            out.append("jvm_gc_collections_total{gc=\"").append(collector.getName()).append("\"} ")
+                    .append(collector.getCollectionCount()).append('\n');
+        }
+        out.append("# HELP jvm_gc_collection_seconds_total Time spent in garbage collection per collector.\n");
+        out.append("# TYPE jvm_gc_collection_seconds_total counter\n");
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            out.append("jvm_gc_collection_seconds_total{gc=\"").append(collector.getName()).append("\"} ")
+                    .append(collector.getCollectionTime() / 1000.0).append('\n');
+        }
+
+        out.append("# HELP jvm_threads_live Live threads.\n");
+        out.append("# TYPE jvm_threads_live gauge\n");
+        out.append("jvm_threads_live ").append(ManagementFactory.getThreadMXBean().getThreadCount()).append('\n');
+    }
+}
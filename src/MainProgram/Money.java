@@ -0,0 +1,150 @@
+package MainProgram;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Collection;
+
+/**
+ * An immutable amount of money stored as a whole number of cents in a primitive {@code long}. This replaces BigDecimal
+ * for the project fee and payment fields so that comparisons and totals don't allocate.
+ * <p><br>
+ * The database stores money in DECIMAL(20, 2) columns. Use {@link #fromBigDecimal(BigDecimal)} and
+ * {@link #toBigDecimal()} to convert at the JDBC boundary. All the arithmetic is overflow-checked and throws an
+ * {@link ArithmeticException} instead of silently wrapping around.
+ */
+public final class Money implements Comparable<Money> {
+
+    public static final Money ZERO = new Money(0);
+
+    private static final int SCALE = 2;
+
+    private final long cents;
+
+    private Money(long cents) {
+        this.cents = cents;
+    }
+
+    /**
+     * Creates a Money object from a number of cents.
+     *
+     * @param cents The amount in cents.
+     * @return The Money object. Zero amounts always return {@link #ZERO}.
+     */
+    public static Money ofCents(long cents) {
+        return cents == 0 ? ZERO : new Money(cents);
+    }
+
+    /**
+     * Converts a value read from a DECIMAL(20, 2) column. The conversion is exact: values with more than two decimal
+     * places are rejected rather than rounded.
+     *
+     * @param value The decimal value. A null value (i.e. an SQL NULL) is treated as zero.
+     * @return The equivalent Money object.
+     * @throws ArithmeticException If the value has more than 2 decimal places or is too large to fit in a long.
+     */
+    public static Money fromBigDecimal(BigDecimal value) {
+        if (value == null) {
+            return ZERO;
+        }
+        return ofCents(value.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact());
+    }
+
+    /**
+     * Parses an amount typed in by the user. The input is rounded to the nearest cent (half up).
+     *
+     * @param input The String to parse e.g. "1500.5"
+     * @return The Money object
+     * @throws NumberFormatException If the input is not a number.
+     * @throws ArithmeticException If the amount is too large.
+     */
+    public static Money parse(String input) {
+        BigDecimal value = new BigDecimal(input.trim()).setScale(SCALE, RoundingMode.HALF_UP);
+        return ofCents(value.unscaledValue().longValueExact());
+    }
+
+    /**
+     * Adds up a collection of amounts. Only the final result is allocated.
+     *
+     * @param amounts The amounts to add.
+     * @return The total.
+     * @throws ArithmeticException If the total overflows.
+     */
+    public static Money sum(Collection<Money> amounts) {
+        long total = 0;
+        for (Money amount : amounts) {
+            total = Math.addExact(total, amount.cents);
+        }
+        return ofCents(total);
+    }
+
+    public long cents() {
+        return cents;
+    }
+
+    /**
+     * Converts the amount for binding to a DECIMAL(20, 2) parameter.
+     *
+     * @return A BigDecimal with a scale of 2.
+     */
+    public BigDecimal toBigDecimal() {
+        return BigDecimal.valueOf(cents, SCALE);
+    }
+
+    public Money plus(Money other) {
+        return ofCents(Math.addExact(cents, other.cents));
+    }
+
+    public Money minus(Money other) {
+        return ofCents(Math.subtractExact(cents, other.cents));
+    }
+
+    public Money negate() {
+        return ofCents(Math.negateExact(cents));
+    }
+
+    public boolean isZero() {
+        return cents == 0;
+    }
+
+    public boolean isPositive() {
+        return cents > 0;
+    }
+
+    public boolean isNegative() {
+        return cents < 0;
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(cents, other.cents);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof Money && ((Money) other).cents == cents;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(cents);
+    }
+
+    /**
+     * Formats the amount the same way the database displays a DECIMAL(20, 2) value e.g. "1600000.00"
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(24);
+        long units = cents / 100;
+        long fraction = Math.abs(cents % 100);
+        if (cents < 0 && units == 0) {
+            builder.append('-');
+        }
+        builder.append(units).append('.');
+        if (fraction < 10) {
+            builder.append('0');
+        }
+        builder.append(fraction);
+        return builder.toString();
+    }
+}
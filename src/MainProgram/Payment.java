@@ -0,0 +1,67 @@
+package MainProgram;
+
+import java.time.LocalDate;
+
+/**
+ * A payment towards a project as recorded in the payment ledger. A reversal is a payment of the opposite amount that
+ * refers to the payment it reverses.
+ */
+public class Payment implements Pickable {
+    private static final String[] COLUMN_HEADERS = {"Paid on", "Amount", "Reference", "Note"};
+
+    public long id;
+    public long projectNumber;
+    public Money amount = Money.ZERO;
+    public LocalDate paidOn;
+    public String reference;
+    //The payment this one reverses or 0 if it is a normal payment.
+    public long reversesId;
+    //The payment that reversed this one or 0 if it hasn't been reversed.
+    public long reversedById;
+
+    public boolean isReversal() {
+        return reversesId != 0;
+    }
+
+    public boolean isReversed() {
+        return reversedById != 0;
+    }
+
+    /**
+     * Only normal payments that haven't been reversed yet can be reversed.
+     */
+    public boolean canBeReversed() {
+        return !isReversal() && !isReversed();
+    }
+
+    @Override
+    public String[] getColumns() {
+        String note = "";
+        if (isReversal()) {
+            note = "Reverses payment " + reversesId;
+        } else if (isReversed()) {
+            note = "Reversed";
+        }
+        return new String[] {String.valueOf(paidOn), amount.toString(), reference == null ? "" : reference, note};
+    }
+
+    @Override
+    public String[] getColumnHeaders() {
+        return COLUMN_HEADERS;
+    }
+
+    @Override
+    public String getOneLineString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(paidOn).append(' ').append(amount);
+        if (reference != null) {
+            builder.append(" (").append(reference).append(')');
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getOneLineString();
+    }
+}
@@ -0,0 +1,34 @@
+package MainProgram;
+
+/**
+ * A project whose TotalPaid doesn't match the sum of its payments. Found by the payment reconciliation.
+ */
+public class PaymentDiscrepancy implements Pickable {
+    private static final String[] COLUMN_HEADERS = {"Project", "Total paid", "Sum of payments", "Difference"};
+
+    public long projectNumber;
+    public Money recordedTotal = Money.ZERO;
+    public Money ledgerTotal = Money.ZERO;
+
+    @Override
+    public String[] getColumns() {
+        return new String[] {String.valueOf(projectNumber), recordedTotal.toString(), ledgerTotal.toString(),
+                recordedTotal.minus(ledgerTotal).toString()};
+    }
+
+    @Override
+    public String[] getColumnHeaders() {
+        return COLUMN_HEADERS;
+    }
+
+    @Override
+    public String getOneLineString() {
+        return new StringBuilder().append("Project ").append(projectNumber).append(": total paid ")
+                .append(recordedTotal).append(" but payments add up to ").append(ledgerTotal).toString();
+    }
+
+    @Override
+    public String toString() {
+        return getOneLineString();
+    }
+}
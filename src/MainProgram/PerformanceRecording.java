@@ -0,0 +1,58 @@
+package MainProgram;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Starts and stops a JDK Flight Recorder recording on request so that a slow session can be diagnosed with the
+ * standard JFR tools (e.g. {@code jfr print} or JDK Mission Control). The recording uses the JDK's "profile" settings
+ * and includes the program's own database and CLI events.
+ */
+class PerformanceRecording {
+    private static final DateTimeFormatter FILE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private Recording recording;
+
+    public boolean isRunning() {
+        return recording != null;
+    }
+
+    /**
+     * Starts a recording.
+     *
+     * @throws IOException If the JFR settings can't be read.
+     * @throws ParseException If the JFR settings are invalid.
+     */
+    public void start() throws IOException, ParseException {
+        Recording newRecording = new Recording(Configuration.getConfiguration("profile"));
+        newRecording.setName("PMS");
+        newRecording.enable("pms.DatabaseRoundTrip");
+        newRecording.enable("pms.CliAction");
+        newRecording.start();
+        recording = newRecording;
+    }
+
+    /**
+     * Stops the recording and writes it to a file in the working directory.
+     *
+     * @return The file the recording was written to.
+     * @throws IOException If the file can't be written.
+     */
+    public Path stop() throws IOException {
+        final Path file = Path.of("pms-" + LocalDateTime.now().format(FILE_TIME_FORMAT) + ".jfr").toAbsolutePath();
+        try {
+            recording.stop();
+            recording.dump(file);
+        } finally {
+            recording.close();
+            recording = null;
+        }
+        return file;
+    }
+}
@@ -12,6 +12,18 @@ public class Person implements Pickable{
         return new StringBuilder().append(firstName).append(' ').append(surname).toString();
     }
 
+    private static final String[] COLUMN_HEADERS = {"Name", "E-mail"};
+
+    @Override
+    public String[] getColumns() {
+        return new String[] {fullName(), email};
+    }
+
+    @Override
+    public String[] getColumnHeaders() {
+        return COLUMN_HEADERS;
+    }
+
     public String getOneLineString() {
         return new StringBuilder().append(firstName).append(' ').append(surname).append(" <").append(email).append(">").toString();
     }
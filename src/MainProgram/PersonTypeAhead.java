@@ -0,0 +1,281 @@
+package MainProgram;
+
+import database.DataSource;
+import database.DatabaseException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An interactive, incremental person search. The terminal is switched to raw mode so that each key press is received
+ * as it is typed. After every change to the search text a prefix query is scheduled on a background thread. The query
+ * is debounced (it only runs once the user pauses) and any query that is still running when the text changes again is
+ * cancelled. The top matches are redrawn in place under the prompt.
+ * <p><br>
+ * Keys: type to search, 1-9 to pick a match, Backspace to delete, Enter to finish typing (without picking a match)
+ * and Esc to cancel.
+ * <p><br>
+ * Raw mode is set with {@code stty}, so this is only available when the program is attached to a Unix-like terminal.
+ * Check {@link #isSupported()} first and fall back to a line-based search otherwise.
+ */
+class PersonTypeAhead {
+    private static final int MAX_MATCHES = 9;
+    private static final long DEBOUNCE_MILLIS = 120;
+    private static final String ESC = "\u001b";
+
+    private static Boolean supported;
+
+    private final PrintStream out;
+    private final BufferedReader input;
+    private final ScheduledExecutorService worker;
+
+    //Shared between the input thread and the worker thread. All access is synchronized on this object.
+    private final StringBuilder text = new StringBuilder();
+    private List<Person> matches = new ArrayList<>();
+    private long generation = 0;
+    private boolean searching = false;
+    //The message of the last search that failed, or null.
+    private String searchError;
+    private String prompt = "";
+    private ScheduledFuture<?> pendingSearch;
+
+    /**
+     * The outcome of a type-ahead session.
+     */
+    static class Result {
+        /** The person picked by the user, or {@code null} if they finished typing without picking a match. */
+        final Person selected;
+        /** The text that was typed. */
+        final String text;
+        /** {@code true} if the user pressed Esc. */
+        final boolean cancelled;
+
+        private Result(Person selected, String text, boolean cancelled) {
+            this.selected = selected;
+            this.text = text;
+            this.cancelled = cancelled;
+        }
+    }
+
+    /**
+     * @param out Where the prompt and matches are drawn.
+     * @param input The reader the rest of the program reads the console with. Sharing it means no key press is
+     *              buffered by one reader when the other one needs it.
+     */
+    PersonTypeAhead(PrintStream out, BufferedReader input) {
+        this.out = out;
+        this.input = input;
+        this.worker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "person-type-ahead");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Checks (once) whether the program is attached to a terminal that can be put in raw mode.
+     *
+     * @return {@code true} if incremental search can be used.
+     */
+    static synchronized boolean isSupported() {
+        if (supported == null) {
+            boolean answer = System.console() != null && !System.getProperty("os.name").startsWith("Windows");
+            if (answer) {
+                try {
+                    stty("-g");
+                } catch (IOException ex) {
+                    answer = false;
+                }
+            }
+            supported = answer;
+        }
+        return supported;
+    }
+
+    /**
+     * Runs an incremental search session and blocks until the user picks a match, presses Enter or presses Esc. A
+     * session can only be run once.
+     *
+     * @param searchPrompt The prompt shown in front of the search text.
+     * @return The outcome of the session.
+     * @throws IOException If the terminal mode couldn't be changed or input couldn't be read.
+     */
+    Result run(String searchPrompt) throws IOException {
+        final String savedMode = stty("-g");
+        Thread restoreOnExit = new Thread(() -> {
+            try {
+                stty(savedMode);
+            } catch (IOException ignored) {
+                //Nothing more can be done while the JVM is shutting down.
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(restoreOnExit);
+        stty("-icanon -echo min 1");
+        try {
+            synchronized (this) {
+                prompt = searchPrompt;
+                redraw();
+            }
+            return readKeys();
+        } finally {
+            synchronized (this) {
+                ++generation;
+                if (pendingSearch != null) {
+                    pendingSearch.cancel(false);
+                }
+            }
+            DataSource.getInstance().cancelPersonSearch();
+            worker.shutdown();
+            stty(savedMode);
+            Runtime.getRuntime().removeShutdownHook(restoreOnExit);
+        }
+    }
+
+    private Result readKeys() throws IOException {
+        while (true) {
+            int key = input.read();
+            synchronized (this) {
+                if (key == -1 || key == '\n' || key == '\r') {
+                    finishDrawing();
+                    return new Result(null, text.toString().trim(), false);
+                }
+                if (key == 27) {
+                    //Esc. Arrow keys also start with Esc so swallow the rest of their sequence if there is one.
+                    while (input.ready()) {
+                        input.read();
+                    }
+                    finishDrawing();
+                    return new Result(null, text.toString().trim(), true);
+                }
+                if (key >= '1' && key <= '9' && key - '1' < matches.size()) {
+                    Person selected = matches.get(key - '1');
+                    finishDrawing();
+                    return new Result(selected, text.toString().trim(), false);
+                }
+                if (key == 127 || key == 8) {
+                    if (text.length() > 0) {
+                        text.setLength(text.length() - 1);
+                        textChanged();
+                    }
+                } else if (!Character.isISOControl(key) && !Character.isDigit(key)) {
+                    text.append((char) key);
+                    textChanged();
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedules a new search for the current text, replacing any search that hasn't finished yet. Must be called while
+     * holding the lock.
+     */
+    private void textChanged() {
+        final long searchGeneration = ++generation;
+        if (pendingSearch != null) {
+            pendingSearch.cancel(false);
+        }
+        DataSource.getInstance().cancelPersonSearch();
+
+        final String searchText = text.toString().trim();
+        if (searchText.isEmpty()) {
+            matches = new ArrayList<>();
+            searching = false;
+            redraw();
+            return;
+        }
+        searching = true;
+        redraw();
+        pendingSearch = worker.schedule(() -> search(searchText, searchGeneration), DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs on the worker thread. Results are thrown away if the text has changed since the search was scheduled.
+     */
+    private void search(String searchText, long searchGeneration) {
+        List<Person> results = null;
+        String error = null;
+        try {
+            results = DataSource.getInstance().searchPeopleByPrefix(searchText, MAX_MATCHES);
+        } catch (DatabaseException ex) {
+            error = ex.getMessage();
+        }
+        synchronized (this) {
+            if (searchGeneration != generation) {
+                //The text changed (or the session ended) and this search was cancelled. The error is expected.
+                return;
+            }
+            if (results != null) {
+                matches = results;
+            }
+            //The previous matches are kept when a search fails.
+            searchError = error;
+            searching = false;
+            redraw();
+        }
+    }
+
+    /**
+     * Draws the prompt and the current matches and then moves the cursor back to the end of the search text. Each
+     * redraw starts by clearing everything from the prompt line down. Must be called while holding the lock.
+     */
+    private void redraw() {
+        StringBuilder screen = new StringBuilder(512);
+        screen.append('\r').append(ESC).append("[J");
+        screen.append(prompt).append(text);
+        int linesBelow = 0;
+        if (searching) {
+            screen.append("\n   searching...");
+            ++linesBelow;
+        } else if (searchError != null) {
+            screen.append("\n   The search failed: ").append(searchError);
+            ++linesBelow;
+        } else if (matches.isEmpty() && text.length() > 0) {
+            screen.append("\n   No matches. Press Enter to continue with this name.");
+            ++linesBelow;
+        }
+        for (int i = 0; i < matches.size(); i++) {
+            screen.append('\n').append(' ').append(i + 1).append(" - ").append(matches.get(i).getOneLineString());
+            ++linesBelow;
+        }
+        if (linesBelow > 0) {
+            screen.append(ESC).append('[').append(linesBelow).append('A');
+        }
+        screen.append('\r');
+        final int column = prompt.length() + text.length();
+        if (column > 0) {
+            screen.append(ESC).append('[').append(column).append('C');
+        }
+        out.print(screen);
+        out.flush();
+    }
+
+    /**
+     * Clears the list of matches and leaves the cursor on a new line below the prompt.
+     */
+    private void finishDrawing() {
+        out.print("\r" + ESC + "[J" + prompt + text + "\n\n");
+        out.flush();
+    }
+
+    private static String stty(String arguments) throws IOException {
+        Process process = new ProcessBuilder("sh", "-c", "stty " + arguments + " < /dev/tty")
+                .redirectErrorStream(true).start();
+        try {
+            String output = new String(process.getInputStream().readAllBytes()).trim();
+            if (process.waitFor() != 0) {
+                throw new IOException("stty failed: " + output);
+            }
+            return output;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while changing the terminal mode", ex);
+        }
+    }
+}
@@ -6,4 +6,19 @@ package MainProgram;
  */
 public interface Pickable {
     public String getOneLineString();
+
+    /**
+     * The values shown in each column when the object is printed as a row of a table. By default the whole one-line
+     * string is a single column.
+     */
+    public default String[] getColumns() {
+        return new String[] {getOneLineString()};
+    }
+
+    /**
+     * The headings of the columns returned by {@link #getColumns()}.
+     */
+    public default String[] getColumnHeaders() {
+        return new String[] {"Result"};
+    }
 }
@@ -1,10 +1,19 @@
 package MainProgram;
 
+import database.ActionTrace;
+import database.CircuitOpenException;
 import database.DataSource;
 import database.DatabaseCredentials;
 import database.DatabaseException;
+import database.QueryTimeoutException;
 
+import java.io.IOException;
 import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * This class is the main entry point of the program.
@@ -23,42 +32,147 @@ public class PmsProgram {
         SEARCH_ALL,
         EDIT_PROJECT,
         EDIT_PEOPLE,
+        TOGGLE_RECORDING,
         EXIT
     }
     private static DatabaseCredentials credentials;
 
     public static void main (String[] args) {
+        //Start-up is a small graph of tasks: the JDBC drivers load while the credentials are typed in, the schema is
+        //checked as soon as the connection is up and the caches warm up in the background while the menu is shown.
+        StartupTimeline startup = new StartupTimeline();
+        CompletableFuture<Void> driversLoaded = startup.submit("Load JDBC drivers", () -> {
+            DataSource.loadDrivers();
+            return null;
+        });
+
         CliHandler consoleHandler = new CliHandler();
+        final long credentialsStart = System.nanoTime();
         if (args.length > 0 && args[0].equals("-t")) {
             credentials = new DatabaseCredentials("mysql", "localhost", "3306", "Jason", "KochiraDozo", "PoisePMS");
             System.out.println(credentials);
         } else {
             credentials = getCredentialsFromUser(consoleHandler);
+            startup.record("Read credentials", credentialsStart);
         }
+
+        CompletableFuture<DataSource> connected = startup.submitAfter("Connect to database", driversLoaded,
+                ignored -> DataSource.getInstance(credentials));
+        CompletableFuture<DataSource> initialised = startup.submitAfter("Verify schema", connected, connectedSource -> {
+            if (connectedSource != null) {
+                connectedSource.initialiseDatabase();
+            }
+            return connectedSource;
+        });
+
         DataSource dataSource;
-        dataSource = DataSource.getInstance(credentials);
+        try {
+            dataSource = initialised.join();
+        } catch (CompletionException ex) {
+            System.out.println("Fatal error: Could not initialise database configuration.\n");
+            System.out.println(ex.getCause().getMessage());
+            if (ex.getCause().getCause() != null) {
+                System.out.println(ex.getCause().getCause().getMessage());
+            }
+            consoleHandler.close();
+            return;
+        }
         if ( dataSource == null ) {
             System.out.println("Fatal error: Could not establish database connection.\n");
             consoleHandler.close();
             return;
         }
-        try {
-            dataSource.initialiseDatabase();
-        } catch (DatabaseException ex) {
-            System.out.println("Fatal error: Could not initialise database configuration.\n");
-            System.out.println(ex.getMessage());
-            System.out.println(ex.getCause().getMessage());
+
+        //Batch mode: check the payment totals and exit with a non-zero status if any don't match.
+        if (Arrays.asList(args).contains("--reconcile")) {
+            boolean balanced = reconcilePayments(dataSource);
+            closeDataSource(dataSource);
             consoleHandler.close();
-            return;
+            System.exit(balanced ? 0 : 1);
         }
 
+        //Pick up the changes made by other users of the database. A poll interval of 0 turns this off.
+        final long changePollMillis = Long.getLong("pms.changePollMillis", 2000);
+        if (changePollMillis > 0) {
+            dataSource.startChangeLogPolling(changePollMillis);
+        }
+
+        //Pressing Enter on an empty line while a query runs cancels it, when the program is run from a terminal.
+        consoleHandler.startCancelWatcher(dataSource::cancelRunningStatements);
+
+        //Serve the metrics for the monitoring dashboards if a port was given. They are only served to this machine
+        //unless pms.metrics.host names another address to listen on.
+        MetricsServer metricsServer = null;
+        final Integer metricsPort = Integer.getInteger("pms.metrics.port");
+        if (metricsPort != null) {
+            try {
+                metricsServer = new MetricsServer(System.getProperty("pms.metrics.host"), metricsPort, dataSource);
+            } catch (IOException ex) {
+                System.out.println("Could not serve the metrics on port " + metricsPort + ": " + ex.getMessage());
+            }
+        }
+
+        //Person searches query the database until the index is ready.
+        CompletableFuture<Integer> personIndexBuilt = startup.submit("Build person search index",
+                dataSource::buildPersonSearchIndex);
+
+        //Watch the project deadlines in the background and show alerts above the main menu.
+        DeadlineScheduler deadlineScheduler = new DeadlineScheduler(dataSource);
+        DeadlineBanner deadlineBanner = new DeadlineBanner();
+        deadlineScheduler.addListener(deadlineBanner);
+        String deadlineLogPath = System.getProperty("pms.deadlineLog");
+        if (deadlineLogPath != null && !deadlineLogPath.isBlank()) {
+            deadlineScheduler.addListener(new DeadlineLogFile(deadlineLogPath));
+        }
+        consoleHandler.setDeadlineBanner(deadlineBanner);
+        final long deadlinesStart = System.nanoTime();
+        CompletableFuture<Void> deadlinesLoaded = deadlineScheduler.start()
+                .whenComplete((ignored, ex) -> startup.record("Load deadlines", deadlinesStart));
+
+        final long titleStart = System.nanoTime();
+        consoleHandler.printTitle();
+        startup.record("Print title", titleStart);
+
+        //History compaction policy: project versions older than the retention period are deleted on start-up.
+        CompletableFuture<Integer> historyCompacted = CompletableFuture.completedFuture(0);
+        final Long retentionDays = getDaysProperty("pms.historyRetentionDays");
+        if (retentionDays != null) {
+            final LocalDateTime cutoff = LocalDateTime.now().minusDays(retentionDays);
+            historyCompacted = startup.submit("Compact project history",
+                    () -> dataSource.compactProjectHistory(cutoff));
+        }
+
+        //Archiving policy: projects finalised longer ago than the given number of days are moved to the archive.
+        CompletableFuture<Integer> projectsArchived = CompletableFuture.completedFuture(0);
+        final Long archiveAfterDays = getDaysProperty("pms.archiveAfterDays");
+        if (archiveAfterDays != null) {
+            final LocalDateTime finalisedBefore = LocalDateTime.now().minusDays(archiveAfterDays);
+            projectsArchived = startup.submit("Archive finalised projects",
+                    () -> dataSource.archiveFinalisedProjects(finalisedBefore));
+        }
+
+        //The report is printed once the background work has finished, whether it succeeded or not.
+        CompletableFuture.allOf(personIndexBuilt, deadlinesLoaded, historyCompacted, projectsArchived)
+                .handle((ignored, ex) -> {
+                    startup.shutdown();
+                    if (Boolean.getBoolean("pms.startupReport")) {
+                        startup.printReport(System.err);
+                    }
+                    return null;
+                });
+
         //The program is modelled as a state machine. Each state determines the current behaviour of the program.
         //The program loops continuously until the EXIT state is reached.
         ProgramState programState = ProgramState.MAIN_MENU;
         Project currentSelection = null;
+        PerformanceRecording recording = new PerformanceRecording();
 
-        consoleHandler.printTitle();
         while (programState != ProgramState.EXIT) {
+            //Each state is a JFR event so that a recording shows what the user was doing around the database calls.
+            CliActionEvent action = new CliActionEvent();
+            action.begin();
+            action.state = programState.name();
+            ActionTrace trace = ActionTrace.start(programState.name(), consoleHandler::flush);
             try {
                 switch (programState) {
                     case MAIN_MENU:
@@ -66,7 +180,10 @@ public class PmsProgram {
                         programState = newStateFromMainMenu(menuChoice);
                         break;
                     case NEW_PROJECT:
-                        currentSelection = consoleHandler.addProject();
+                        Project addedProject = consoleHandler.addProject();
+                        if (addedProject != null) {
+                            currentSelection = addedProject;
+                        }
                         programState = ProgramState.MAIN_MENU;
                         break;
                     case VIEW_CURRENT:
@@ -92,22 +209,107 @@ public class PmsProgram {
                         consoleHandler.editPeople();
                         programState = ProgramState.MAIN_MENU;
                         break;
+                    case TOGGLE_RECORDING:
+                        consoleHandler.toggleRecording(recording);
+                        programState = ProgramState.MAIN_MENU;
+                        break;
                 }
-            } catch (DatabaseException exc) {
-                System.out.println("Database error occurred. Check the status of the database and consider restarting the program.");
+            } catch (QueryTimeoutException exc) {
+                //The connection is fine. Just tell the user and go back to the main menu.
+                consoleHandler.flush();
                 System.out.println(exc.getMessage());
-                System.out.println(exc.getCause().getMessage());
                 programState = ProgramState.MAIN_MENU;
+            } catch (DatabaseException exc) {
+                consoleHandler.flush();
+                if (exc.getCause() instanceof CircuitOpenException) {
+                    //The database is being given time to recover. The connection is fine, so just tell the user.
+                    System.out.println(exc.getCause().getMessage());
+                } else {
+                    System.out.println("Database error occurred. Check the status of the database and consider restarting the program.");
+                    System.out.println(exc.getMessage());
+                    if (exc.getCause() != null) {
+                        System.out.println(exc.getCause().getMessage());
+                    }
+                }
+                programState = ProgramState.MAIN_MENU;
+            } finally {
+                trace.close();
+                action.commit();
             }
         }
         //Exiting program. Cleanup any open resources.
-        try{
-            dataSource.close();
+        if (recording.isRunning()) {
+            consoleHandler.toggleRecording(recording);
+        }
+        deadlineScheduler.stop();
+        if (metricsServer != null) {
+            metricsServer.stop();
+        }
+        closeDataSource(dataSource);
+        consoleHandler.close();
+
+    }
+
+    /**
+     * Closes the DataSource and tells the user about any changes that didn't make it to the audit trail.
+     */
+    private static void closeDataSource(DataSource dataSource) {
+        try {
+            final long droppedAuditEntries = dataSource.close();
+            if (droppedAuditEntries > 0) {
+                System.out.println("Warning: " + droppedAuditEntries
+                        + " changes could not be written to the audit trail.");
+            }
         } catch (SQLException ex) {
             System.out.println("Error encountered while closing database connection.\n" + ex.getMessage());
         }
-        consoleHandler.close();
+    }
 
+    /**
+     * Reads a number of days from a system property. A value that isn't a whole number of at least 1 day is ignored
+     * with a warning, so a typo can't make a start-up policy delete or archive everything.
+     *
+     * @param name The name of the property.
+     * @return The number of days or {@code null} if the property isn't set or isn't valid.
+     */
+    private static Long getDaysProperty(String name) {
+        final String value = System.getProperty(name);
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        final Long days = Long.getLong(name);
+        if (days == null || days < 1) {
+            System.out.println("Ignoring " + name + "=" + value + ". It must be a whole number of days of at least 1.");
+            return null;
+        }
+        return days;
+    }
+
+    /**
+     * Checks that the total paid of every project matches its payments and prints the projects that don't.
+     *
+     * @param dataSource The initialised DataSource.
+     * @return {@code true} if every project balances.
+     */
+    private static boolean reconcilePayments(DataSource dataSource) {
+        final int partitions = Math.max(2, Runtime.getRuntime().availableProcessors());
+        try {
+            List<PaymentDiscrepancy> discrepancies = dataSource.reconcilePayments(partitions);
+            if (discrepancies.isEmpty()) {
+                System.out.println("All project totals match their payments.");
+                return true;
+            }
+            System.out.println(discrepancies.size() + " project totals don't match their payments:");
+            for (PaymentDiscrepancy discrepancy : discrepancies) {
+                System.out.println("  " + discrepancy.getOneLineString());
+            }
+        } catch (DatabaseException ex) {
+            System.out.println("Could not reconcile the payments: " + ex.getMessage());
+            if (ex.getCause() != null) {
+                System.out.println(ex.getCause().getMessage());
+            }
+        }
+        return false;
     }
 
     /**
@@ -130,6 +332,8 @@ public class PmsProgram {
                 yield ProgramState.EDIT_PEOPLE;
             case 6:
                 yield ProgramState.EDIT_PROJECT;
+            case 9:
+                yield ProgramState.TOGGLE_RECORDING;
             case 0:
                 yield ProgramState.EXIT;
             default:
@@ -2,58 +2,361 @@ package MainProgram;
 
 import database.DataSource;
 import database.DatabaseException;
+import database.PersonLoader;
 
-import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.Objects;
 
 public class Project implements Pickable {
+    //Bit flags for the fields that can be changed through the setters. The database layer generates an UPDATE that
+    //only contains the columns whose bit is set in the dirty mask.
+    public static final int FIELD_NAME = 1;
+    public static final int FIELD_ADDRESS = 1 << 1;
+    public static final int FIELD_ERF = 1 << 2;
+    public static final int FIELD_TOTAL_FEE = 1 << 3;
+    public static final int FIELD_TOTAL_PAID = 1 << 4;
+    public static final int FIELD_DEADLINE = 1 << 5;
+    public static final int FIELD_CUSTOMER = 1 << 6;
+    public static final int FIELD_ENGINEER = 1 << 7;
+    public static final int FIELD_PROJ_MANAGER = 1 << 8;
+    public static final int FIELD_ARCHITECT = 1 << 9;
+    public static final int FIELD_TYPE = 1 << 10;
+    public static final int FIELD_COUNT = 11;
+
     public long number;
     public String name;
     public String address;
     public int erfNum;
-    public BigDecimal totalFee;
-    public BigDecimal totalPaid;
+    public Money totalFee = Money.ZERO;
+    public Money totalPaid = Money.ZERO;
     public LocalDate deadline;
 
-    public Person engineer;
-    public Person customer;
-    public Person architect;
-    public Person projectManager;
+    //The people involved are loaded lazily. The IDs are always known but the Person objects are only fetched through
+    //the PersonLoader the first time they are asked for.
+    private long engineerId;
+    private long customerId;
+    private long architectId;
+    private long projectManagerId;
+    private Person engineer;
+    private Person customer;
+    private Person architect;
+    private Person projectManager;
+    private PersonLoader personLoader;
 
     public ProjectStatus status;
     public ProjectType type;
 
+    //True if the project was loaded from the archive. Archived projects are finalised and can't be changed.
+    private boolean archived;
+
+    private int dirtyFields;
+    //The value each changed field had before it was first changed, indexed by bit number. Used for the audit trail.
+    private Object[] originalValues;
+
     public Project (String name, ProjectType type, Person customer) {
         this.name = name;
         this.type = type;
         this.customer = customer;
+        this.customerId = customer == null ? 0 : customer.id;
         this.status = ProjectStatus.CAPTURED;
     }
 
+    /**
+     * Sets the IDs of the people involved in the project without loading them. Used by the database layer when a
+     * project is loaded. The Person objects are fetched from the loader the first time a getter asks for them.
+     *
+     * @param loader The loader that will fetch the people.
+     * @param customerId The customer's Person ID.
+     * @param engineerId The engineer's Person ID or 0 if there isn't one.
+     * @param projectManagerId The project manager's Person ID or 0 if there isn't one.
+     * @param architectId The architect's Person ID or 0 if there isn't one.
+     */
+    public void setPersonReferences(PersonLoader loader, long customerId, long engineerId, long projectManagerId,
+                                    long architectId) {
+        this.personLoader = loader;
+        this.customerId = customerId;
+        this.engineerId = engineerId;
+        this.projectManagerId = projectManagerId;
+        this.architectId = architectId;
+        this.customer = null;
+        this.engineer = null;
+        this.projectManager = null;
+        this.architect = null;
+    }
+
+    public long getCustomerId() {
+        return customerId;
+    }
+
+    public long getEngineerId() {
+        return engineerId;
+    }
+
+    public long getProjectManagerId() {
+        return projectManagerId;
+    }
+
+    public long getArchitectId() {
+        return architectId;
+    }
+
+    public boolean hasCustomer() {
+        return customerId != 0;
+    }
+
+    public boolean hasEngineer() {
+        return engineerId != 0;
+    }
+
+    public boolean hasProjectManager() {
+        return projectManagerId != 0;
+    }
+
+    public boolean hasArchitect() {
+        return architectId != 0;
+    }
+
+    public Person getCustomer() throws DatabaseException {
+        customer = resolve(customer, customerId);
+        return customer;
+    }
+
+    public Person getEngineer() throws DatabaseException {
+        engineer = resolve(engineer, engineerId);
+        return engineer;
+    }
+
+    public Person getProjectManager() throws DatabaseException {
+        projectManager = resolve(projectManager, projectManagerId);
+        return projectManager;
+    }
+
+    public Person getArchitect() throws DatabaseException {
+        architect = resolve(architect, architectId);
+        return architect;
+    }
+
+    private Person resolve(Person person, long id) throws DatabaseException {
+        if (person != null || id == 0 || personLoader == null) {
+            return person;
+        }
+        return personLoader.get(id);
+    }
+
+    /**
+     * Creates a copy of this project with no changed fields. Use this to edit a project so that the changes can be
+     * discarded by throwing the copy away.
+     *
+     * @return A new Project object with the same values.
+     */
+    public Project copy() {
+        Project answer = new Project(name, type, customer);
+        answer.number = number;
+        answer.address = address;
+        answer.erfNum = erfNum;
+        answer.totalFee = totalFee;
+        answer.totalPaid = totalPaid;
+        answer.deadline = deadline;
+        answer.personLoader = personLoader;
+        answer.customerId = customerId;
+        answer.engineerId = engineerId;
+        answer.projectManagerId = projectManagerId;
+        answer.architectId = architectId;
+        answer.engineer = engineer;
+        answer.architect = architect;
+        answer.projectManager = projectManager;
+        answer.status = status;
+        answer.archived = archived;
+        return answer;
+    }
+
+    /**
+     * @return {@code true} if the project was loaded from the archive and must not be changed.
+     */
+    public boolean isArchived() {
+        return archived;
+    }
+
+    /**
+     * Marks the project as loaded from the archive. Used by the database layer.
+     */
+    public void markArchived() {
+        archived = true;
+    }
+
+    /**
+     * Returns the bit mask of the fields that have been changed through the setters since the project was loaded or
+     * last saved. See the {@code FIELD_} constants.
+     */
+    public int getDirtyFields() {
+        return dirtyFields;
+    }
+
+    public boolean isDirty() {
+        return dirtyFields != 0;
+    }
+
+    /**
+     * Marks all fields as unchanged. Called by the database layer once the changes have been saved.
+     */
+    public void clearDirtyFields() {
+        dirtyFields = 0;
+        originalValues = null;
+    }
+
+    private void markDirty(int field, Object originalValue) {
+        if ((dirtyFields & field) == 0) {
+            if (originalValues == null) {
+                originalValues = new Object[FIELD_COUNT];
+            }
+            originalValues[Integer.numberOfTrailingZeros(field)] = originalValue;
+            dirtyFields |= field;
+        }
+    }
+
+    /**
+     * Returns the value a changed field had when it was loaded or last saved. The people are given as their IDs.
+     *
+     * @param field One of the {@code FIELD_} constants.
+     * @return The original value or {@code null} if the field hasn't been changed.
+     */
+    public Object getOriginalValue(int field) {
+        if ((dirtyFields & field) == 0) {
+            return null;
+        }
+        return originalValues[Integer.numberOfTrailingZeros(field)];
+    }
+
+    /**
+     * Returns the current value of a field. The people are given as their IDs.
+     *
+     * @param field One of the {@code FIELD_} constants.
+     * @return The value of the field.
+     */
+    public Object getFieldValue(int field) {
+        return switch (field) {
+            case FIELD_NAME -> name;
+            case FIELD_ADDRESS -> address;
+            case FIELD_ERF -> erfNum;
+            case FIELD_TOTAL_FEE -> totalFee;
+            case FIELD_TOTAL_PAID -> totalPaid;
+            case FIELD_DEADLINE -> deadline;
+            case FIELD_CUSTOMER -> customerId;
+            case FIELD_ENGINEER -> engineerId;
+            case FIELD_PROJ_MANAGER -> projectManagerId;
+            case FIELD_ARCHITECT -> architectId;
+            case FIELD_TYPE -> type;
+            default -> throw new IllegalArgumentException("Unknown project field: " + field);
+        };
+    }
+
+    public void setName(String name) {
+        if (!Objects.equals(this.name, name)) {
+            markDirty(FIELD_NAME, this.name);
+            this.name = name;
+        }
+    }
+
+    public void setAddress(String address) {
+        if (!Objects.equals(this.address, address)) {
+            markDirty(FIELD_ADDRESS, this.address);
+            this.address = address;
+        }
+    }
+
+    public void setErfNum(int erfNum) {
+        if (this.erfNum != erfNum) {
+            markDirty(FIELD_ERF, this.erfNum);
+            this.erfNum = erfNum;
+        }
+    }
+
+    public void setTotalFee(Money totalFee) {
+        if (!this.totalFee.equals(totalFee)) {
+            markDirty(FIELD_TOTAL_FEE, this.totalFee);
+            this.totalFee = totalFee;
+        }
+    }
+
+    public void setTotalPaid(Money totalPaid) {
+        if (!this.totalPaid.equals(totalPaid)) {
+            markDirty(FIELD_TOTAL_PAID, this.totalPaid);
+            this.totalPaid = totalPaid;
+        }
+    }
+
+    public void setDeadline(LocalDate deadline) {
+        if (!Objects.equals(this.deadline, deadline)) {
+            markDirty(FIELD_DEADLINE, this.deadline);
+            this.deadline = deadline;
+        }
+    }
+
+    public void setCustomer(Person customer) {
+        final long newId = customer == null ? 0 : customer.id;
+        if (this.customerId != newId) {
+            markDirty(FIELD_CUSTOMER, this.customerId);
+            this.customer = customer;
+            this.customerId = newId;
+        }
+    }
+
+    public void setEngineer(Person engineer) {
+        final long newId = engineer == null ? 0 : engineer.id;
+        if (this.engineerId != newId) {
+            markDirty(FIELD_ENGINEER, this.engineerId);
+            this.engineer = engineer;
+            this.engineerId = newId;
+        }
+    }
+
+    public void setProjectManager(Person projectManager) {
+        final long newId = projectManager == null ? 0 : projectManager.id;
+        if (this.projectManagerId != newId) {
+            markDirty(FIELD_PROJ_MANAGER, this.projectManagerId);
+            this.projectManager = projectManager;
+            this.projectManagerId = newId;
+        }
+    }
+
+    public void setArchitect(Person architect) {
+        final long newId = architect == null ? 0 : architect.id;
+        if (this.architectId != newId) {
+            markDirty(FIELD_ARCHITECT, this.architectId);
+            this.architect = architect;
+            this.architectId = newId;
+        }
+    }
+
+    public void setType(ProjectType type) {
+        if (this.type != type) {
+            markDirty(FIELD_TYPE, this.type);
+            this.type = type;
+        }
+    }
+
     private boolean canBeLogged() {
         return status == ProjectStatus.CAPTURED && address != null && !address.isBlank() && erfNum > 0;
     }
 
     private boolean canGoToConcept() {
-        return status == ProjectStatus.LOGGED && architect != null;
+        return status == ProjectStatus.LOGGED && hasArchitect();
     }
 
     private boolean canGoToPreFeas() {
-        return status == ProjectStatus.CONCEPT && engineer != null;
+        return status == ProjectStatus.CONCEPT && hasEngineer();
     }
 
     private boolean canGoToBankable() {
-        return status == ProjectStatus.PREFEAS && projectManager != null;
+        return status == ProjectStatus.PREFEAS && hasProjectManager();
     }
 
     private boolean canGoToConstruction() {
-        final BigDecimal ZERO = BigDecimal.valueOf(0);
-        return status == ProjectStatus.BANKABLE && totalFee.compareTo(ZERO) > 0;
+        return status == ProjectStatus.BANKABLE && totalFee.isPositive();
     }
 
     private boolean canBeFinalised() {
-        final BigDecimal ZERO = BigDecimal.valueOf(0);
-        return status == ProjectStatus.CONSTRUCTION && totalPaid.compareTo(ZERO) > 0;
+        return status == ProjectStatus.CONSTRUCTION && totalPaid.isPositive();
     }
 
     /**
@@ -62,11 +365,14 @@ public class Project implements Pickable {
      * @throws DatabaseException If a database error occurs.
      */
     public void advanceStage() throws DatabaseException {
+        if (archived) {
+            throw new DatabaseException("Project " + number + " is archived and can't be changed.");
+        }
         DataSource dataSource = DataSource.getInstance();
         switch (status){
             case CAPTURED:
                 if (canBeLogged()) {
-                    if(dataSource.changeStage(number, status.id() + 1 )) {
+                    if(dataSource.changeStage(number, status.id(), status.id() + 1)) {
                         status = ProjectStatus.LOGGED;
                         System.out.println("The project is now in " + status + " stage.\n");
                     }
@@ -76,7 +382,7 @@ public class Project implements Pickable {
                 break;
             case LOGGED:
                 if (canGoToConcept()) {
-                    if(dataSource.changeStage(number, status.id() + 1 )) {
+                    if(dataSource.changeStage(number, status.id(), status.id() + 1)) {
                         status = ProjectStatus.CONCEPT;
                         System.out.println("The project is now in " + status + " stage.\n");
                     }
@@ -86,7 +392,7 @@ public class Project implements Pickable {
                 break;
             case CONCEPT:
                 if (canGoToPreFeas()) {
-                    if(dataSource.changeStage(number, status.id() + 1 )) {
+                    if(dataSource.changeStage(number, status.id(), status.id() + 1)) {
                         status = ProjectStatus.PREFEAS;
                         System.out.println("The project is now in " + status + " stage.\n");
                     }
@@ -96,7 +402,7 @@ public class Project implements Pickable {
                 break;
             case PREFEAS:
                 if (canGoToBankable()) {
-                    if(dataSource.changeStage(number, status.id() + 1 )) {
+                    if(dataSource.changeStage(number, status.id(), status.id() + 1)) {
                         status = ProjectStatus.BANKABLE;
                         System.out.println("The project is now in " + status + " stage.\n");
                     }
@@ -106,7 +412,7 @@ public class Project implements Pickable {
                 break;
             case BANKABLE:
                 if (canGoToConstruction()) {
-                    if(dataSource.changeStage(number, status.id() + 1 )) {
+                    if(dataSource.changeStage(number, status.id(), status.id() + 1)) {
                         status = ProjectStatus.CONSTRUCTION;
                         System.out.println("The project is now in " + status + " stage.\n");
                     }
@@ -116,7 +422,7 @@ public class Project implements Pickable {
                 break;
             case CONSTRUCTION:
                 if (canBeFinalised()) {
-                    if(dataSource.changeStage(number, status.id() + 1 )) {
+                    if(dataSource.changeStage(number, status.id(), status.id() + 1)) {
                         status = ProjectStatus.FINAL;
                         System.out.println("The project is now in finalised.\n");
                     }
@@ -130,7 +436,15 @@ public class Project implements Pickable {
     @Override
     public String toString() {
         StringBuilder builder = new StringBuilder();
-        builder.append(name).append(" | Customer: ").append(customer.fullName()).append(" | Project size: ").append(totalFee);
+        builder.append(name).append(" | Customer: ");
+        try {
+            Person loadedCustomer = getCustomer();
+            builder.append(loadedCustomer == null ? "" : loadedCustomer.fullName());
+        } catch (DatabaseException ex) {
+            //toString can't throw so fall back to the ID if the customer can't be loaded.
+            builder.append('#').append(customerId);
+        }
+        builder.append(" | Project size: ").append(totalFee);
         return builder.toString();
     }
 
@@ -139,17 +453,27 @@ public class Project implements Pickable {
         return toString();
     }
 
-    public String getFullDescription() {
+    /**
+     * Returns a multi-line description of the project. Loads any people that haven't been loaded yet.
+     *
+     * @return The description.
+     * @throws DatabaseException If a database error occurs while loading the people.
+     */
+    public String getFullDescription() throws DatabaseException {
+        Person loadedCustomer = getCustomer();
+        Person loadedManager = getProjectManager();
+        Person loadedArchitect = getArchitect();
+        Person loadedEngineer = getEngineer();
         StringBuilder builder = new StringBuilder()
                 .append("Project: ").append(name).append(" (").append(type).append(')')
                 .append("\n\n")
                 .append("Address: ").append(address == null ? '\t' : address)
                 .append("\tERF: ").append(erfNum == 0 ? '\t' : erfNum).append('\n')
                 .append("Total Fee: ").append(totalFee).append("\tPaid to-date: ").append(totalPaid).append('\n')
-                .append("Customer: ").append(customer.fullName())
-                .append("\t\tProject Manager: ").append(projectManager == null ? '\t' : projectManager.fullName()).append('\n')
-                .append("Architect: ").append(architect == null ? "\t\t" : architect.fullName())
-                .append("\t\tEngineer: ").append(engineer == null ? '\t' : engineer.fullName()).append("\n\n");
+                .append("Customer: ").append(loadedCustomer == null ? "\t" : loadedCustomer.fullName())
+                .append("\t\tProject Manager: ").append(loadedManager == null ? '\t' : loadedManager.fullName()).append('\n')
+                .append("Architect: ").append(loadedArchitect == null ? "\t\t" : loadedArchitect.fullName())
+                .append("\t\tEngineer: ").append(loadedEngineer == null ? '\t' : loadedEngineer.fullName()).append("\n\n");
         return builder.toString();
 
     }
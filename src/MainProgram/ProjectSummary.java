@@ -0,0 +1,49 @@
+package MainProgram;
+
+import java.time.LocalDate;
+
+/**
+ * A lightweight, read-only view of a project with just the fields shown in a pick list. Listings load these instead
+ * of full {@link Project} objects and the full project is only fetched once the user selects one.
+ * <p><br>
+ * Summaries are immutable because the cached listings share them between callers.
+ */
+public final class ProjectSummary implements Pickable {
+    public final long number;
+    public final String name;
+    public final String customerName;
+    public final Money totalFee;
+    public final LocalDate deadline;
+
+    public ProjectSummary(long number, String name, String customerName, Money totalFee, LocalDate deadline) {
+        this.number = number;
+        this.name = name;
+        this.customerName = customerName;
+        this.totalFee = totalFee != null ? totalFee : Money.ZERO;
+        this.deadline = deadline;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(name).append(" | Customer: ").append(customerName).append(" | Project size: ").append(totalFee);
+        return builder.toString();
+    }
+
+    @Override
+    public String getOneLineString() {
+        return toString();
+    }
+
+    private static final String[] COLUMN_HEADERS = {"Project", "Customer", "Project size"};
+
+    @Override
+    public String[] getColumns() {
+        return new String[] {name, customerName, totalFee.toString()};
+    }
+
+    @Override
+    public String[] getColumnHeaders() {
+        return COLUMN_HEADERS;
+    }
+}
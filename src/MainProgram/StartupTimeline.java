@@ -0,0 +1,133 @@
+package MainProgram;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the start-up work of the program as a graph of tasks on a small thread pool and records how long each task
+ * took so that a timing report can be printed.
+ * <p><br>
+ * A task is started with {@link #submit} and can be made to wait for other tasks with {@link #submitAfter}. Work done
+ * on the main thread (like waiting for the user to type in the credentials) can be recorded with {@link #record}.
+ * The pool threads are daemon threads, so a task that is still running doesn't stop the program from exiting.
+ */
+class StartupTimeline {
+    private static final int THREADS = 3;
+
+    /**
+     * The timing of one finished task. Times are in nanoseconds since the timeline was created.
+     */
+    private record Entry(String name, String thread, long start, long end, Throwable failure) { }
+
+    private final long origin = System.nanoTime();
+    private final ConcurrentLinkedQueue<Entry> entries = new ConcurrentLinkedQueue<>();
+    private final ExecutorService executor;
+
+    StartupTimeline() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "startup-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts a task in the background.
+     *
+     * @param name The name of the task used in the report.
+     * @param work The work to do. Checked exceptions complete the returned future exceptionally.
+     * @return A future holding the result of the task.
+     */
+    <T> CompletableFuture<T> submit(String name, Callable<T> work) {
+        return CompletableFuture.supplyAsync(() -> run(name, work), executor);
+    }
+
+    /**
+     * Starts a task in the background once another task has finished successfully. If the other task fails this task
+     * is skipped and fails with the same exception.
+     *
+     * @param name The name of the task used in the report.
+     * @param dependency The task to wait for.
+     * @param work The work to do with the result of the dependency.
+     * @return A future holding the result of the task.
+     */
+    <D, T> CompletableFuture<T> submitAfter(String name, CompletableFuture<D> dependency, Step<D, T> work) {
+        return dependency.thenApplyAsync(input -> run(name, () -> work.apply(input)), executor);
+    }
+
+    /**
+     * Records a piece of work that was done outside the timeline, normally on the main thread.
+     *
+     * @param name The name used in the report.
+     * @param startNanos The {@link System#nanoTime()} when the work started. It is assumed to have just ended.
+     */
+    void record(String name, long startNanos) {
+        entries.add(new Entry(name, Thread.currentThread().getName(), startNanos - origin, System.nanoTime() - origin,
+                null));
+    }
+
+    private <T> T run(String name, Callable<T> work) {
+        final long start = System.nanoTime();
+        Throwable failure = null;
+        try {
+            return work.call();
+        } catch (RuntimeException ex) {
+            failure = ex;
+            throw ex;
+        } catch (Exception ex) {
+            failure = ex;
+            throw new CompletionException(ex);
+        } finally {
+            entries.add(new Entry(name, Thread.currentThread().getName(), start - origin, System.nanoTime() - origin,
+                    failure));
+        }
+    }
+
+    /**
+     * Prints the start and end time of each task recorded so far in the order they started.
+     *
+     * @param out The stream to print to.
+     */
+    void printReport(PrintStream out) {
+        ArrayList<Entry> sorted = new ArrayList<>(entries);
+        sorted.sort(Comparator.comparingLong(Entry::start));
+        long total = 0;
+        out.println("Start-up timing (ms):");
+        out.printf("  %8s %8s %8s  %-30s %s%n", "start", "end", "took", "task", "thread");
+        for (Entry entry : sorted) {
+            out.printf("  %8.1f %8.1f %8.1f  %-30s %s%s%n", millis(entry.start), millis(entry.end),
+                    millis(entry.end - entry.start), entry.name, entry.thread,
+                    entry.failure == null ? "" : "  FAILED: " + entry.failure.getMessage());
+            total = Math.max(total, entry.end);
+        }
+        out.printf("  Finished after %.1f ms%n", millis(total));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    /**
+     * Stops the thread pool once the running tasks are done.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * A task that uses the result of the task it depends on.
+     */
+    @FunctionalInterface
+    interface Step<D, T> {
+        T apply(D input) throws Exception;
+    }
+}
@@ -0,0 +1,162 @@
+package database;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Counts the statements and rows of one user action, e.g. showing the overdue projects, so that statement storms are
+ * noticed as soon as they are introduced. A warning is printed when an action runs more statements or reads more rows
+ * than the thresholds, or runs the same statement over and over (usually a query per row of an earlier result).
+ * <p><br>
+ * The trace is kept per thread and only the statements run on the main connection by the thread that started the
+ * trace are counted. Traces can be nested: a menu that loops over several actions starts a trace for each action, and
+ * while it is open the statements are only counted by that trace. The thresholds can be changed with the {@code pms.trace.maxStatements},
+ * {@code pms.trace.maxRows} and {@code pms.trace.maxRepeats} system properties.
+ */
+public class ActionTrace implements AutoCloseable {
+    private static final int MAX_STATEMENTS = Integer.getInteger("pms.trace.maxStatements", 25);
+    private static final int MAX_ROWS = Integer.getInteger("pms.trace.maxRows", 5000);
+    private static final int MAX_REPEATS = Integer.getInteger("pms.trace.maxRepeats", 5);
+
+    private static final String DATA_SOURCE_CLASS = DataSource.class.getName();
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance();
+    private static final ThreadLocal<ActionTrace> CURRENT = new ThreadLocal<>();
+
+    /**
+     * How often one statement shape was run and from where it was first run.
+     */
+    private static class ShapeCount {
+        final String callSite;
+        int count;
+
+        ShapeCount(String callSite) {
+            this.callSite = callSite;
+        }
+    }
+
+    private final String action;
+    private final PrintStream warnings;
+    private final Runnable flushOutput;
+    private final ActionTrace previous;
+    private final HashMap<String, ShapeCount> shapes = new HashMap<>();
+    private int statements;
+    private long rows;
+    //The call site of the statement that went over the statement or row threshold.
+    private String thresholdCallSite;
+
+    private ActionTrace(String action, PrintStream warnings, Runnable flushOutput) {
+        this.action = action;
+        this.warnings = warnings;
+        this.flushOutput = flushOutput;
+        this.previous = CURRENT.get();
+    }
+
+    /**
+     * Starts tracing an action on the current thread. Close the trace when the action is done, which prints the
+     * warnings if there are any.
+     *
+     * @param action The name of the action, used in the warnings.
+     * @param flushOutput Sends the program's buffered output to the terminal. Run before the warnings are printed so
+     *                    that they come after the action's output.
+     * @return The new trace.
+     */
+    public static ActionTrace start(String action, Runnable flushOutput) {
+        ActionTrace trace = new ActionTrace(action, System.err, flushOutput);
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    /**
+     * @return The trace of the current thread or {@code null} if there is none.
+     */
+    static ActionTrace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Counts a statement that is about to be run.
+     *
+     * @param sqlShape The SQL of the statement with its literals replaced by '?'.
+     */
+    void statementExecuted(String sqlShape) {
+        statements++;
+        ShapeCount count = shapes.get(sqlShape);
+        if (count == null) {
+            //The stack is only walked once for each shape.
+            count = new ShapeCount(callSite());
+            shapes.put(sqlShape, count);
+        }
+        count.count++;
+        if (statements == MAX_STATEMENTS + 1 && thresholdCallSite == null) {
+            thresholdCallSite = callSite();
+        }
+    }
+
+    void rowRead() {
+        rows++;
+        if (rows == MAX_ROWS + 1 && thresholdCallSite == null) {
+            thresholdCallSite = callSite();
+        }
+    }
+
+    public int getStatementCount() {
+        return statements;
+    }
+
+    public long getRowCount() {
+        return rows;
+    }
+
+    /**
+     * Ends the trace and prints a warning for each threshold that was exceeded.
+     */
+    @Override
+    public void close() {
+        if (CURRENT.get() == this) {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+
+        boolean flushed = false;
+        if (statements > MAX_STATEMENTS || rows > MAX_ROWS) {
+            flushOutput.run();
+            flushed = true;
+            warnings.println("Warning: " + action + " ran " + statements + " statements and read " + rows
+                    + " rows (thresholds " + MAX_STATEMENTS + " and " + MAX_ROWS + "). Went over at "
+                    + thresholdCallSite);
+        }
+        for (Map.Entry<String, ShapeCount> shape : shapes.entrySet()) {
+            if (shape.getValue().count > MAX_REPEATS) {
+                if (!flushed) {
+                    flushOutput.run();
+                    flushed = true;
+                }
+                warnings.println("Warning: " + action + " ran the same statement " + shape.getValue().count
+                        + " times from " + shape.getValue().callSite + ": " + shape.getKey());
+            }
+        }
+    }
+
+    /**
+     * Describes where the current statement came from: the DataSource method that was called and the code outside
+     * DataSource that called it.
+     */
+    private static String callSite() {
+        return STACK_WALKER.walk(frames -> {
+            StackWalker.StackFrame dataSourceFrame = null;
+            for (StackWalker.StackFrame frame : (Iterable<StackWalker.StackFrame>) frames::iterator) {
+                if (frame.getClassName().equals(DATA_SOURCE_CLASS)) {
+                    dataSourceFrame = frame;
+                } else if (dataSourceFrame != null) {
+                    return "DataSource." + dataSourceFrame.getMethodName() + " called from "
+                            + frame.toStackTraceElement();
+                }
+            }
+            return dataSourceFrame == null ? "unknown" : "DataSource." + dataSourceFrame.getMethodName();
+        });
+    }
+}
@@ -0,0 +1,84 @@
+package database;
+
+import MainProgram.AuditEntry;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded lock-free queue of audit entries with any number of producers and a single consumer.
+ * <p><br>
+ * Each slot has a sequence number that tells the producers whether it is free and the consumer whether it has been
+ * filled. A producer claims a position with a single compare-and-set on the tail, writes the entry and then publishes
+ * it by moving the slot's sequence on. Neither side ever blocks, so adding an entry costs the user-facing write a few
+ * nanoseconds.
+ */
+class AuditRingBuffer {
+    private final AuditEntry[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    //Only used by the consumer thread.
+    private long head;
+
+    /**
+     * @param capacity The number of entries the buffer can hold. Must be a power of two.
+     */
+    AuditRingBuffer(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("The capacity must be a power of two: " + capacity);
+        }
+        slots = new AuditEntry[capacity];
+        sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+        mask = capacity - 1;
+    }
+
+    /**
+     * Adds an entry if there is room. Safe to call from any thread.
+     *
+     * @return {@code false} if the buffer is full.
+     */
+    boolean offer(AuditEntry entry) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots[index] = entry;
+                    //Publishes the entry to the consumer.
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                //The consumer hasn't freed this slot yet.
+                return false;
+            } else {
+                //Another producer took this position.
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest entry. Must only be called from the consumer thread.
+     *
+     * @return The entry or {@code null} if the buffer is empty.
+     */
+    AuditEntry poll() {
+        int index = (int) (head & mask);
+        if (sequences.get(index) != head + 1) {
+            return null;
+        }
+        AuditEntry entry = slots[index];
+        slots[index] = null;
+        //Frees the slot for the producers one lap later.
+        sequences.set(index, head + slots.length);
+        ++head;
+        return entry;
+    }
+}
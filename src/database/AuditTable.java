@@ -0,0 +1,85 @@
+package database;
+
+public class AuditTable {
+
+    static public final String TABLE_NAME = "Audit";
+
+    static public final String COL_ID = "ID";
+    static public final String COL_CHANGED_AT = "ChangedAt";
+    static public final String COL_ENTITY_TYPE = "EntityType";
+    static public final int COL_ENTITY_TYPE_SIZE = 10;
+    static public final String COL_ENTITY_ID = "EntityID";
+    static public final String COL_ACTION = "Action";
+    static public final int COL_ACTION_SIZE = 10;
+    static public final String COL_FIELD = "FieldName";
+    static public final int COL_FIELD_SIZE = 30;
+    static public final String COL_OLD_VALUE = "OldValue";
+    static public final String COL_NEW_VALUE = "NewValue";
+    static public final int COL_VALUE_SIZE = 200;
+    static public final String COL_CHANGED_BY = "ChangedBy";
+    static public final int COL_CHANGED_BY_SIZE = 64;
+
+    //The columns written by the audit trail. The ID is generated by the database.
+    static public final String[] INSERT_COLUMN_NAMES = {
+        COL_CHANGED_AT,
+        COL_ENTITY_TYPE,
+        COL_ENTITY_ID,
+        COL_ACTION,
+        COL_FIELD,
+        COL_OLD_VALUE,
+        COL_NEW_VALUE,
+        COL_CHANGED_BY
+    };
+
+    /**
+     * Generates the SQL to create the Audit table. The index serves the history of a single project or person in the
+     * order the changes were made.
+     *
+     * @return An SQL query to insert the table into the database.
+     */
+    public static String getCreationQuery() {
+        final String padding = "  ";
+        StringBuilder query = new StringBuilder();
+        query.append("CREATE TABLE ").append(TABLE_NAME).append(" (\n")
+            .append(padding).append(COL_ID).append(" BIGINT UNSIGNED NOT NULL AUTO_INCREMENT,\n")
+            .append(padding).append(COL_CHANGED_AT).append(" DATETIME(3) NOT NULL,\n")
+            .append(padding).append(COL_ENTITY_TYPE).append(" VARCHAR(").append(COL_ENTITY_TYPE_SIZE).append(") NOT NULL,\n")
+            .append(padding).append(COL_ENTITY_ID).append(" INT(10) UNSIGNED NOT NULL,\n")
+            .append(padding).append(COL_ACTION).append(" VARCHAR(").append(COL_ACTION_SIZE).append(") NOT NULL,\n")
+            .append(padding).append(COL_FIELD).append(" VARCHAR(").append(COL_FIELD_SIZE).append(") DEFAULT NULL,\n")
+            .append(padding).append(COL_OLD_VALUE).append(" VARCHAR(").append(COL_VALUE_SIZE).append(") DEFAULT NULL,\n")
+            .append(padding).append(COL_NEW_VALUE).append(" VARCHAR(").append(COL_VALUE_SIZE).append(") DEFAULT NULL,\n")
+            .append(padding).append(COL_CHANGED_BY).append(" VARCHAR(").append(COL_CHANGED_BY_SIZE).append(") NOT NULL,\n")
+            .append(padding).append("PRIMARY KEY (").append(COL_ID).append("),\n")
+            .append(padding).append("KEY ").append(TABLE_NAME).append("_Entity (")
+                .append(COL_ENTITY_TYPE).append(", ").append(COL_ENTITY_ID).append(", ").append(COL_ID).append(")\n")
+            .append(") COMMENT='Before and after values of every change made to projects and people'");
+        return query.toString();
+    }
+
+    /**
+     * Generates a multi-row INSERT for the audit trail with one set of parameters per row.
+     *
+     * @param rowCount The number of rows the query inserts.
+     * @return An SQL query for use in a PreparedStatement.
+     */
+    public static String getInsertQuery(int rowCount) {
+        StringBuilder query = new StringBuilder();
+        query.append("INSERT INTO ").append(TABLE_NAME).append(" (");
+        for (int i = 0; i < INSERT_COLUMN_NAMES.length; ++i) {
+            query.append(INSERT_COLUMN_NAMES[i]);
+            if (i < INSERT_COLUMN_NAMES.length - 1) {
+                query.append(", ");
+            }
+        }
+        query.append(") VALUES ");
+        for (int row = 0; row < rowCount; ++row) {
+            query.append(row == 0 ? "(" : ", (");
+            for (int i = 0; i < INSERT_COLUMN_NAMES.length; ++i) {
+                query.append(i == 0 ? "?" : ", ?");
+            }
+            query.append(')');
+        }
+        return query.toString();
+    }
+}
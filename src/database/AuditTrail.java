@@ -0,0 +1,201 @@
+package database;
+
+import MainProgram.AuditEntry;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes the audit trail in the background. The {@link DataSource} adds an entry to a lock-free ring buffer for each
+ * change it makes and a writer thread drains the buffer into the Audit table in multi-row INSERTs on its own
+ * connection. The user-facing write therefore never waits for the audit table.
+ * <p><br>
+ * If the buffer fills up (the audit table can't be written for a long time) new entries are dropped and counted
+ * rather than holding up the user.
+ */
+class AuditTrail {
+    private static final int CAPACITY = 4096;
+    private static final int BATCH_SIZE = 64;
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long RETRY_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final long FLUSH_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    /**
+     * Opens the connection used by the writer thread.
+     */
+    @FunctionalInterface
+    interface ConnectionOpener {
+        Connection open() throws SQLException;
+    }
+
+    private final AuditRingBuffer buffer = new AuditRingBuffer(CAPACITY);
+    private final ConnectionOpener opener;
+    private final Thread writer;
+    //Number of entries added to the buffer and number taken out of it and written (or given up on).
+    private final AtomicLong enqueued = new AtomicLong();
+    private volatile long processed;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean running = true;
+
+    private Connection connection;
+    //The cached INSERT for a full batch. Smaller batches are prepared as needed.
+    private PreparedStatement fullBatchInsert;
+
+    AuditTrail(ConnectionOpener opener) {
+        this.opener = opener;
+        writer = new Thread(this::writeLoop, "audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queues an entry to be written. Never blocks.
+     */
+    void record(AuditEntry entry) {
+        if (buffer.offer(entry)) {
+            enqueued.incrementAndGet();
+        } else {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Waits (for a few seconds at most) until every entry queued before this call has been written. Used before
+     * reading the history so that it includes the user's latest changes.
+     */
+    void flush() {
+        final long target = enqueued.get();
+        final long deadline = System.nanoTime() + FLUSH_TIMEOUT_NANOS;
+        while (processed < target && System.nanoTime() < deadline) {
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * Returns the number of entries that were lost because the buffer was full or the audit table couldn't be written.
+     */
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Writes the remaining entries and stops the writer thread.
+     */
+    void close() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.NANOSECONDS.toMillis(FLUSH_TIMEOUT_NANOS));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        ArrayList<AuditEntry> batch = new ArrayList<>(BATCH_SIZE);
+        int failures = 0;
+        while (true) {
+            while (batch.size() < BATCH_SIZE) {
+                AuditEntry entry = buffer.poll();
+                if (entry == null) {
+                    break;
+                }
+                batch.add(entry);
+            }
+            if (batch.isEmpty()) {
+                if (!running) {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_NANOS);
+                continue;
+            }
+            try {
+                write(batch);
+                processed += batch.size();
+                batch.clear();
+                failures = 0;
+            } catch (SQLException ex) {
+                closeConnection();
+                //Keep the batch and try again later. Give up on it if the table can't be written for a while.
+                if (++failures >= 3 || !running) {
+                    dropped.addAndGet(batch.size());
+                    processed += batch.size();
+                    batch.clear();
+                    failures = 0;
+                }
+                if (running) {
+                    LockSupport.parkNanos(RETRY_NANOS);
+                }
+            }
+        }
+        closeConnection();
+    }
+
+    private void write(ArrayList<AuditEntry> batch) throws SQLException {
+        if (connection == null) {
+            connection = opener.open();
+        }
+        if (batch.size() == BATCH_SIZE) {
+            if (fullBatchInsert == null) {
+                fullBatchInsert = connection.prepareStatement(AuditTable.getInsertQuery(BATCH_SIZE));
+            }
+            bind(fullBatchInsert, batch);
+            fullBatchInsert.executeUpdate();
+        } else {
+            try (PreparedStatement statement = connection.prepareStatement(AuditTable.getInsertQuery(batch.size()))) {
+                bind(statement, batch);
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    private static void bind(PreparedStatement statement, ArrayList<AuditEntry> batch) throws SQLException {
+        int index = 1;
+        for (AuditEntry entry : batch) {
+            statement.setTimestamp(index++, Timestamp.valueOf(entry.changedAt));
+            statement.setString(index++, entry.entityType);
+            statement.setLong(index++, entry.entityId);
+            statement.setString(index++, entry.action);
+            setNullableString(statement, index++, entry.fieldName, AuditTable.COL_FIELD_SIZE);
+            setNullableString(statement, index++, entry.oldValue, AuditTable.COL_VALUE_SIZE);
+            setNullableString(statement, index++, entry.newValue, AuditTable.COL_VALUE_SIZE);
+            statement.setString(index++, truncate(entry.changedBy, AuditTable.COL_CHANGED_BY_SIZE));
+        }
+    }
+
+    private static void setNullableString(PreparedStatement statement, int index, String value, int maxLength)
+            throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.VARCHAR);
+        } else {
+            statement.setString(index, truncate(value, maxLength));
+        }
+    }
+
+    private static String truncate(String value, int maxLength) {
+        return value.length() <= maxLength ? value : value.substring(0, maxLength);
+    }
+
+    private void closeConnection() {
+        try {
+            if (fullBatchInsert != null) {
+                fullBatchInsert.close();
+            }
+            if (connection != null) {
+                connection.close();
+            }
+        } catch (SQLException ex) {
+            //The connection is being thrown away anyway.
+        }
+        fullBatchInsert = null;
+        connection = null;
+    }
+}
@@ -0,0 +1,61 @@
+package database;
+
+import java.sql.SQLTransientException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how many statements of one kind of operation can run at the same time, so that a few slow reports can't use
+ * up the database while the user is waiting for a simple lookup.
+ * <p><br>
+ * The limits are shared by the main connection and the connections opened for background work (the deadline
+ * scheduler, the person index build, the history compaction, the archiving, the payment reconciliation and the
+ * re-reads after changes made elsewhere), so they bound the load this program puts on the database as a whole. The
+ * main connection runs one statement at a time anyway; there the bulkhead limits how many threads queue for it. The
+ * change log polls and the audit trail writes are small bookkeeping statements and aren't limited.
+ */
+class Bulkhead {
+    private final String name;
+    private final int maxConcurrent;
+    private final Semaphore permits;
+    private final long maxWaitMillis;
+
+    /**
+     * @param name The name of the operation class, used in the error message.
+     * @param maxConcurrent The number of statements that can run at the same time.
+     * @param maxWaitMillis How long a statement waits for one of the others to finish before failing.
+     */
+    Bulkhead(String name, int maxConcurrent, long maxWaitMillis) {
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        permits = new Semaphore(maxConcurrent, true);
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Waits for a free slot. Each successful call must be followed by a call to {@link #release()}.
+     *
+     * @throws SQLTransientException If no slot became free in time.
+     */
+    void acquire() throws SQLTransientException {
+        try {
+            if (permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        throw new SQLTransientException("Too many " + name + " operations are running. Please try again.");
+    }
+
+    void release() {
+        permits.release();
+    }
+
+    /**
+     * @return The number of statements running at the moment.
+     */
+    int getActiveCount() {
+        return maxConcurrent - permits.availablePermits();
+    }
+}
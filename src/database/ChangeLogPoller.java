@@ -0,0 +1,186 @@
+package database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the changes that other programs made to the database from the ChangeLog table at a fixed interval and passes
+ * them on so that the cached data about those projects and people can be dropped. Each poll is a single range read of
+ * the primary key on the poller's own connection.
+ * <p><br>
+ * Change log IDs can become visible out of order when two programs commit at about the same time, so a gap in the IDs
+ * is read again on the next polls until it is filled or {@link #GAP_TIMEOUT_NANOS} has passed (the transaction that
+ * took the missing ID was rolled back).
+ */
+class ChangeLogPoller {
+    private static final int BATCH_SIZE = 1000;
+    private static final long GAP_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * Receives the changes made by other programs.
+     */
+    @FunctionalInterface
+    interface ChangeHandler {
+        /**
+         * @param connection The poller's connection. Anything the handler needs to read again must be read on this
+         *                   connection rather than the program's main one, which belongs to the CLI thread.
+         * @param tableName The table that was changed.
+         * @param rowIds The IDs of the changed rows.
+         */
+        void changed(Connection connection, String tableName, Set<Long> rowIds);
+    }
+
+    private final AuditTrail.ConnectionOpener opener;
+    private final long origin;
+    private final ChangeHandler handler;
+    private final ScheduledExecutorService executor;
+
+    private Connection connection;
+    private PreparedStatement pollStatement;
+    //All the changes up to this ID have been seen. Changes after it that have been seen already are in seenAbove.
+    private long lastContiguousId = -1;
+    private final TreeSet<Long> seenAbove = new TreeSet<>();
+    //When the oldest gap in the IDs was noticed, or 0 if there is none.
+    private long gapSince;
+
+    /**
+     * @param opener Opens the connection used by the poller.
+     * @param origin The origin written by this program with its own changes. They are ignored.
+     * @param handler Receives the changes. Called on the poller thread.
+     */
+    ChangeLogPoller(AuditTrail.ConnectionOpener opener, long origin, ChangeHandler handler) {
+        this.opener = opener;
+        this.origin = origin;
+        this.handler = handler;
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "change-log-poller");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts polling. Only the changes made from now on are passed on.
+     *
+     * @param intervalMillis The time between the end of one poll and the start of the next.
+     */
+    void start(long intervalMillis) {
+        executor.scheduleWithFixedDelay(this::poll, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(2, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        closeConnection();
+    }
+
+    private void poll() {
+        try {
+            if (connection == null) {
+                connection = opener.open();
+                if (lastContiguousId < 0) {
+                    lastContiguousId = startPosition();
+                }
+                pollStatement = connection.prepareStatement(new StringBuilder()
+                        .append("SELECT ").append(ChangeLogTable.COL_ID).append(", ").append(ChangeLogTable.COL_TABLE)
+                        .append(", ").append(ChangeLogTable.COL_ROW_ID).append(", ").append(ChangeLogTable.COL_ORIGIN)
+                        .append(" FROM ").append(ChangeLogTable.TABLE_NAME)
+                        .append(" WHERE ").append(ChangeLogTable.COL_ID).append(" > ?")
+                        .append(" ORDER BY ").append(ChangeLogTable.COL_ID)
+                        .append(" LIMIT ").append(BATCH_SIZE).toString());
+            }
+
+            HashMap<String, Set<Long>> changes = new HashMap<>();
+            pollStatement.setLong(1, lastContiguousId);
+            ResultSet result = pollStatement.executeQuery();
+            while (result.next()) {
+                final long id = result.getLong(1);
+                if (seenAbove.add(id) && result.getLong(4) != origin) {
+                    changes.computeIfAbsent(result.getString(2), key -> new HashSet<>()).add(result.getLong(3));
+                }
+            }
+            advance();
+
+            for (Map.Entry<String, Set<Long>> change : changes.entrySet()) {
+                handler.changed(connection, change.getKey(), change.getValue());
+            }
+        } catch (SQLException ex) {
+            //Try again with a new connection on the next poll.
+            closeConnection();
+        } catch (RuntimeException ex) {
+            //An exception would stop the scheduled polls. The changes are lost but the next ones will be seen.
+        }
+    }
+
+    /**
+     * Moves the last contiguous ID past the IDs that have been seen. Skips a gap that has been open for too long.
+     */
+    private void advance() {
+        while (!seenAbove.isEmpty() && seenAbove.first() == lastContiguousId + 1) {
+            lastContiguousId = seenAbove.pollFirst();
+        }
+        if (seenAbove.isEmpty()) {
+            gapSince = 0;
+        } else if (gapSince == 0) {
+            gapSince = System.nanoTime();
+        } else if (System.nanoTime() - gapSince > GAP_TIMEOUT_NANOS) {
+            lastContiguousId = seenAbove.first() - 1;
+            gapSince = 0;
+            advance();
+        }
+    }
+
+    /**
+     * Deletes the rows that are older than the retention period and returns the last ID in the table.
+     */
+    private long startPosition() throws SQLException {
+        StringBuilder deleteQuery = new StringBuilder()
+                .append("DELETE FROM ").append(ChangeLogTable.TABLE_NAME)
+                .append(" WHERE ").append(ChangeLogTable.COL_CHANGED_AT).append(" < ?")
+                .append(" ORDER BY ").append(ChangeLogTable.COL_CHANGED_AT)
+                .append(" LIMIT ").append(BATCH_SIZE);
+        try (PreparedStatement delete = connection.prepareStatement(deleteQuery.toString())) {
+            delete.setTimestamp(1, Timestamp.valueOf(LocalDateTime.now().minusHours(ChangeLogTable.RETENTION_HOURS)));
+            while (delete.executeUpdate() == BATCH_SIZE) {
+                //Keep deleting in small batches.
+            }
+        }
+        try (Statement statement = connection.createStatement()) {
+            ResultSet result = statement.executeQuery("SELECT MAX(" + ChangeLogTable.COL_ID + ") FROM "
+                    + ChangeLogTable.TABLE_NAME);
+            return result.next() ? result.getLong(1) : 0;
+        }
+    }
+
+    private void closeConnection() {
+        try {
+            if (pollStatement != null) {
+                pollStatement.close();
+            }
+            if (connection != null) {
+                connection.close();
+            }
+        } catch (SQLException ex) {
+            //The connection is being thrown away anyway.
+        }
+        pollStatement = null;
+        connection = null;
+    }
+}
@@ -0,0 +1,60 @@
+package database;
+
+/**
+ * The ChangeLog table tells the other programs using the same database which projects and people have changed, so that
+ * they can drop what they have cached about them. Each change adds a row in the same transaction as the change and
+ * every program reads the rows added since it last looked.
+ * <p><br>
+ * The rows are only needed for a short while and are deleted after {@link #RETENTION_HOURS} hours.
+ */
+public class ChangeLogTable {
+
+    static public final String TABLE_NAME = "ChangeLog";
+
+    static public final String COL_ID = "ID";
+    static public final String COL_TABLE = "TableName";
+    static public final int COL_TABLE_SIZE = 30;
+    static public final String COL_ROW_ID = "RowID";
+    static public final String COL_ORIGIN = "Origin";
+    static public final String COL_CHANGED_AT = "ChangedAt";
+
+    static public final int RETENTION_HOURS = 24;
+
+    /**
+     * Generates the SQL to create the ChangeLog table. New rows are read through the primary key and old ones are
+     * deleted through the index on the time of the change.
+     *
+     * @return An SQL query to insert the table into the database.
+     */
+    public static String getCreationQuery() {
+        final String padding = "  ";
+        StringBuilder query = new StringBuilder();
+        query.append("CREATE TABLE ").append(TABLE_NAME).append(" (\n")
+            .append(padding).append(COL_ID).append(" BIGINT UNSIGNED NOT NULL AUTO_INCREMENT,\n")
+            .append(padding).append(COL_TABLE).append(" VARCHAR(").append(COL_TABLE_SIZE).append(") NOT NULL,\n")
+            .append(padding).append(COL_ROW_ID).append(" INT(10) UNSIGNED NOT NULL,\n")
+            .append(padding).append(COL_ORIGIN).append(" BIGINT NOT NULL,\n")
+            .append(padding).append(COL_CHANGED_AT).append(" DATETIME DEFAULT CURRENT_TIMESTAMP NOT NULL,\n")
+            .append(padding).append("PRIMARY KEY (").append(COL_ID).append("),\n")
+            .append(padding).append("INDEX ").append(TABLE_NAME).append("_ChangedAt_idx (").append(COL_CHANGED_AT).append(")\n")
+            .append(")");
+        return query.toString();
+    }
+
+    /**
+     * Generates a multi-row INSERT for the given number of changes. Each change has three parameters: the table name,
+     * the row ID and the origin.
+     *
+     * @param rowCount The number of rows to insert.
+     * @return An SQL query with {@code 3 * rowCount} parameters for use in a PreparedStatement.
+     */
+    public static String getInsertQuery(int rowCount) {
+        StringBuilder query = new StringBuilder();
+        query.append("INSERT INTO ").append(TABLE_NAME).append(" (")
+            .append(COL_TABLE).append(", ").append(COL_ROW_ID).append(", ").append(COL_ORIGIN).append(") VALUES ");
+        for (int i = 0; i < rowCount; i++) {
+            query.append(i == 0 ? "(?, ?, ?)" : ", (?, ?, ?)");
+        }
+        return query.toString();
+    }
+}
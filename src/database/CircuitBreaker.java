@@ -0,0 +1,127 @@
+package database;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Stops sending one kind of operation to the database after it has failed several times in a row, so that the user
+ * gets an immediate error instead of waiting for a timeout on every action while the database is down.
+ * <ul>
+ *     <li>CLOSED: statements are run as normal. {@link #FAILURE_THRESHOLD} failures in a row open the breaker.</li>
+ *     <li>OPEN: statements fail straight away with a {@link CircuitOpenException}. After {@link #OPEN_NANOS} the
+ *     breaker lets a single trial statement through (HALF_OPEN).</li>
+ *     <li>HALF_OPEN: the trial statement closes the breaker again if it succeeds and re-opens it if it fails.</li>
+ * </ul>
+ * Only failures that point to a problem with the database or the connection count. Errors caused by the statement
+ * itself (e.g. a constraint violation) and queries cancelled by the user don't.
+ */
+class CircuitBreaker {
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    static final int FAILURE_THRESHOLD = 3;
+    static final long OPEN_NANOS = TimeUnit.SECONDS.toNanos(15);
+
+    private final String name;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialRunning;
+    //The number of times the breaker has changed to each state, indexed by State.ordinal().
+    private final AtomicLongArray transitions = new AtomicLongArray(State.values().length);
+
+    CircuitBreaker(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Called before a statement is run.
+     *
+     * @throws CircuitOpenException If the breaker is open (or a trial statement is already running).
+     */
+    synchronized void beforeCall() throws CircuitOpenException {
+        if (state == State.OPEN) {
+            final long waited = System.nanoTime() - openedAt;
+            if (waited < OPEN_NANOS) {
+                throw new CircuitOpenException(name, TimeUnit.NANOSECONDS.toSeconds(OPEN_NANOS - waited) + 1);
+            }
+            changeState(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialRunning) {
+                throw new CircuitOpenException(name, 1);
+            }
+            trialRunning = true;
+        }
+    }
+
+    synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        trialRunning = false;
+        if (state != State.CLOSED) {
+            changeState(State.CLOSED);
+        }
+    }
+
+    /**
+     * Called when a statement throws.
+     *
+     * @param ex The exception thrown by the driver.
+     */
+    synchronized void onFailure(SQLException ex) {
+        trialRunning = false;
+        if (!isDatabaseFailure(ex)) {
+            //The database answered, so it's working.
+            onSuccess();
+            return;
+        }
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= FAILURE_THRESHOLD) {
+            openedAt = System.nanoTime();
+            if (state != State.OPEN) {
+                changeState(State.OPEN);
+            }
+        }
+    }
+
+    /**
+     * Called when a statement ended without telling whether the database works (a bug rather than an SQL error).
+     */
+    synchronized void onAborted() {
+        trialRunning = false;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return The number of times the breaker changed to the given state.
+     */
+    long getTransitionCount(State to) {
+        return transitions.get(to.ordinal());
+    }
+
+    private void changeState(State newState) {
+        state = newState;
+        transitions.incrementAndGet(newState.ordinal());
+    }
+
+    private static boolean isDatabaseFailure(SQLException ex) {
+        final String sqlState = ex.getSQLState();
+        return ex instanceof SQLTimeoutException
+                || ex instanceof SQLTransientConnectionException
+                || ex instanceof SQLNonTransientConnectionException
+                || ex instanceof SQLRecoverableException
+                //SQL state class 08: connection exception.
+                || (sqlState != null && sqlState.startsWith("08"));
+    }
+}
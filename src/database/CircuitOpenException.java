@@ -0,0 +1,17 @@
+package database;
+
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * Thrown instead of running a statement while the {@link CircuitBreaker} for its kind of operation is open. It reaches
+ * the program as the cause of a {@link DatabaseException}. The connection is fine; the statement can be tried again
+ * later.
+ */
+public class CircuitOpenException extends SQLTransientConnectionException {
+    private static final long serialVersionUID = 1L;
+
+    CircuitOpenException(String operation, long retryInSeconds) {
+        super("The database isn't responding to " + operation + " operations. Trying again in " + retryInSeconds
+                + " seconds.");
+    }
+}
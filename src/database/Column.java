@@ -0,0 +1,75 @@
+package database;
+
+/**
+ * A column of one of the tables, with the Java type of its values. The comparisons create {@link Predicate}s with the
+ * value as a parameter, so the SQL they render is the same whatever the value is.
+ *
+ * @param <T> The type of the values, as bound with {@code PreparedStatement.setObject}.
+ */
+public final class Column<T> {
+    private final String table;
+    private final String name;
+    private final Class<T> type;
+
+    public Column(String table, String name, Class<T> type) {
+        this.table = table;
+        this.name = name;
+        this.type = type;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * @return The column name qualified with the table name, e.g. {@code Projects.Num}.
+     */
+    public String qualifiedName() {
+        return table + '.' + name;
+    }
+
+    public Predicate eq(T value) {
+        return compare(" = ", value);
+    }
+
+    public Predicate ne(T value) {
+        return compare(" != ", value);
+    }
+
+    public Predicate lt(T value) {
+        return compare(" < ", value);
+    }
+
+    public Predicate gt(T value) {
+        return compare(" > ", value);
+    }
+
+    public Predicate isNull() {
+        return new Predicate(qualifiedName() + " IS NULL");
+    }
+
+    public Predicate isNotNull() {
+        return new Predicate(qualifiedName() + " IS NOT NULL");
+    }
+
+    private Predicate compare(String operator, T value) {
+        if (value == null) {
+            //"= NULL" is never true. Use isNull() instead.
+            throw new IllegalArgumentException("Can't compare " + qualifiedName() + " with null.");
+        }
+        return new Predicate(qualifiedName() + operator + '?', value);
+    }
+
+    @Override
+    public String toString() {
+        return qualifiedName();
+    }
+}
@@ -0,0 +1,70 @@
+package database;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds the positions of a fixed list of columns in a result set so that the rows can be read by position instead of
+ * by name. Reading by name makes the driver look the name up for every field of every row.
+ * <p><br>
+ * The positions only depend on the columns the query returns, so they are worked out once for each list of column
+ * labels and reused for every later result set with the same columns.
+ */
+final class ColumnPositions {
+    private final String[] columns;
+    private final ConcurrentHashMap<List<String>, int[]> positionsByShape = new ConcurrentHashMap<>();
+
+    /**
+     * @param columns The columns that are read. {@link #resolve} returns their positions in this order.
+     */
+    ColumnPositions(String... columns) {
+        this.columns = columns.clone();
+    }
+
+    /**
+     * Returns the positions of the columns in the given result set.
+     *
+     * @param resultSet The result set the rows will be read from.
+     * @return The 1-based position of each column, in the order the columns were given. Do not change the array.
+     * @throws SQLException If a column is not in the result set or the metadata can't be read.
+     */
+    int[] resolve(ResultSet resultSet) throws SQLException {
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        String[] labels = new String[metaData.getColumnCount()];
+        for (int i = 0; i < labels.length; i++) {
+            //Column names are not case-sensitive, like ResultSet.findColumn.
+            labels[i] = metaData.getColumnLabel(i + 1).toLowerCase();
+        }
+        final List<String> shape = Arrays.asList(labels);
+
+        int[] positions = positionsByShape.get(shape);
+        if (positions == null) {
+            positions = positionsIn(labels);
+            positionsByShape.putIfAbsent(shape, positions);
+        }
+        return positions;
+    }
+
+    private int[] positionsIn(String[] labels) throws SQLException {
+        HashMap<String, Integer> byLabel = new HashMap<>();
+        for (int i = labels.length - 1; i >= 0; i--) {
+            //Iterated backwards so that the first of two columns with the same label wins, like findColumn.
+            byLabel.put(labels[i], i + 1);
+        }
+        int[] positions = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            Integer position = byLabel.get(columns[i].toLowerCase());
+            if (position == null) {
+                throw new SQLException("The result set has no column " + columns[i] + ". Columns: "
+                        + String.join(", ", labels));
+            }
+            positions[i] = position;
+        }
+        return positions;
+    }
+}
@@ -2,10 +2,20 @@ package database;
 
 import MainProgram.*;
 
-import java.math.BigDecimal;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.*;
 import java.sql.Date;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class is meant to be the single touch point to reach the database. It is therefore modelled using the \
@@ -15,6 +25,59 @@ public class DataSource {
     private DatabaseCredentials credentials;
     private Connection connection;
 
+    //Prepared UPDATE statements for the Projects table, keyed by the dirty mask of the changed fields.
+    private final HashMap<Integer, PreparedStatement> updateStatements = new HashMap<>();
+
+    //Records the before and after values of every change. Null until the database has been initialised.
+    private AuditTrail auditTrail;
+
+    //Recent project listings. Invalidated through tableChanged whenever the tables they read are changed.
+    private final QueryCache<ProjectSummary> summaryCache = new QueryCache<>();
+
+    //How far the server's clock (in its own time zone) is ahead of this computer's, so that the cached listings that
+    //use CURDATE() can be dropped when the server's date changes. Updated each time the server's time is read.
+    private volatile long serverClockOffsetMillis;
+
+    //Identifies the rows this program adds to the change log, so the poller can skip its own changes.
+    private final long changeLogOrigin = new Random().nextLong();
+
+    //Reads the changes made by other programs. Null unless startChangeLogPolling has been called.
+    private ChangeLogPoller changeLogPoller;
+
+    //The deadline scheduler's queries run on their own connection so that its background reads never end up in a
+    //transaction the CLI has open on the main connection. Opened when first needed. Guarded by deadlineLock.
+    private final Object deadlineLock = new Object();
+    private Connection deadlineConnection;
+
+    //Notified after each change to a project record.
+    private final List<ProjectChangeListener> projectChangeListeners = new CopyOnWriteArrayList<>();
+
+    //In-memory index used to answer person searches. Null until buildPersonSearchIndex has been called.
+    private volatile PersonSearchIndex personIndex;
+
+    //IDs of the people added or edited while the search index is being built. Null when no build is running.
+    private final Object personIndexLock = new Object();
+    private Set<Long> changedDuringIndexBuild;
+
+    //The type-ahead person search that is currently running so that it can be cancelled from another thread.
+    private volatile Statement inFlightPersonSearch;
+
+    //Each kind of operation has its own circuit breaker and bulkhead so that a failing or slow kind doesn't hold up
+    //the others. Used by all the statements created on the main connection.
+    private final EnumMap<OperationClass, CircuitBreaker> circuitBreakers = new EnumMap<>(OperationClass.class);
+    private final EnumMap<OperationClass, Bulkhead> bulkheads = new EnumMap<>(OperationClass.class);
+
+    //Statement counts, latencies and rows per DataSource method. Served by the metrics endpoint.
+    private final DatabaseMetrics metrics = new DatabaseMetrics();
+
+    //The number of connections opened by openConnection that are still open.
+    private final AtomicInteger openExtraConnections = new AtomicInteger();
+
+    //The statements created on the main connection that haven't been garbage collected, so that a running one can be
+    //cancelled from another thread.
+    private final Set<Statement> mainConnectionStatements =
+            Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
     // Singleton pattern (instance, instance-getter & private constructor)
     //-----
     private static DataSource instance;
@@ -47,6 +110,11 @@ public class DataSource {
      */
     private DataSource(DatabaseCredentials credentials)  {
         this.credentials = credentials;
+        for (OperationClass operation : OperationClass.values()) {
+            final String name = operation.name().toLowerCase();
+            circuitBreakers.put(operation, new CircuitBreaker(name));
+            bulkheads.put(operation, new Bulkhead(name, operation.getMaxConcurrent(), operation.getMaxWaitMillis()));
+        }
         int retryCounter = 0;
         boolean success = false;
         while(!success) {
@@ -79,6 +147,122 @@ public class DataSource {
     }
     //---End of Singleton pattern---
 
+    /**
+     * Loads the JDBC drivers. Registering the drivers takes a noticeable part of the start-up time, so this can be
+     * called in the background while the user is still typing in the connection details.
+     */
+    public static void loadDrivers() {
+        DriverManager.getDrivers();
+    }
+
+    /**
+     * Opens an extra connection to the program's database for work that runs in the background alongside the main
+     * connection. The caller must close it.
+     *
+     * @return A new connection with the program's database as the default schema.
+     * @throws SQLException If the connection could not be established.
+     */
+    private Connection openConnection() throws SQLException {
+        Connection extraConnection = DriverManager.getConnection(
+                credentials.getConnectionURL(),
+                credentials.getUser(), credentials.getPassword()
+        );
+        try {
+            extraConnection.setCatalog(credentials.getDatabase());
+        } catch (SQLException ex) {
+            extraConnection.close();
+            throw ex;
+        }
+        return countOpen(extraConnection);
+    }
+
+    /**
+     * Wraps an extra connection so that it is counted in {@code openExtraConnections} until it is closed.
+     */
+    private Connection countOpen(Connection extraConnection) {
+        openExtraConnections.incrementAndGet();
+        final AtomicBoolean closed = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(DataSource.class.getClassLoader(),
+                new Class<?>[] {Connection.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("close") && closed.compareAndSet(false, true)) {
+                        openExtraConnections.decrementAndGet();
+                    }
+                    try {
+                        return method.invoke(extraConnection, args);
+                    } catch (InvocationTargetException ex) {
+                        throw ex.getCause();
+                    }
+                });
+    }
+
+    /**
+     * Registers a listener to be told about every project that is added, changed or deleted.
+     *
+     * @param listener The listener to add.
+     */
+    public void addProjectChangeListener(ProjectChangeListener listener) {
+        projectChangeListeners.add(listener);
+    }
+
+    public void removeProjectChangeListener(ProjectChangeListener listener) {
+        projectChangeListeners.remove(listener);
+    }
+
+    private void notifyProjectChanged(long projectNumber) {
+        //The listeners may read the project again, so the cached listings must be stale by then.
+        summaryCache.tableChanged(ProjectTable.TABLE_NAME);
+        for (ProjectChangeListener listener : projectChangeListeners) {
+            listener.projectChanged(projectNumber);
+        }
+    }
+
+    /**
+     * Queues a change for the audit trail. Only adds an entry to an in-memory buffer; the audit table is written in
+     * the background.
+     */
+    private void audit(String entityType, long entityId, String action, String fieldName, String oldValue,
+                       String newValue) {
+        if (auditTrail == null) {
+            return;
+        }
+        AuditEntry entry = new AuditEntry();
+        entry.changedAt = LocalDateTime.now();
+        entry.entityType = entityType;
+        entry.entityId = entityId;
+        entry.action = action;
+        entry.fieldName = fieldName;
+        entry.oldValue = oldValue;
+        entry.newValue = newValue;
+        entry.changedBy = credentials.getUser();
+        auditTrail.record(entry);
+    }
+
+    /**
+     * Converts the value of a project field to the text stored in the audit table. People are stored by ID and an
+     * unassigned person (ID 0) as NULL.
+     */
+    private static String auditValue(int field, Object value) {
+        if (value == null) {
+            return null;
+        }
+        final int personFields = Project.FIELD_CUSTOMER | Project.FIELD_ENGINEER | Project.FIELD_PROJ_MANAGER
+                | Project.FIELD_ARCHITECT;
+        if ((field & personFields) != 0 && ((Long) value) == 0) {
+            return null;
+        }
+        return value.toString();
+    }
+
+    private static String getPersonField(Person person, String column) {
+        return switch (column) {
+            case PersonTable.COL_FIRST_NAME -> person.firstName;
+            case PersonTable.COL_SURNAME -> person.surname;
+            case PersonTable.COL_EMAIL -> person.email;
+            case PersonTable.COL_PHYS_ADDR -> person.address;
+            default -> null;
+        };
+    }
+
     /**
      * Checks if the correct database schema exists by querying the information schema.
      *
@@ -113,80 +297,214 @@ public class DataSource {
     }
 
     /**
-     * Helper method. Creates the database schema if required and set it as default. Then creates and initialises the
-     * books table if required.
+     * Helper method. Creates the database schema if required and set it as default. Then creates and upgrades the
+     * tables if required.
+     * <p><br>
+     * The normal start-up only costs two round trips: the {@code USE} statement and a primary key read of the stored
+     * schema version. The information schema is only consulted when the database is missing or the stored version is
+     * different from the one this program expects.
      *
-     * @throws SQLException If an error occurs with the database connection.
+     * @throws DatabaseException If an error occurs with the database connection.
      */
     public void initialiseDatabase() throws DatabaseException {
-        if (!databaseExists()) {
-            createDatabase();   
+        //Set the default database. It will only fail if the database doesn't exist yet (or the user may not use it).
+        try(Statement statement = connection.createStatement()) {
+            statement.executeUpdate("USE " + credentials.getDatabase());
+        } catch (SQLException ex) {
+            if (!databaseExists()) {
+                createDatabase();
+            }
+            try(Statement statement = connection.createStatement()) {
+                statement.executeUpdate("USE " + credentials.getDatabase());
+            } catch (SQLException retryEx) {
+                throw new DatabaseException("Database error while setting the default schema", retryEx);
+            }
         }
 
-        //Set the default database.
-        try(Statement statement = connection.createStatement()) {
-           statement.executeUpdate("USE " + credentials.getDatabase());
+        int storedVersion = getSchemaVersion();
+        if (storedVersion != SchemaInfoTable.CURRENT_VERSION) {
+            if (storedVersion > SchemaInfoTable.CURRENT_VERSION) {
+                throw new DatabaseException("The database schema (version " + storedVersion
+                        + ") is newer than this program supports (version " + SchemaInfoTable.CURRENT_VERSION + ")");
+            }
+            checkAndInitialiseTables(storedVersion);
+            setSchemaVersion(SchemaInfoTable.CURRENT_VERSION);
+        }
+
+        auditTrail = new AuditTrail(this::openConnection);
+
+        //Sets serverClockOffsetMillis before the first listing is cached.
+        try {
+            versionTimestamp();
         } catch (SQLException ex) {
-            throw new DatabaseException("Database error while setting the default schema", ex);
+            throw new DatabaseException("Database error while reading the server's time", ex);
         }
+    }
 
+    /**
+     * Reads the schema version stored in the SchemaInfo table.
+     *
+     * @return The stored version or 0 if the table doesn't exist yet (a new database or one created before the
+     * version was tracked).
+     * @throws DatabaseException If a database error occurs.
+     */
+    private int getSchemaVersion() throws DatabaseException {
+        try (Statement statement = connection.createStatement()) {
+            ResultSet result = statement.executeQuery(SchemaInfoTable.getVersionQuery());
+            return result.next() ? result.getInt(1) : 0;
+        } catch (SQLException ex) {
+            //SQL state 42S02: base table or view not found.
+            if ("42S02".equals(ex.getSQLState())) {
+                return 0;
+            }
+            throw new DatabaseException("Database error while reading the schema version", ex);
+        }
+    }
 
-        checkAndInitialiseTables();
+    private void setSchemaVersion(int version) throws DatabaseException {
+        try (PreparedStatement statement = connection.prepareStatement(SchemaInfoTable.getVersionUpdateQuery())) {
+            statement.setInt(1, version);
+            statement.executeUpdate();
+        } catch (SQLException ex) {
+            throw new DatabaseException("Database error while storing the schema version", ex);
+        }
     }
 
     /**
      * Brings the database into a valid state during the first run. Checks if each of the required tables exists
      * and creates them with their starting data.
      *
-     * The tables are added in the correct order according to their dependency on one another.
+     * The tables are added in the correct order according to their dependency on one another. Tables that exist but
+     * were created by an older version of the program are upgraded. Each upgrade step first checks the information
+     * schema, so an upgrade that failed part of the way can simply be run again.
      *
+     * @param storedVersion The schema version stored in the database (0 if none was stored).
      * @throws DatabaseException If a database error occurs during the process.
      */
-    private void checkAndInitialiseTables() throws DatabaseException{
+    private void checkAndInitialiseTables(int storedVersion) throws DatabaseException{
         //The order of the tables in this method is important.
-        // The Projects table must be last because it depends on the others.
+        // The Projects table must come after the tables it depends on.
+        Set<String> existingTables = getExistingTables(StatusTable.TABLE_NAME, PersonTable.TABLE_NAME,
+                ProjectTypeTable.TABLE_NAME, ProjectTable.TABLE_NAME, ProjectHistoryTable.TABLE_NAME,
+                ProjectArchiveTable.TABLE_NAME, PaymentTable.TABLE_NAME, AuditTable.TABLE_NAME,
+                ChangeLogTable.TABLE_NAME, SchemaInfoTable.TABLE_NAME);
 
-        if (!tableExists(StatusTable.TABLE_NAME)){
+        if (!existingTables.contains(StatusTable.TABLE_NAME.toLowerCase())){
             executeUpdate(StatusTable.getCreationQuery());
             executeBatchInsert(StatusTable.getInitialDataQueries());
         }
 
-        if (!tableExists(PersonTable.TABLE_NAME)){
+        if (!existingTables.contains(PersonTable.TABLE_NAME.toLowerCase())){
             executeUpdate(PersonTable.getCreationQuery());
             executeBatchInsert(PersonTable.getInitialDataQueries());
         }
 
-        if (!tableExists(ProjectTypeTable.TABLE_NAME)){
+        if (!existingTables.contains(ProjectTypeTable.TABLE_NAME.toLowerCase())){
             executeUpdate(ProjectTypeTable.getCreationQuery());
             executeBatchInsert(ProjectTypeTable.getInitialDataQueries());
         }
 
-        if (!tableExists(ProjectTable.TABLE_NAME)){
+        if (!existingTables.contains(ProjectTable.TABLE_NAME.toLowerCase())){
             executeUpdate(ProjectTable.getCreationQuery());
             executeBatchInsert(ProjectTable.getInitialDataQueries());
+        } else if (storedVersion < 4
+                && !existsInSchema("columns", "column_name", ProjectTable.TABLE_NAME, ProjectTable.COL_VALID_FROM)) {
+            //Created before the project history was kept (schema version 4).
+            executeUpdate(ProjectTable.getAddValidFromQuery());
+        }
+        if (existingTables.contains(ProjectTable.TABLE_NAME.toLowerCase()) && storedVersion < 5
+                && !existsInSchema("statistics", "index_name", ProjectTable.TABLE_NAME,
+                        ProjectTable.STATUS_INDEX_NAME)) {
+            //Created before finalised projects were archived (schema version 5).
+            executeUpdate(ProjectTable.getAddStatusIndexQuery());
+        }
+
+        if (!existingTables.contains(ProjectHistoryTable.TABLE_NAME.toLowerCase())){
+            executeUpdate(ProjectHistoryTable.getCreationQuery());
+        }
+
+        if (!existingTables.contains(ProjectArchiveTable.TABLE_NAME.toLowerCase())){
+            executeUpdate(ProjectArchiveTable.getCreationQuery());
+        }
+
+        //Also moves the amounts already paid into the ledger as opening balances when an older database is upgraded.
+        if (!existingTables.contains(PaymentTable.TABLE_NAME.toLowerCase())){
+            executeUpdate(PaymentTable.getCreationQuery());
+            executeBatchInsert(PaymentTable.getInitialDataQueries());
+        } else if (storedVersion < 5
+                && existsInSchema("table_constraints", "constraint_name", PaymentTable.TABLE_NAME,
+                        PaymentTable.PROJECT_FOREIGN_KEY_NAME)) {
+            //The payments of archived projects must outlive their row in the Projects table.
+            executeUpdate(PaymentTable.getDropProjectForeignKeyQuery());
+        }
+
+        if (!existingTables.contains(AuditTable.TABLE_NAME.toLowerCase())){
+            executeUpdate(AuditTable.getCreationQuery());
+        }
+
+        if (!existingTables.contains(ChangeLogTable.TABLE_NAME.toLowerCase())){
+            executeUpdate(ChangeLogTable.getCreationQuery());
+        }
+
+        if (!existingTables.contains(SchemaInfoTable.TABLE_NAME.toLowerCase())){
+            executeUpdate(SchemaInfoTable.getCreationQuery());
         }
     }
 
     /**
-     * Checks to see if a table of the given name exists in the current database. This method assumes the database
-     * already exists. An SQL Exception will be thrown if the database doesn't exist yet.
+     * Checks which of the given tables exist in the current database with a single query to the information schema.
+     * This method assumes the database already exists.
      *
-     * @return {@code true} if the database table exists.
-     * @throws SQLException If an error occurs with the database connection or the database doesn't exist yet.
+     * @param tableNames The tables to look for.
+     * @return The names of the tables that exist, in lower case.
+     * @throws DatabaseException If an error occurs with the database connection or the database doesn't exist yet.
      */
-    private boolean tableExists(String tableName) throws DatabaseException{
+    private Set<String> getExistingTables(String... tableNames) throws DatabaseException{
         StringBuilder queryBuilder = new StringBuilder();
-        queryBuilder.append("SELECT * FROM information_schema.tables WHERE table_schema = '")
-                .append(credentials.getDatabase()).append("' AND table_name = '")
-                .append(tableName).append("';");
-        boolean success = false;
-        try (Statement statement = connection.createStatement()) {
-            ResultSet result = statement.executeQuery(queryBuilder.toString());
-            success = result.next();
+        queryBuilder.append("SELECT table_name FROM information_schema.tables WHERE table_schema = ? AND table_name IN (");
+        for (int i = 0; i < tableNames.length; i++) {
+            queryBuilder.append(i == 0 ? "?" : ", ?");
+        }
+        queryBuilder.append(')');
+        HashSet<String> answer = new HashSet<>();
+        try (PreparedStatement statement = connection.prepareStatement(queryBuilder.toString())) {
+            statement.setString(1, credentials.getDatabase());
+            for (int i = 0; i < tableNames.length; i++) {
+                statement.setString(i + 2, tableNames[i]);
+            }
+            ResultSet result = statement.executeQuery();
+            while (result.next()) {
+                answer.add(result.getString(1).toLowerCase());
+            }
         } catch (SQLException ex) {
             throw new DatabaseException("Database error while checking if the required tables exist", ex);
         }
-        return success;
+        return answer;
+    }
+
+    /**
+     * Checks if a column, index or constraint exists on a table of the current database.
+     *
+     * @param view The information schema view to look in, e.g. {@code columns}.
+     * @param nameColumn The column of the view with the name of the object, e.g. {@code column_name}.
+     * @param tableName The table the object belongs to.
+     * @param name The name of the object.
+     * @return {@code true} if the object exists.
+     * @throws DatabaseException If a database error occurs.
+     */
+    private boolean existsInSchema(String view, String nameColumn, String tableName, String name)
+            throws DatabaseException {
+        StringBuilder query = new StringBuilder()
+                .append("SELECT 1 FROM information_schema.").append(view)
+                .append(" WHERE table_schema = ? AND table_name = ? AND ").append(nameColumn).append(" = ? LIMIT 1");
+        try (PreparedStatement statement = connection.prepareStatement(query.toString())) {
+            statement.setString(1, credentials.getDatabase());
+            statement.setString(2, tableName);
+            statement.setString(3, name);
+            return statement.executeQuery().next();
+        } catch (SQLException ex) {
+            throw new DatabaseException("Database error while checking the database schema", ex);
+        }
     }
 
     private int executeUpdate(String sql) throws DatabaseException{
@@ -217,257 +535,805 @@ public class DataSource {
     }
 
     /**
-     * Helper method that searches for project with a custom WHERE clause that must have an unsafe String applied as a
-     * parameter. Use this when handling a search term received from the user.
-     *
-     * @param whereClause The WHERE clause to use (should not end with a ';')
-     * @param stringParameters An array of string parameters that may be unsafe in terms of SQL injection.
-     * @return A list of result (Project objects)
-     * @throws DatabaseException If a database error occurs.
+     * Prepares a statement from the {@link SqlCatalog}. Bind its parameters through the shape.
      */
-    private List<Project> getProjectsByStringSearch(String whereClause, String[] stringParameters) throws DatabaseException{
-        ArrayList<Project> answer = new ArrayList<>();
-        StringBuilder query = new StringBuilder();
-        query.append("SELECT * FROM ").append(ProjectTable.TABLE_NAME);
-        if (whereClause != null) {
-            query.append(' ').append(whereClause);
-        }
-        try (PreparedStatement statement = connection.prepareStatement(query.toString())) {
-            for (int i = 0; i < stringParameters.length; ++i) {
-                statement.setString(i + 1, stringParameters[i]);
-            }
-            ResultSet results = statement.executeQuery();
-            answer.addAll(getListOfProjectsFromResultSet(results));
-        } catch (SQLException ex) {
-            throw new DatabaseException("Database error while searching for projects", ex);
-        }
-        return answer;
+    private PreparedStatement prepare(OperationClass operation, SqlCatalog.Shape shape) throws SQLException {
+        return prepare(operation, shape.sql());
     }
 
     /**
-     * Helper method that searches for project with a custom WHERE clause.
+     * Prepares a statement on the main connection with the query timeout of the given kind of operation. The
+     * statement is run through the circuit breaker and bulkhead of the operation.
      *
-     * @param whereClause The WHERE clause to use (should not end with a ';')
-     * @return A list of result (Project objects)
-     * @throws DatabaseException If a database error occurs.
+     * @param operation The kind of operation the statement is used for.
+     * @param sql The SQL of the statement.
+     * @return The prepared statement.
+     * @throws SQLException If the statement could not be prepared.
      */
-    private List<Project> getProjectsBySearch(String whereClause) throws DatabaseException {
-        ArrayList<Project> answer = new ArrayList<>();
-        StringBuilder query = new StringBuilder();
-        query.append("SELECT * FROM ").append(ProjectTable.TABLE_NAME);
-        if (whereClause != null) {
-            query.append(' ').append(whereClause);
-        }
-        try(Statement statement = connection.createStatement()) {
-            ResultSet results = statement.executeQuery(query.toString());
-            answer.addAll(getListOfProjectsFromResultSet(results));
-        } catch (SQLException ex) {
-            throw new DatabaseException("Database error while searching for projects", ex);
-        }
-
-        return answer;
+    private PreparedStatement prepare(OperationClass operation, String sql) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        return track(GuardedStatement.wrap(statement, sql, operation, bulkheads.get(operation),
+                circuitBreakers.get(operation), metrics), operation);
     }
 
     /**
-     * Fetch a project from the database based on its project number.
-     *
-     * @param number The project number
-     * @return A Project object
-     * @throws DatabaseException If a Database error occurs.
+     * The same as {@link #prepare(OperationClass, String)} for an INSERT that returns the generated keys.
      */
-    public Project getProjectByNumber(long number) throws DatabaseException {
-        StringBuilder whereClause  = new StringBuilder();
-        whereClause.append("WHERE ").append(ProjectTable.COL_NUMBER).append(" = ").append(number);
-        ArrayList<Project> output = new ArrayList<>(getProjectsBySearch(whereClause.toString()));
-        if (output.size() > 1) {
-            throw new DatabaseException("Could not find Project number " + number + ". Query returned multiple values.");
-        } else if (output.isEmpty()) {
-            throw new DatabaseException("Could not find Project number " + number + ".");
-        } else {
-            return output.get(0);
-        }
+    private PreparedStatement prepare(OperationClass operation, String sql, int autoGeneratedKeys) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql, autoGeneratedKeys);
+        return track(GuardedStatement.wrap(statement, sql, operation, bulkheads.get(operation),
+                circuitBreakers.get(operation), metrics), operation);
     }
 
     /**
-     * Returns a  list of all projects
-     *
-     * @return A list of all project.
-     * @throws DatabaseException If a database error occurs.
+     * Creates a statement on the main connection with the query timeout of the given kind of operation.
      */
-    private List<Project> getAllProjects() throws DatabaseException{
-        return getProjectsBySearch(null);
+    private Statement createStatement(OperationClass operation) throws SQLException {
+        Statement statement = connection.createStatement();
+        return track(GuardedStatement.wrap(statement, operation, bulkheads.get(operation),
+                circuitBreakers.get(operation), metrics), operation);
     }
 
     /**
-     * Returns a list of all projects that have not been finalised, whose deadline date is either NULL or in the future.
-     * @return A list of currently active and not overdue projects.
-     * @throws DatabaseException If a database error occurs
+     * Prepares a statement on one of the connections opened for background work (see {@link #openConnection()}).
+     * Like the statements of the main connection it has the query timeout of its kind of operation and runs through
+     * the operation's circuit breaker and bulkhead, so the background work and the user's own queries share the same
+     * limits on the database. It isn't cancelled by {@link #cancelRunningStatements()}.
      */
-    public List<Project>getCurrentProjects() throws DatabaseException{
-        StringBuilder whereClause = new StringBuilder();
-        whereClause.append("WHERE (").append(ProjectTable.COL_DEADLINE).append(" IS NULL OR ")
-                .append(ProjectTable.COL_DEADLINE).append(" > CURDATE()) AND ").append(ProjectTable.COL_STATUS)
-                .append(" < ").append(ProjectStatus.FINAL.id());
-        return getProjectsBySearch(whereClause.toString());
+    private PreparedStatement prepareOn(Connection otherConnection, OperationClass operation, String sql)
+            throws SQLException {
+        PreparedStatement statement = otherConnection.prepareStatement(sql);
+        statement.setQueryTimeout(operation.getTimeoutSeconds());
+        return GuardedStatement.wrap(statement, sql, operation, bulkheads.get(operation),
+                circuitBreakers.get(operation), metrics);
     }
 
     /**
-     * Return a list of the projects that are not finalised and whose deadline date is before the current date.
-     *
-     * @return List of overdue projects
-     * @throws DatabaseException If a database error occurs.
+     * Runs a plain statement of a background connection through the circuit breaker and bulkhead of its kind of
+     * operation, like {@link #prepareOn}. The query timeout is left to the caller.
      */
-    public List<Project>getOverdueProjects() throws DatabaseException{
-        StringBuilder whereClause = new StringBuilder();
-        whereClause.append("WHERE ").append(ProjectTable.COL_DEADLINE).append(" < CURDATE() AND ")
-                .append(ProjectTable.COL_STATUS).append(" < ").append(ProjectStatus.FINAL.id());
-        return getProjectsBySearch(whereClause.toString());
+    private Statement guardOn(Statement statement, OperationClass operation) {
+        return GuardedStatement.wrap(statement, operation, bulkheads.get(operation), circuitBreakers.get(operation),
+                metrics);
     }
 
-    public List<Project> getProjectsByName(String searchTerm) throws DatabaseException {
-        return getProjectsByString(searchTerm, ProjectTable.COL_PROJECT_NAME);
+    private <T extends Statement> T track(T statement, OperationClass operation) throws SQLException {
+        statement.setQueryTimeout(operation.getTimeoutSeconds());
+        mainConnectionStatements.add(statement);
+        return statement;
     }
 
-    public List<Project> getProjectsByAddress (String searchTerm) throws DatabaseException {
-        return getProjectsByString(searchTerm, ProjectTable.COL_PHYS_ADDR);
+    /**
+     * @return {@code true} if the database has stopped responding to some kind of operation and those operations are
+     * failing straight away. The project listings may be out of date while this is the case.
+     */
+    public boolean isDegraded() {
+        for (CircuitBreaker breaker : circuitBreakers.values()) {
+            if (breaker.getState() != CircuitBreaker.State.CLOSED) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Helper method for finding project by searching for a search string in a specified column. The search is
-     * hardened against SQL injection so this method may accept user input.
-     * <p>
-     * Used by {@code getProjectsByName} and {@code getProjectsByAddress} above.
+     * Writes the database metrics in the Prometheus text format: the statement latencies, errors and rows per method,
+     * the query cache hits, the circuit breakers and the use of the connections.
      *
-     * @param searchTerm The string to
-     * @param column The name of the column to search in
-     * @return A list of projects that match the search criteria.
-     * @throws DatabaseException If a database error occurs or the search column supplied is not in the Projects table.
+     * @param out Where to write the metrics.
      */
-    private List<Project> getProjectsByString (String searchTerm, String column) throws DatabaseException  {
-        StringBuilder whereClause = new StringBuilder();
-        ArrayList<Project> answer;
-        //Do exact search first so that we show it at the top of the search results if the user typed a specific searchTerm
-        whereClause.append("WHERE ").append(column).append(" = ?");
-        answer = new ArrayList<>(getProjectsByStringSearch(whereClause.toString(), new String[] {searchTerm}));
+    public void writeMetrics(StringBuilder out) {
+        metrics.writeTo(out);
+
+        final long hits = summaryCache.getHitCount();
+        final long misses = summaryCache.getMissCount();
+        out.append("# HELP pms_query_cache_hits_total Project listings served from the query cache.\n");
+        out.append("# TYPE pms_query_cache_hits_total counter\n");
+        out.append("pms_query_cache_hits_total ").append(hits).append('\n');
+        out.append("# HELP pms_query_cache_misses_total Project listings that had to be queried.\n");
+        out.append("# TYPE pms_query_cache_misses_total counter\n");
+        out.append("pms_query_cache_misses_total ").append(misses).append('\n');
+        out.append("# HELP pms_query_cache_hit_ratio Share of the project listings served from the query cache.\n");
+        out.append("# TYPE pms_query_cache_hit_ratio gauge\n");
+        out.append("pms_query_cache_hit_ratio ").append(hits + misses == 0 ? 0 : (double) hits / (hits + misses))
+                .append('\n');
+
+        out.append("# HELP pms_circuit_breaker_open Whether the circuit breaker of each operation class is not closed.\n");
+        out.append("# TYPE pms_circuit_breaker_open gauge\n");
+        for (Map.Entry<OperationClass, CircuitBreaker> entry : circuitBreakers.entrySet()) {
+            out.append("pms_circuit_breaker_open{class=\"").append(entry.getKey().name().toLowerCase()).append("\"} ")
+                    .append(entry.getValue().getState() == CircuitBreaker.State.CLOSED ? 0 : 1).append('\n');
+        }
+        out.append("# HELP pms_circuit_breaker_transitions_total State changes of each circuit breaker.\n");
+        out.append("# TYPE pms_circuit_breaker_transitions_total counter\n");
+        for (Map.Entry<OperationClass, CircuitBreaker> entry : circuitBreakers.entrySet()) {
+            for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+                out.append("pms_circuit_breaker_transitions_total{class=\"")
+                        .append(entry.getKey().name().toLowerCase()).append("\",to=\"")
+                        .append(state.name().toLowerCase()).append("\"} ")
+                        .append(entry.getValue().getTransitionCount(state)).append('\n');
+            }
+        }
 
-        //Then do a fuzzy search for a word in the middle of the database value
-        whereClause.setLength(0);
-        whereClause.append("WHERE ").append(column).append(" LIKE ? ESCAPE '!' ");
-        whereClause.append("AND ").append(column).append(" != ?");
-        answer.addAll(getProjectsByStringSearch(whereClause.toString(), new String[] {"%" + likeSanitize(searchTerm) + "%", searchTerm}));
-        return answer;
+        out.append("# HELP pms_db_statements_active Statements running on the main connection per operation class.\n");
+        out.append("# TYPE pms_db_statements_active gauge\n");
+        for (Map.Entry<OperationClass, Bulkhead> entry : bulkheads.entrySet()) {
+            out.append("pms_db_statements_active{class=\"").append(entry.getKey().name().toLowerCase()).append("\"} ")
+                    .append(entry.getValue().getActiveCount()).append('\n');
+        }
+        out.append("# HELP pms_db_statements_limit Statements that may run at once per operation class.\n");
+        out.append("# TYPE pms_db_statements_limit gauge\n");
+        for (OperationClass operation : bulkheads.keySet()) {
+            out.append("pms_db_statements_limit{class=\"").append(operation.name().toLowerCase()).append("\"} ")
+                    .append(operation.getMaxConcurrent()).append('\n');
+        }
+        out.append("# HELP pms_db_connections_open Open database connections, including the main one.\n");
+        out.append("# TYPE pms_db_connections_open gauge\n");
+        out.append("pms_db_connections_open ").append(openExtraConnections.get() + 1).append('\n');
     }
 
     /**
-     * Queries the database for projects where the given person is involved (regardless of their role).
+     * Returns the number of times each circuit breaker changed state, keyed by operation class and the state it
+     * changed to, e.g. {@code "search.open"}.
      *
-     * @param personToSearch The person to search for. This object must have come from one of the search/creation
-     *                       functions in this class to ensure that it has a valid database ID.
-     * @return A list of Project objects. If the query return no results, the list will be empty.
-     * @throws DatabaseException Some database error occurred (most likely an access error). Inspect the throwable
-     * contained within for more details.
+     * @return A map of the counts in a stable order.
      */
-    public List<Project> getProjectsByPerson (Person personToSearch) throws DatabaseException{
-        final long ID = personToSearch.id;
-        final String EQUALS = " = ";
-        final String OR = " OR ";
-        ArrayList<Project> answer;
-        StringBuilder query = new StringBuilder();
-        query.append("SELECT * FROM ").append(ProjectTable.TABLE_NAME).append(" WHERE ")
-                .append(ProjectTable.COL_ENGINEER).append(EQUALS).append(ID).append(OR)
-                .append(ProjectTable.COL_CUSTOMER).append(EQUALS).append(ID).append(OR)
-                .append(ProjectTable.COL_PROJ_MANAGER).append(EQUALS).append(ID).append(OR)
-                .append(ProjectTable.COL_ARCHITECT).append(EQUALS).append(ID).append(';');
-        try (Statement statement = connection.createStatement()) {
-            ResultSet result = statement.executeQuery(query.toString());
-            answer = new ArrayList<>(getListOfProjectsFromResultSet(result));
-        } catch (SQLException ex) {
-            throw new DatabaseException("Database error while searching for projects", ex);
+    public Map<String, Long> getCircuitBreakerTransitions() {
+        LinkedHashMap<String, Long> answer = new LinkedHashMap<>();
+        for (Map.Entry<OperationClass, CircuitBreaker> entry : circuitBreakers.entrySet()) {
+            for (CircuitBreaker.State state : CircuitBreaker.State.values()) {
+                answer.put(entry.getKey().name().toLowerCase() + '.' + state.name().toLowerCase(),
+                        entry.getValue().getTransitionCount(state));
+            }
         }
         return answer;
     }
 
     /**
-     * Iterates through a given ResultSet that came from the Projects table and creates a Project object from each
-     * of the rows.
-     *
-     * @param resultSet The ResultSet as it was received from the Statement, with the cursor in the default position.
-     * @return A list of project objects. If the query returned no results then the list returned will be empty.
-     * @throws SQLException If some DB access error occurs or if the ResultSet is from the wrong table (not the Project
-     * table) and thus the column names don't match.
+     * Cancels the statement that is running on the main connection, if there is one. Used to stop a query the user
+     * doesn't want to wait for any more. The method that ran it throws a {@link QueryTimeoutException}. Safe to call
+     * from any thread.
      */
-    private List<Project> getListOfProjectsFromResultSet(ResultSet resultSet) throws SQLException {
-        ArrayList<Project> answer = new ArrayList<>();
-        while (resultSet.next()) {
-            Project newProject = getProjectFromResultSet(resultSet);
-            answer.add(newProject);
+    public void cancelRunningStatements() {
+        Statement[] statements;
+        synchronized (mainConnectionStatements) {
+            statements = mainConnectionStatements.toArray(new Statement[0]);
+        }
+        for (Statement statement : statements) {
+            try {
+                //Only affects a statement that is executing.
+                if (!statement.isClosed()) {
+                    statement.cancel();
+                }
+            } catch (SQLException ex) {
+                //The statement has most likely finished already.
+            }
         }
-        return answer;
     }
 
     /**
-     * Creates a Project object from the current row of the given ResultSet. <strong>Typically, you don't call this
-     * method directly and rather call getListOfProjectsFromResultSet which in turn calls this method.</strong> This
-     * method expects the cursor to be pointing at a valid row to be in the ResultSet (not before the first row or after
-     * the last).
+     * Wraps an SQLException in a {@link QueryTimeoutException} if the query timed out or was cancelled, otherwise in a
+     * DatabaseException.
      *
-     * @param resultSet A ResultSet from a query of the Projects table with the cursor pointing at a valid row.
-     * @return A Project object created from the data in the row.
-     * @throws SQLException If some DB access error occurs or if the ResultSet is from the wrong table (not the Project
-     * table) and thus the column names don't match.
+     * @param message The message of the exception.
+     * @param ex The exception thrown by the driver.
+     * @param partialResult The results found before the error. Can be null.
+     * @return The exception to throw.
      */
-    private Project getProjectFromResultSet(ResultSet resultSet) throws SQLException{
-        Project answer = new Project(
-                resultSet.getString(ProjectTable.COL_PROJECT_NAME),
-                getProjectTypeByID(resultSet.getLong(ProjectTable.COL_TYPE)),
-                getPersonByID(resultSet.getLong(ProjectTable.COL_CUSTOMER))
-        );
+    private static DatabaseException wrapException(String message, SQLException ex, List<?> partialResult) {
+        final String sentence = message.endsWith(".") ? message : message + ".";
+        if (ex instanceof SQLTimeoutException) {
+            return new QueryTimeoutException(sentence + " The query took too long.", ex, false, partialResult);
+        }
+        //SQL state 70100: the query was cancelled.
+        if ("70100".equals(ex.getSQLState())) {
+            return new QueryTimeoutException(sentence + " The query was cancelled.", ex, true, partialResult);
+        }
+        return new DatabaseException(message, ex);
+    }
 
-        answer.number = resultSet.getLong(ProjectTable.COL_NUMBER);
-        answer.erfNum = resultSet.getInt(ProjectTable.COL_ERF);
-        answer.address = resultSet.getString(ProjectTable.COL_PHYS_ADDR);
-        answer.totalFee = resultSet.getBigDecimal(ProjectTable.COL_TOTAL_FEE);
-        answer.totalPaid = resultSet.getBigDecimal(ProjectTable.COL_TOTAL_PAID);
-        answer.engineer = getPersonByID(resultSet.getLong(ProjectTable.COL_ENGINEER));
-        answer.projectManager = getPersonByID(resultSet.getLong(ProjectTable.COL_PROJ_MANAGER));
-        answer.architect = getPersonByID(resultSet.getLong(ProjectTable.COL_ARCHITECT));
-        Date deadlineAsDate = resultSet.getDate(ProjectTable.COL_DEADLINE);
-        answer.deadline = deadlineAsDate != null ? deadlineAsDate.toLocalDate() : null;
-        answer.status = getProjectStatusByID(resultSet.getLong(ProjectTable.COL_STATUS));
+    /**
+     * The project columns shared by the Projects, ProjectHistory and ProjectsArchive tables as a comma separated list.
+     */
+    private static final String VERSIONED_COLUMNS = String.join(", ", ProjectHistoryTable.VERSIONED_COLUMN_NAMES);
 
+    /**
+     * A derived table with the version of every project that was valid at a point in time: the current row if it was
+     * already valid then, otherwise the history row whose validity covers the time. Archived projects are current
+     * rows that live in the archive. It is named after the Projects table so that the same qualified column names and
+     * WHERE clauses work on it. It takes the time as four parameters.
+     */
+    private static final String PROJECTS_AS_OF_SOURCE = new StringBuilder()
+            .append("(SELECT ").append(VERSIONED_COLUMNS).append(" FROM ").append(ProjectTable.TABLE_NAME)
+            .append(" WHERE ").append(ProjectTable.COL_VALID_FROM).append(" <= ?")
+            .append(" UNION ALL SELECT ").append(VERSIONED_COLUMNS).append(" FROM ").append(ProjectArchiveTable.TABLE_NAME)
+            .append(" WHERE ").append(ProjectTable.COL_VALID_FROM).append(" <= ?")
+            .append(" UNION ALL SELECT ").append(VERSIONED_COLUMNS).append(" FROM ").append(ProjectHistoryTable.TABLE_NAME)
+            .append(" WHERE ").append(ProjectHistoryTable.COL_VALID_TO).append(" > ? AND ")
+            .append(ProjectTable.COL_VALID_FROM).append(" <= ?) AS ").append(ProjectTable.TABLE_NAME)
+            .toString();
 
-        return answer;
-    }
+    /**
+     * A derived table with the projects in both the Projects and the ProjectsArchive table. Like
+     * {@code PROJECTS_AS_OF_SOURCE} it is named after the Projects table so that the same WHERE clauses work on it.
+     */
+    private static final String PROJECTS_WITH_ARCHIVE_SOURCE = new StringBuilder()
+            .append("(SELECT ").append(VERSIONED_COLUMNS).append(" FROM ").append(ProjectTable.TABLE_NAME)
+            .append(" UNION ALL SELECT ").append(VERSIONED_COLUMNS).append(" FROM ").append(ProjectArchiveTable.TABLE_NAME)
+            .append(") AS ").append(ProjectTable.TABLE_NAME)
+            .toString();
 
-    private ProjectType getProjectTypeByID(long ID) {
-        return ProjectType.get((int)ID);
-    }
+    /**
+     * The columns of the project listings: only the ones needed for a {@link ProjectSummary}, with the customer's name
+     * joined in the same query. {@link #getProjectSummaryFromResultSet} reads them by position.
+     */
+    private static final Column<?>[] PROJECT_SUMMARY_COLUMNS = {
+            ProjectTable.NUMBER, ProjectTable.PROJECT_NAME, ProjectTable.TOTAL_FEE,
+            PersonTable.FIRST_NAME, PersonTable.SURNAME, ProjectTable.DEADLINE
+    };
 
-    private ProjectStatus getProjectStatusByID(long ID) {
-        return ProjectStatus.get((int)ID);
+    /**
+     * The project listings without a WHERE clause, from the Projects table or from a derived table named after it.
+     */
+    private static Query projectSummaries(String source) {
+        return Query.select(PROJECT_SUMMARY_COLUMNS).from(source)
+                .join(PersonTable.TABLE_NAME, ProjectTable.CUSTOMER, PersonTable.ID);
     }
 
-    private Person getPersonByID(long ID) throws SQLException{
-        if (ID == 0) return null;
+    private static final Query PROJECT_SUMMARIES = projectSummaries(ProjectTable.TABLE_NAME);
+    private static final Query PROJECT_SUMMARIES_WITH_ARCHIVE = projectSummaries(PROJECTS_WITH_ARCHIVE_SOURCE);
+    //The time parameters are given with Query.withSourceParameters for each call.
+    private static final Query PROJECT_SUMMARIES_AS_OF = projectSummaries(PROJECTS_AS_OF_SOURCE);
+    private static final Query PROJECTS_AS_OF = Query.select().from(PROJECTS_AS_OF_SOURCE);
 
-        StringBuilder query = new StringBuilder();
-        query.append("SELECT * FROM ").append(PersonTable.TABLE_NAME).append(" WHERE ")
-                .append(PersonTable.COL_ID).append(" = ").append(ID).append(';');
-        Statement statement = connection.createStatement();
-        ResultSet result = statement.executeQuery(query.toString());
-        Person answer;
-        if (result.next()) {
-            answer = getPersonFromResultSet(result);
-        } else {
-            answer = null;
+    /**
+     * Helper method that lists project summaries matching a predicate. The values in the predicate are bound as
+     * parameters, so this method may be used when handling a search term received from the user.
+     *
+     * @param where The projects to list. Can be null to list them all.
+     * @return A list of results (ProjectSummary objects)
+     * @throws DatabaseException If a database error occurs.
+     */
+    private List<ProjectSummary> getProjectSummaries(Predicate where) throws DatabaseException{
+        return getProjectSummaries(false, where);
+    }
+
+    /**
+     * The same as {@link #getProjectSummaries(Predicate)} but can also list the archived projects.
+     * <p><br>
+     * The results are cached until one of the tables read is changed through this class, or the date changes for
+     * queries that compare with CURDATE(). Repeatedly viewing the same listing doesn't query the database again.
+     *
+     * @param includeArchived {@code true} to search the ProjectsArchive table as well.
+     */
+    private List<ProjectSummary> getProjectSummaries(boolean includeArchived, Predicate where)
+            throws DatabaseException {
+        final Query query = (includeArchived ? PROJECT_SUMMARIES_WITH_ARCHIVE : PROJECT_SUMMARIES).where(where);
+        final String sql = query.toSql();
+        final Object[] parameters = query.getParameters();
+
+        final String[] tables = includeArchived
+                ? new String[] {ProjectTable.TABLE_NAME, ProjectArchiveTable.TABLE_NAME, PersonTable.TABLE_NAME}
+                : new String[] {ProjectTable.TABLE_NAME, PersonTable.TABLE_NAME};
+        final List<Object> key = QueryCache.key(sql, parameters);
+        final LocalDate today = getServerDate();
+        List<ProjectSummary> answer = summaryCache.get(key, today, tables);
+        if (answer == null) {
+            final long[] versions = summaryCache.versions(tables);
+            try {
+                answer = querySummaries(sql, parameters);
+            } catch (DatabaseException ex) {
+                //While the database isn't responding, the last result is better than nothing.
+                List<ProjectSummary> stale = ex.getCause() instanceof CircuitOpenException
+                        ? summaryCache.getStale(key) : null;
+                if (stale == null) {
+                    throw ex;
+                }
+                return stale;
+            }
+            summaryCache.put(key, versions, sql.contains("CURDATE()") ? today : null, answer);
         }
-        statement.close();
         return answer;
     }
 
     /**
-     * Executes a query to add a new project to the database with the given parameters
-     * <p><br/>
+     * The same as {@link #getProjectSummaries(Predicate)} but lists the projects as they were at the given time. The
+     * customer names are the current ones.
+     */
+    private List<ProjectSummary> getProjectSummariesAsOf(LocalDateTime asOf, Predicate where)
+            throws DatabaseException {
+        final Query query = PROJECT_SUMMARIES_AS_OF.withSourceParameters(asOfParameters(asOf)).where(where);
+        return querySummaries(query.toSql(), query.getParameters());
+    }
+
+    /**
+     * The four time parameters of {@code PROJECTS_AS_OF_SOURCE}.
+     */
+    private static Object[] asOfParameters(LocalDateTime asOf) {
+        Object[] answer = new Object[4];
+        Arrays.fill(answer, Timestamp.valueOf(asOf));
+        return answer;
+    }
+
+    private List<ProjectSummary> querySummaries(String query, Object... parameters) throws DatabaseException {
+        ArrayList<ProjectSummary> answer = new ArrayList<>();
+        try (PreparedStatement statement = prepare(OperationClass.SEARCH, query)) {
+            readSummaries(statement, parameters, answer);
+        } catch (SQLException ex) {
+            throw wrapException("Database error while searching for projects.", ex, answer);
+        }
+        return answer;
+    }
+
+    /**
+     * Binds the parameters of a project listing, runs it and adds the rows to the given list.
+     */
+    private void readSummaries(PreparedStatement statement, Object[] parameters, List<ProjectSummary> answer)
+            throws SQLException {
+        for (int i = 0; i < parameters.length; ++i) {
+            statement.setObject(i + 1, parameters[i]);
+        }
+        ResultSet results = statement.executeQuery();
+        while (results.next()) {
+            answer.add(getProjectSummaryFromResultSet(results));
+        }
+    }
+
+    /**
+     * Runs a project listing for the deadline scheduler on the deadline connection. The results aren't cached; the
+     * scheduler keeps its own copy of the deadlines.
+     */
+    private List<ProjectSummary> queryDeadlines(Predicate where) throws DatabaseException {
+        final Query query = PROJECT_SUMMARIES.where(where);
+        ArrayList<ProjectSummary> answer = new ArrayList<>();
+        synchronized (deadlineLock) {
+            try {
+                if (deadlineConnection == null) {
+                    deadlineConnection = openConnection();
+                }
+                try (PreparedStatement statement = prepareOn(deadlineConnection, OperationClass.SEARCH, query.toSql())) {
+                    readSummaries(statement, query.getParameters(), answer);
+                }
+            } catch (SQLException ex) {
+                //Open a new connection next time in case this one is broken.
+                closeDeadlineConnection();
+                throw wrapException("Database error while loading the project deadlines.", ex, answer);
+            }
+        }
+        return answer;
+    }
+
+    private void closeDeadlineConnection() {
+        synchronized (deadlineLock) {
+            if (deadlineConnection != null) {
+                try {
+                    deadlineConnection.close();
+                } catch (SQLException ex) {
+                    //The connection is being thrown away anyway.
+                }
+                deadlineConnection = null;
+            }
+        }
+    }
+
+    /**
+     * Creates a ProjectSummary from the current row of a ResultSet produced by {@code PROJECT_SUMMARIES}. The
+     * columns are read by position in the order they are selected.
+     *
+     * @param resultSet The ResultSet with the cursor pointing at a valid row.
+     * @return The ProjectSummary object.
+     * @throws SQLException If some DB access error occurs.
+     */
+    private ProjectSummary getProjectSummaryFromResultSet(ResultSet resultSet) throws SQLException {
+        final String customerName = new StringBuilder().append(resultSet.getString(4)).append(' ')
+                .append(resultSet.getString(5)).toString();
+        Date deadlineAsDate = resultSet.getDate(6);
+        return new ProjectSummary(resultSet.getLong(1), resultSet.getString(2), customerName,
+                Money.fromBigDecimal(resultSet.getBigDecimal(3)),
+                deadlineAsDate != null ? deadlineAsDate.toLocalDate() : null);
+    }
+
+    /**
+     * Helper method that searches for projects by number with one of the catalog's project shapes.
+     *
+     * @param shape {@link SqlCatalog#PROJECT_BY_NUMBER} or {@link SqlCatalog#ARCHIVED_PROJECT_BY_NUMBER}.
+     * @param number The project number.
+     * @return A list of result (Project objects)
+     * @throws DatabaseException If a database error occurs.
+     */
+    private List<Project> getProjectsBySearch(SqlCatalog.Shape shape, long number) throws DatabaseException {
+        ArrayList<Project> answer = new ArrayList<>();
+        try (PreparedStatement statement = prepare(OperationClass.LOOKUP, shape)) {
+            shape.setLong(statement, "number", number);
+            ResultSet results = statement.executeQuery();
+            answer.addAll(getListOfProjectsFromResultSet(results));
+        } catch (SQLException ex) {
+            throw wrapException("Database error while searching for projects", ex, null);
+        }
+
+        return answer;
+    }
+
+    /**
+     * Fetch a project from the database based on its project number. Archived projects are looked up in the archive
+     * if the project isn't in the Projects table. They are marked as archived (see {@link Project#isArchived()}) and
+     * must not be changed.
+     *
+     * @param number The project number
+     * @return A Project object
+     * @throws DatabaseException If a Database error occurs.
+     */
+    public Project getProjectByNumber(long number) throws DatabaseException {
+        ArrayList<Project> output = new ArrayList<>(getProjectsBySearch(SqlCatalog.PROJECT_BY_NUMBER, number));
+        if (output.isEmpty()) {
+            for (Project archived : getProjectsBySearch(SqlCatalog.ARCHIVED_PROJECT_BY_NUMBER, number)) {
+                archived.markArchived();
+                output.add(archived);
+            }
+        }
+        if (output.size() > 1) {
+            throw new DatabaseException("Could not find Project number " + number + ". Query returned multiple values.");
+        } else if (output.isEmpty()) {
+            throw new DatabaseException("Could not find Project number " + number + ".");
+        } else {
+            return output.get(0);
+        }
+    }
+
+    /**
+     * Fetch a project as it was at a point in time. The people are loaded as they are now.
+     *
+     * @param number The project number
+     * @param asOf The point in time.
+     * @return A Project object with the values the project had at that time.
+     * @throws DatabaseException If a Database error occurs or the project didn't exist at that time.
+     */
+    public Project getProjectByNumberAsOf(long number, LocalDateTime asOf) throws DatabaseException {
+        final Query query = PROJECTS_AS_OF.withSourceParameters(asOfParameters(asOf))
+                .where(ProjectTable.NUMBER.eq(number));
+        List<Project> output;
+        try (PreparedStatement statement = prepare(OperationClass.LOOKUP, query.toSql())) {
+            Object[] parameters = query.getParameters();
+            for (int i = 0; i < parameters.length; ++i) {
+                statement.setObject(i + 1, parameters[i]);
+            }
+            output = getListOfProjectsFromResultSet(statement.executeQuery());
+        } catch (SQLException ex) {
+            throw wrapException("Database error while searching for projects", ex, null);
+        }
+        if (output.isEmpty()) {
+            throw new DatabaseException("Project number " + number + " did not exist at " + asOf + ".");
+        }
+        return output.get(0);
+    }
+
+    /**
+     * Returns a  list of all projects
+     *
+     * @return A list of all project.
+     * @throws DatabaseException If a database error occurs.
+     */
+    public List<ProjectSummary> getAllProjects() throws DatabaseException{
+        return getProjectSummaries(null);
+    }
+
+    /**
+     * Returns a list of all projects that have not been finalised, whose deadline date is either NULL or in the future.
+     * @return A list of currently active and not overdue projects.
+     * @throws DatabaseException If a database error occurs
+     */
+    public List<ProjectSummary> getCurrentProjects() throws DatabaseException{
+        return getProjectSummaries(currentProjects(Predicate.afterToday(ProjectTable.DEADLINE)));
+    }
+
+    /**
+     * Returns the projects that were active and not overdue at the given point in time, as they were at that time.
+     *
+     * @param asOf The point in time.
+     * @return A list of the projects that were active and not overdue.
+     * @throws DatabaseException If a database error occurs
+     */
+    public List<ProjectSummary> getCurrentProjectsAsOf(LocalDateTime asOf) throws DatabaseException{
+        return getProjectSummariesAsOf(asOf, currentProjects(ProjectTable.DEADLINE.gt(Date.valueOf(asOf.toLocalDate()))));
+    }
+
+    /**
+     * @param deadlineAhead Compares the deadline with the current date or a parameter.
+     */
+    private static Predicate currentProjects(Predicate deadlineAhead) {
+        return ProjectTable.DEADLINE.isNull().or(deadlineAhead).and(notFinalised());
+    }
+
+    private static Predicate notFinalised() {
+        return ProjectTable.STATUS.lt(ProjectStatus.FINAL.id());
+    }
+
+    /**
+     * Return a list of the projects that are not finalised and whose deadline date is before the current date.
+     *
+     * @return List of overdue projects
+     * @throws DatabaseException If a database error occurs.
+     */
+    public List<ProjectSummary> getOverdueProjects() throws DatabaseException{
+        return getProjectSummaries(Predicate.beforeToday(ProjectTable.DEADLINE).and(notFinalised()));
+    }
+
+    /**
+     * Returns the projects that were overdue at the given point in time, as they were at that time.
+     *
+     * @param asOf The point in time.
+     * @return List of the projects that were overdue.
+     * @throws DatabaseException If a database error occurs.
+     */
+    public List<ProjectSummary> getOverdueProjectsAsOf(LocalDateTime asOf) throws DatabaseException{
+        return getProjectSummariesAsOf(asOf,
+                ProjectTable.DEADLINE.lt(Date.valueOf(asOf.toLocalDate())).and(notFinalised()));
+    }
+
+    /**
+     * Returns the projects that have a deadline and haven't been finalised. Used by the deadline scheduler, so it
+     * runs on its own connection and can be called from a background thread.
+     *
+     * @return A list of project summaries with their deadlines.
+     * @throws DatabaseException If a database error occurs.
+     */
+    public List<ProjectSummary> getScheduledDeadlines() throws DatabaseException {
+        return queryDeadlines(ProjectTable.DEADLINE.isNotNull().and(notFinalised()));
+    }
+
+    /**
+     * Returns the deadline of one project if it has one and hasn't been finalised. Used by the deadline scheduler to
+     * refresh a single project after it changes. Like {@link #getScheduledDeadlines()} it runs on its own
+     * connection.
+     *
+     * @param projectNumber The project number.
+     * @return The project summary with its deadline or {@code null} if the project has no deadline, is finalised or
+     * doesn't exist (any more).
+     * @throws DatabaseException If a database error occurs.
+     */
+    public ProjectSummary getScheduledDeadline(long projectNumber) throws DatabaseException {
+        List<ProjectSummary> answer = queryDeadlines(ProjectTable.NUMBER.eq(projectNumber)
+                .and(ProjectTable.DEADLINE.isNotNull()).and(notFinalised()));
+        return answer.isEmpty() ? null : answer.get(0);
+    }
+
+    public List<ProjectSummary> getProjectsByName(String searchTerm) throws DatabaseException {
+        return getProjectsByName(searchTerm, false);
+    }
+
+    /**
+     * Searches for projects by name.
+     *
+     * @param searchTerm The name or part of the name to search for.
+     * @param includeArchived {@code true} to also search the archived projects.
+     * @return A list of projects that match, the exact matches first.
+     * @throws DatabaseException If a database error occurs.
+     */
+    public List<ProjectSummary> getProjectsByName(String searchTerm, boolean includeArchived) throws DatabaseException {
+        return getProjectsByString(searchTerm, ProjectTable.PROJECT_NAME, includeArchived);
+    }
+
+    public List<ProjectSummary> getProjectsByAddress (String searchTerm) throws DatabaseException {
+        return getProjectsByAddress(searchTerm, false);
+    }
+
+    /**
+     * Searches for projects by address.
+     *
+     * @param searchTerm The address or part of the address to search for.
+     * @param includeArchived {@code true} to also search the archived projects.
+     * @return A list of projects that match, the exact matches first.
+     * @throws DatabaseException If a database error occurs.
+     */
+    public List<ProjectSummary> getProjectsByAddress (String searchTerm, boolean includeArchived)
+            throws DatabaseException {
+        return getProjectsByString(searchTerm, ProjectTable.PHYS_ADDR, includeArchived);
+    }
+
+    /**
+     * Helper method for finding project by searching for a search string in a specified column. The search is
+     * hardened against SQL injection so this method may accept user input.
+     * <p>
+     * Used by {@code getProjectsByName} and {@code getProjectsByAddress} above.
+     *
+     * @param searchTerm The string to
+     * @param column The column of the Projects table to search in
+     * @param includeArchived {@code true} to also search the archived projects.
+     * @return A list of projects that match the search criteria.
+     * @throws DatabaseException If a database error occurs.
+     */
+    private List<ProjectSummary> getProjectsByString (String searchTerm, Column<String> column,
+                                                      boolean includeArchived) throws DatabaseException  {
+        ArrayList<ProjectSummary> answer;
+        //Do exact search first so that we show it at the top of the search results if the user typed a specific searchTerm
+        answer = new ArrayList<>(getProjectSummaries(includeArchived, column.eq(searchTerm)));
+
+        //Then do a fuzzy search for a word in the middle of the database value
+        try {
+            answer.addAll(getProjectSummaries(includeArchived,
+                    Predicate.like(column, "%" + likeSanitize(searchTerm) + "%").and(column.ne(searchTerm))));
+        } catch (QueryTimeoutException ex) {
+            //The fuzzy search has to scan the table. The exact matches are still worth showing.
+            for (Object summary : ex.getPartialResult()) {
+                answer.add((ProjectSummary) summary);
+            }
+            throw new QueryTimeoutException(ex.getMessage(), ex.getCause(), ex.isCancelled(), answer);
+        }
+        return answer;
+    }
+
+    /**
+     * Queries the database for projects where the given person is involved (regardless of their role).
+     *
+     * @param personToSearch The person to search for. This object must have come from one of the search/creation
+     *                       functions in this class to ensure that it has a valid database ID.
+     * @return A list of ProjectSummary objects. If the query return no results, the list will be empty.
+     * @throws DatabaseException Some database error occurred (most likely an access error). Inspect the throwable
+     * contained within for more details.
+     */
+    public List<ProjectSummary> getProjectsByPerson (Person personToSearch) throws DatabaseException{
+        return getProjectsByPerson(personToSearch, false);
+    }
+
+    /**
+     * The same as {@link #getProjectsByPerson(Person)} but can also search the archived projects.
+     *
+     * @param includeArchived {@code true} to also search the archived projects.
+     */
+    public List<ProjectSummary> getProjectsByPerson (Person personToSearch, boolean includeArchived)
+            throws DatabaseException{
+        final long ID = personToSearch.id;
+        return getProjectSummaries(includeArchived, Predicate.anyOf(ProjectTable.ENGINEER.eq(ID),
+                ProjectTable.CUSTOMER.eq(ID), ProjectTable.PROJ_MANAGER.eq(ID), ProjectTable.ARCHITECT.eq(ID)));
+    }
+
+    /**
+     * Iterates through a given ResultSet that came from the Projects table and creates a Project object from each
+     * of the rows.
+     *
+     * @param resultSet The ResultSet as it was received from the Statement, with the cursor in the default position.
+     * @return A list of project objects. If the query returned no results then the list returned will be empty.
+     * @throws SQLException If some DB access error occurs or if the ResultSet is from the wrong table (not the Project
+     * table) and thus the column names don't match.
+     */
+    private List<Project> getListOfProjectsFromResultSet(ResultSet resultSet) throws SQLException {
+        ArrayList<Project> answer = new ArrayList<>();
+        //People are shared between all the projects in this result set. They are only fetched when first needed and
+        //then in a single batch for all the projects.
+        PersonLoader people = new PersonLoader(this);
+        final int[] columns = PROJECT_COLUMN_POSITIONS.resolve(resultSet);
+        while (resultSet.next()) {
+            Project newProject = getProjectFromResultSet(resultSet, columns, people);
+            answer.add(newProject);
+        }
+        return answer;
+    }
+
+    /**
+     * The columns read by {@link #getProjectFromResultSet}. The P_ constants are their indexes in the positions.
+     */
+    private static final ColumnPositions PROJECT_COLUMN_POSITIONS = new ColumnPositions(
+            ProjectTable.COL_NUMBER, ProjectTable.COL_PROJECT_NAME, ProjectTable.COL_TYPE, ProjectTable.COL_ERF,
+            ProjectTable.COL_PHYS_ADDR, ProjectTable.COL_TOTAL_FEE, ProjectTable.COL_TOTAL_PAID,
+            ProjectTable.COL_CUSTOMER, ProjectTable.COL_ENGINEER, ProjectTable.COL_PROJ_MANAGER,
+            ProjectTable.COL_ARCHITECT, ProjectTable.COL_DEADLINE, ProjectTable.COL_STATUS);
+    private static final int P_NUMBER = 0;
+    private static final int P_NAME = 1;
+    private static final int P_TYPE = 2;
+    private static final int P_ERF = 3;
+    private static final int P_ADDRESS = 4;
+    private static final int P_TOTAL_FEE = 5;
+    private static final int P_TOTAL_PAID = 6;
+    private static final int P_CUSTOMER = 7;
+    private static final int P_ENGINEER = 8;
+    private static final int P_PROJ_MANAGER = 9;
+    private static final int P_ARCHITECT = 10;
+    private static final int P_DEADLINE = 11;
+    private static final int P_STATUS = 12;
+
+    /**
+     * Creates a Project object from the current row of the given ResultSet. <strong>Typically, you don't call this
+     * method directly and rather call getListOfProjectsFromResultSet which in turn calls this method.</strong> This
+     * method expects the cursor to be pointing at a valid row to be in the ResultSet (not before the first row or after
+     * the last).
+     *
+     * @param resultSet A ResultSet from a query of the Projects table with the cursor pointing at a valid row.
+     * @param columns The positions of the columns from {@code PROJECT_COLUMN_POSITIONS}.
+     * @param people The loader shared by all the projects in this result set. The project's person IDs are queued on it.
+     * @return A Project object created from the data in the row.
+     * @throws SQLException If some DB access error occurs.
+     */
+    private Project getProjectFromResultSet(ResultSet resultSet, int[] columns, PersonLoader people)
+            throws SQLException{
+        Project answer = new Project(
+                resultSet.getString(columns[P_NAME]),
+                getProjectTypeByID(resultSet.getLong(columns[P_TYPE])),
+                null
+        );
+
+        answer.number = resultSet.getLong(columns[P_NUMBER]);
+        answer.erfNum = resultSet.getInt(columns[P_ERF]);
+        answer.address = resultSet.getString(columns[P_ADDRESS]);
+        answer.totalFee = Money.fromBigDecimal(resultSet.getBigDecimal(columns[P_TOTAL_FEE]));
+        answer.totalPaid = Money.fromBigDecimal(resultSet.getBigDecimal(columns[P_TOTAL_PAID]));
+        final long customerID = resultSet.getLong(columns[P_CUSTOMER]);
+        final long engineerID = resultSet.getLong(columns[P_ENGINEER]);
+        final long projectManagerID = resultSet.getLong(columns[P_PROJ_MANAGER]);
+        final long architectID = resultSet.getLong(columns[P_ARCHITECT]);
+        people.enqueue(customerID);
+        people.enqueue(engineerID);
+        people.enqueue(projectManagerID);
+        people.enqueue(architectID);
+        answer.setPersonReferences(people, customerID, engineerID, projectManagerID, architectID);
+        Date deadlineAsDate = resultSet.getDate(columns[P_DEADLINE]);
+        answer.deadline = deadlineAsDate != null ? deadlineAsDate.toLocalDate() : null;
+        answer.status = getProjectStatusByID(resultSet.getLong(columns[P_STATUS]));
+
+
+        return answer;
+    }
+
+    private ProjectType getProjectTypeByID(long ID) {
+        return ProjectType.get((int)ID);
+    }
+
+    private ProjectStatus getProjectStatusByID(long ID) {
+        return ProjectStatus.get((int)ID);
+    }
+
+    /**
+     * Fetches a batch of people with {@code WHERE ID IN (...)} queries. Used by {@link PersonLoader} to resolve all
+     * the people referenced by a set of projects at once.
+     *
+     * @param IDs The Person IDs to fetch. May contain duplicates.
+     * @return The people that were found. IDs that don't exist are left out.
+     * @throws DatabaseException If a database error occurs.
+     */
+    List<Person> getPeopleByIDs(long[] IDs) throws DatabaseException {
+        return getPeopleByIDs(IDs, sql -> prepare(OperationClass.LOOKUP, sql));
+    }
+
+    /**
+     * Prepares a statement on a particular connection.
+     */
+    @FunctionalInterface
+    private interface StatementPreparer {
+        PreparedStatement prepare(String sql) throws SQLException;
+    }
+
+    /**
+     * Prepares lookups on a connection other than the main one (see {@link #prepareOn}). Used by the background
+     * threads, which must not share the main connection with the CLI.
+     */
+    private StatementPreparer lookupsOn(Connection otherConnection) {
+        return sql -> prepareOn(otherConnection, OperationClass.LOOKUP, sql);
+    }
+
+    /**
+     * Fetches a batch of people like {@link #getPeopleByIDs(long[])} with statements from the given preparer.
+     */
+    private List<Person> getPeopleByIDs(long[] IDs, StatementPreparer preparer) throws DatabaseException {
+        long[] uniqueIDs = Arrays.stream(IDs).distinct().toArray();
+        ArrayList<Person> answer = new ArrayList<>(uniqueIDs.length);
+        //Bigger batches are split into several queries.
+        for (int start = 0; start < uniqueIDs.length; start += SqlCatalog.MAX_IN_LIST_SIZE) {
+            final int count = Math.min(SqlCatalog.MAX_IN_LIST_SIZE, uniqueIDs.length - start);
+            try (PreparedStatement statement = preparer.prepare(SqlCatalog.peopleByIDs(count))) {
+                for (int i = 0; i < count; ++i) {
+                    statement.setLong(i + 1, uniqueIDs[start + i]);
+                }
+                ResultSet result = statement.executeQuery();
+                answer.addAll(getListOfPersonsFromResultSet(result));
+            } catch (SQLException ex) {
+                throw wrapException("Database error while fetching person records.", ex, null);
+            }
+        }
+        return answer;
+    }
+
+    /**
+     * Executes a query to add a new project to the database with the given parameters
+     * <p><br/>
      * This method assumes that the correct default database has been  and that the book
      * table already exists. This method uses prepared statements to handle
      * sanitising of the user input to prevent SQL injection attacks.
@@ -481,25 +1347,30 @@ public class DataSource {
      * @throws SQLException If an error occurs with the database connection.
      */
     public long insertProject(String projectName, ProjectType type, Person customer) throws DatabaseException {
-        StringBuilder queryBuilder = new StringBuilder();
-        queryBuilder.append("INSERT INTO ").append(ProjectTable.TABLE_NAME).append(" (")
-                .append(ProjectTable.COL_PROJECT_NAME).append(", ")
-                .append(ProjectTable.COL_TYPE).append(", ")
-                .append(ProjectTable.COL_CUSTOMER).append(") VALUES (?, ?, ?);");
-
+        final SqlCatalog.Shape shape = SqlCatalog.INSERT_PROJECT;
         int newID = -1;
-        try (PreparedStatement statement = connection.prepareStatement(queryBuilder.toString(),Statement.RETURN_GENERATED_KEYS)) {
-            statement.setString(1, projectName);
-            statement.setLong(2, type.id());
-            statement.setLong(3, customer.id);
-            final int rowsAffected = statement.executeUpdate();
-            if (rowsAffected > 0) {
+        try (PreparedStatement statement = prepare(OperationClass.WRITE, shape.sql(), Statement.RETURN_GENERATED_KEYS)) {
+            shape.setString(statement, "name", projectName);
+            shape.setLong(statement, "type", type.id());
+            shape.setLong(statement, "customer", customer.id);
+            newID = inTransaction(() -> {
+                shape.setTimestamp(statement, "validFrom", versionTimestamp());
+                if (statement.executeUpdate() == 0) {
+                    return -1;
+                }
                 ResultSet keys = statement.getGeneratedKeys();
                 keys.next();
-                newID = keys.getInt(1);
-            }
+                final int key = keys.getInt(1);
+                logChanges(connection, ProjectTable.TABLE_NAME, key);
+                return key;
+            });
         } catch (SQLException ex) {
-            throw new DatabaseException("Database error while adding new project", ex);
+            throw wrapException("Database error while adding new project", ex, null);
+        }
+        if (newID > 0) {
+            audit(AuditEntry.ENTITY_PROJECT, newID, AuditEntry.ACTION_INSERT, ProjectTable.COL_PROJECT_NAME,
+                    null, projectName);
+            notifyProjectChanged(newID);
         }
         return newID;
     }
@@ -512,7 +1383,10 @@ public class DataSource {
      * @throws DatabaseException If a database error occurs.
      */
     public long insertProject(Project projectToInsert) throws DatabaseException {
-        return insertProject(projectToInsert.name, projectToInsert.type, projectToInsert.customer);
+        if (!projectToInsert.hasCustomer()) {
+            throw new DatabaseException("Cannot add a project without a customer.");
+        }
+        return insertProject(projectToInsert.name, projectToInsert.type, projectToInsert.getCustomer());
     }
 
     /**
@@ -526,24 +1400,36 @@ public class DataSource {
      * @throws DatabaseException if a database error occurs.
      */
     public long insertPerson(String firstName, String surname, String address, String email) throws DatabaseException{
-        StringBuilder query = new StringBuilder()
-            .append("INSERT INTO ").append(PersonTable.TABLE_NAME).append(" (")
-            .append(PersonTable.COL_FIRST_NAME).append(", ")
-            .append(PersonTable.COL_SURNAME).append(", ")
-            .append(PersonTable.COL_PHYS_ADDR).append(", ")
-            .append(PersonTable.COL_EMAIL).append(") VALUES (?, ?, ?, ?);");
+        final SqlCatalog.Shape shape = SqlCatalog.INSERT_PERSON;
         long newKey;
-        try (PreparedStatement statement = connection.prepareStatement(query.toString(), Statement.RETURN_GENERATED_KEYS)){
-            statement.setString( 1, firstName);
-            statement.setString( 2, surname);
-            statement.setString( 3, address);
-            statement.setString( 4, email);
-            statement.executeUpdate();
-            ResultSet keys = statement.getGeneratedKeys();
-            keys.next();
-            newKey = keys.getLong(1);
+        try (PreparedStatement statement = prepare(OperationClass.WRITE, shape.sql(), Statement.RETURN_GENERATED_KEYS)){
+            shape.setString(statement, "firstName", firstName);
+            shape.setString(statement, "surname", surname);
+            shape.setString(statement, "address", address);
+            shape.setString(statement, "email", email);
+            newKey = inTransaction(() -> {
+                statement.executeUpdate();
+                ResultSet keys = statement.getGeneratedKeys();
+                keys.next();
+                final long key = keys.getLong(1);
+                logChanges(connection, PersonTable.TABLE_NAME, key);
+                return key;
+            });
         } catch (SQLException ex) {
-            throw new DatabaseException("Error while creating a new Person record.", ex);
+            throw wrapException("Error while creating a new Person record.", ex, null);
+        }
+
+        audit(AuditEntry.ENTITY_PERSON, newKey, AuditEntry.ACTION_INSERT, null, null, firstName + ' ' + surname);
+        notePersonChanged(newKey);
+        PersonSearchIndex index = personIndex;
+        if (index != null) {
+            Person newPerson = new Person();
+            newPerson.id = newKey;
+            newPerson.firstName = firstName;
+            newPerson.surname = surname;
+            newPerson.address = address;
+            newPerson.email = email;
+            index.add(newPerson);
         }
         return newKey;
     }
@@ -553,7 +1439,8 @@ public class DataSource {
     }
 
     /**
-     * Deletes a record in the Projects table of the given ID number.
+     * Deletes a record in the Projects table of the given ID number. The values of the deleted row are recorded in
+     * the audit trail.
      * 
      * @param projectNumberToDelete The Project number of the record to delete.
      *
@@ -561,15 +1448,44 @@ public class DataSource {
      * @throws DatabaseException If an error occurs with the database connection.
      */
     public boolean deleteProject(long projectNumberToDelete) throws DatabaseException {
-        StringBuilder queryBuilder = new StringBuilder();
-        queryBuilder.append("DELETE FROM ").append(ProjectTable.TABLE_NAME)
-                .append(" WHERE ").append(ProjectTable.COL_NUMBER).append(" = ")
-                .append(projectNumberToDelete).append(';');
+        final SqlCatalog.Shape readShape = SqlCatalog.PROJECT_BY_NUMBER;
+        final SqlCatalog.Shape projectShape = SqlCatalog.DELETE_PROJECT;
+        //The payments aren't deleted by a foreign key because they are kept when a project is archived.
+        final SqlCatalog.Shape paymentsShape = SqlCatalog.DELETE_PROJECT_PAYMENTS;
+        //The row as it was deleted, read in the same transaction so the audit trail records its values.
+        final ArrayList<Project> deleted = new ArrayList<>(1);
         boolean success = false;
-        try (Statement statement = connection.createStatement()) {
-            success = statement.executeUpdate(queryBuilder.toString()) > 0;
+        try (PreparedStatement readStatement = prepare(OperationClass.WRITE, readShape);
+             PreparedStatement projectStatement = prepare(OperationClass.WRITE, projectShape);
+             PreparedStatement paymentsStatement = prepare(OperationClass.WRITE, paymentsShape)) {
+            readShape.setLong(readStatement, "number", projectNumberToDelete);
+            projectShape.setLong(projectStatement, "number", projectNumberToDelete);
+            paymentsShape.setLong(paymentsStatement, "number", projectNumberToDelete);
+            success = changeVersionedProject(projectNumberToDelete, now -> {
+                deleted.clear();
+                deleted.addAll(getListOfProjectsFromResultSet(readStatement.executeQuery()));
+                final int deleteCount = projectStatement.executeUpdate();
+                if (deleteCount > 0) {
+                    paymentsStatement.executeUpdate();
+                }
+                return deleteCount;
+            }) > 0;
         } catch (SQLException ex) {
-            throw new DatabaseException("Database error occurred while deleting a project.", ex);
+            throw wrapException("Database error occurred while deleting a project.", ex, null);
+        }
+        if (success) {
+            if (deleted.isEmpty()) {
+                audit(AuditEntry.ENTITY_PROJECT, projectNumberToDelete, AuditEntry.ACTION_DELETE, null, null, null);
+            } else {
+                //One entry per column, like an update, with the deleted values as the old ones.
+                final Project project = deleted.get(0);
+                for (int bit = 0; bit < Project.FIELD_COUNT; ++bit) {
+                    final int field = 1 << bit;
+                    audit(AuditEntry.ENTITY_PROJECT, projectNumberToDelete, AuditEntry.ACTION_DELETE,
+                            UPDATABLE_COLUMNS[bit], auditValue(field, project.getFieldValue(field)), null);
+                }
+            }
+            notifyProjectChanged(projectNumberToDelete);
         }
         return success;
     }
@@ -582,60 +1498,422 @@ public class DataSource {
      * @throws DatabaseException If an error occurs with the database connection.
      */
     public boolean deleteProject(Project projectToDelete) throws DatabaseException {
+        if (projectToDelete.isArchived()) {
+            throw new DatabaseException("Project " + projectToDelete.number + " is archived and can't be deleted.");
+        }
         return deleteProject(projectToDelete.number);
     }
 
     /**
-     * Called from the update menu. Changes several fields of a project in the database at once.
+     * The Projects column that each of the {@code Project.FIELD_} bits maps to, indexed by bit position.
+     */
+    private static final String[] UPDATABLE_COLUMNS = {
+            ProjectTable.COL_PROJECT_NAME,
+            ProjectTable.COL_PHYS_ADDR,
+            ProjectTable.COL_ERF,
+            ProjectTable.COL_TOTAL_FEE,
+            ProjectTable.COL_TOTAL_PAID,
+            ProjectTable.COL_DEADLINE,
+            ProjectTable.COL_CUSTOMER,
+            ProjectTable.COL_ENGINEER,
+            ProjectTable.COL_PROJ_MANAGER,
+            ProjectTable.COL_ARCHITECT,
+            ProjectTable.COL_TYPE
+    };
+
+    /**
+     * Saves the changed fields of a project to the database. Only the columns flagged in the project's dirty mask are
+     * included in the UPDATE. The statement for each distinct mask is prepared once and reused for the rest of the
+     * session.
+     * <p><br>
+     * On success the project's dirty mask is cleared, so the given object represents the new state of the record and
+     * doesn't need to be fetched again.
      *
-     * @param projectToChange The Project to change
-     * @param changes A hash map of changes where the key is the column to change and the value is the new value.
+     * @param changedProject The project with its changes applied through the setters.
      * @return {@code true} if the database is modified.
      * @throws DatabaseException if a database error occurs.
      */
-    public boolean updateProject(Project projectToChange, HashMap<String, Object> changes) throws DatabaseException {
-        StringBuilder query = new StringBuilder();
-        final ArrayList<String> keys = new ArrayList<>(changes.keySet()); //Change the Set to a List to ensure the order of the keys doesn't change.
+    public boolean updateProject(Project changedProject) throws DatabaseException {
+        final int dirtyFields = changedProject.getDirtyFields();
+        if (dirtyFields == 0) {
+            return false;
+        }
+        if (changedProject.isArchived()) {
+            throw new DatabaseException("Project " + changedProject.number + " is archived and can't be changed.");
+        }
 
-        query.append("UPDATE ").append(ProjectTable.TABLE_NAME).append(" SET ");
-        for (int i = 0; i < keys.size(); ++i) {
-            query.append(keys.get(i)).append(" = ? ");
-            if (i <= keys.size() -2) {
-                query.append(", ");
+        int updateCount = 0;
+        try {
+            PreparedStatement statement = getUpdateStatement(dirtyFields);
+            int parameterIndex = 1;
+            for (int bit = 0; bit < Project.FIELD_COUNT; ++bit) {
+                final int field = 1 << bit;
+                if ((dirtyFields & field) != 0) {
+                    bindProjectField(statement, parameterIndex++, changedProject, field);
+                }
             }
+            final int validFromIndex = parameterIndex;
+            statement.setLong(validFromIndex + 1, changedProject.number);
+            updateCount = changeVersionedProject(changedProject.number, now -> {
+                statement.setTimestamp(validFromIndex, now);
+                return statement.executeUpdate();
+            });
+        }  catch (SQLException ex) {
+            throw wrapException(" Database error while update project record.", ex, null);
         }
-        query.append("WHERE ").append(ProjectTable.COL_NUMBER).append(" = ").append(projectToChange.number);
-        final Set<String> stringColumns = new HashSet<>();
-        stringColumns.add(ProjectTable.COL_PROJECT_NAME);
-        stringColumns.add(ProjectTable.COL_PHYS_ADDR);
 
-        final Set<String> decimalColumns = new HashSet<>();
-        decimalColumns.add(ProjectTable.COL_TOTAL_FEE);
-        decimalColumns.add(ProjectTable.COL_TOTAL_PAID);
+        if (updateCount > 0) {
+            for (int bit = 0; bit < Project.FIELD_COUNT; ++bit) {
+                final int field = 1 << bit;
+                if ((dirtyFields & field) != 0) {
+                    audit(AuditEntry.ENTITY_PROJECT, changedProject.number, AuditEntry.ACTION_UPDATE,
+                            UPDATABLE_COLUMNS[bit], auditValue(field, changedProject.getOriginalValue(field)),
+                            auditValue(field, changedProject.getFieldValue(field)));
+                }
+            }
+            changedProject.clearDirtyFields();
+            notifyProjectChanged(changedProject.number);
+        }
+        return updateCount > 0;
+    }
 
+    /**
+     * A change to a single project made through {@link #changeVersionedProject}.
+     */
+    @FunctionalInterface
+    private interface ProjectChange {
+        /**
+         * @param now The time of the change. The change must set the project's ValidFrom column to it.
+         * @return The number of project rows changed.
+         */
+        int apply(Timestamp now) throws SQLException;
+    }
 
-        int updateCount = 0;
+    /**
+     * Changes or deletes a project while keeping its history. The current row is copied to the ProjectHistory table
+     * as valid until now and the change is made in the same transaction. If the change doesn't affect any rows (the
+     * project doesn't exist or doesn't match a condition of the change) the copy is rolled back with it.
+     *
+     * @param projectNumber The project being changed.
+     * @param change The change to make.
+     * @return The number of rows changed.
+     * @throws SQLException If a database error occurs. Nothing is changed in this case.
+     */
+    private int changeVersionedProject(long projectNumber, ProjectChange change) throws SQLException {
+        final SqlCatalog.Shape archiveShape = SqlCatalog.COPY_PROJECT_TO_HISTORY;
+
+        connection.setAutoCommit(false);
+        try (PreparedStatement archive = prepare(OperationClass.WRITE, archiveShape)) {
+            final Timestamp now = versionTimestamp();
+            archiveShape.setTimestamp(archive, "validTo", now);
+            archiveShape.setLong(archive, "number", projectNumber);
+            archive.executeUpdate();
+            final int changeCount = change.apply(now);
+            if (changeCount > 0) {
+                logChanges(connection, ProjectTable.TABLE_NAME, projectNumber);
+                connection.commit();
+            } else {
+                connection.rollback();
+            }
+            return changeCount;
+        } catch (SQLException | RuntimeException ex) {
+            connection.rollback();
+            throw ex;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
 
-        try (PreparedStatement  statement = connection.prepareStatement(query.toString())) {
-            for (int i = 1; i <= keys.size(); i++) {
-                String currentKey = keys.get(i - 1);
-                Object currentValue = changes.get(currentKey);
-                if (currentKey.equals(ProjectTable.COL_ERF)) {
-                    statement.setInt(i, (int)currentValue);
-                } else if (stringColumns.contains(currentKey)) {
-                    statement.setString(i, (String) currentValue);
-                } else if (decimalColumns.contains(currentKey)) {
-                    statement.setBigDecimal(i, (BigDecimal) currentValue);
-                } else {
-                    statement.setLong(i, (long) currentValue);
+    /**
+     * The time stamp used for a new version of a project, read from the database server at the precision stored in
+     * the database. The clocks of the computers running the program may differ, so the server's clock is used to keep
+     * the versions written by different programs in order. Read once per transaction.
+     */
+    private Timestamp versionTimestamp() throws SQLException {
+        try (PreparedStatement statement = prepare(OperationClass.WRITE, SqlCatalog.SERVER_TIME)) {
+            return readServerTime(statement);
+        }
+    }
+
+    /**
+     * Reads the server's time like {@link #versionTimestamp()} on a connection other than the main one.
+     */
+    private Timestamp versionTimestamp(Connection otherConnection) throws SQLException {
+        try (PreparedStatement statement = otherConnection.prepareStatement(SqlCatalog.SERVER_TIME.sql())) {
+            return readServerTime(statement);
+        }
+    }
+
+    private Timestamp readServerTime(PreparedStatement statement) throws SQLException {
+        ResultSet result = statement.executeQuery();
+        result.next();
+        final Timestamp answer = result.getTimestamp(1);
+        serverClockOffsetMillis = answer.getTime() - System.currentTimeMillis();
+        return answer;
+    }
+
+    /**
+     * The date on the database server, which is what CURDATE() returns in the queries. Worked out from this computer's
+     * clock and the offset seen the last time the server's time was read, so it costs no round trip.
+     *
+     * @return The server's current date.
+     */
+    public LocalDate getServerDate() {
+        return new Timestamp(System.currentTimeMillis() + serverClockOffsetMillis).toLocalDateTime().toLocalDate();
+    }
+
+    /**
+     * Work done by {@link #inTransaction}.
+     */
+    @FunctionalInterface
+    private interface TransactionWork<T> {
+        T run() throws SQLException;
+    }
+
+    /**
+     * Runs some statements on the main connection in a single transaction. The transaction is rolled back if they
+     * throw.
+     */
+    private <T> T inTransaction(TransactionWork<T> work) throws SQLException {
+        connection.setAutoCommit(false);
+        try {
+            final T answer = work.run();
+            connection.commit();
+            return answer;
+        } catch (SQLException | RuntimeException ex) {
+            connection.rollback();
+            throw ex;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Adds rows to the change log so that the other programs using the database drop their cached copies of the
+     * changed rows. Must be called in the same transaction as the change.
+     *
+     * @param changeConnection The connection the change was made on.
+     * @param tableName The table that was changed (Projects or Person).
+     * @param rowIds The IDs of the changed rows.
+     */
+    private void logChanges(Connection changeConnection, String tableName, long... rowIds) throws SQLException {
+        try (PreparedStatement statement = changeConnection.prepareStatement(
+                ChangeLogTable.getInsertQuery(rowIds.length))) {
+            int index = 1;
+            for (long rowId : rowIds) {
+                statement.setString(index++, tableName);
+                statement.setLong(index++, rowId);
+                statement.setLong(index++, changeLogOrigin);
+            }
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Starts reading the changes that other programs make to the database so that the cached project listings, the
+     * person search index and the project change listeners see them too.
+     *
+     * @param intervalMillis How often to look for changes.
+     */
+    public void startChangeLogPolling(long intervalMillis) {
+        if (changeLogPoller != null) {
+            return;
+        }
+        changeLogPoller = new ChangeLogPoller(this::openConnection, changeLogOrigin, this::changedElsewhere);
+        changeLogPoller.start(intervalMillis);
+    }
+
+    /**
+     * Applies the changes another program made. Called on the change log poller thread, so the changed people are read
+     * on the poller's connection. The deadline scheduler reloads the changed projects on its own connection.
+     */
+    private void changedElsewhere(Connection pollerConnection, String tableName, Set<Long> rowIds) {
+        if (ProjectTable.TABLE_NAME.equals(tableName)) {
+            //The other program may have archived the projects.
+            summaryCache.tableChanged(ProjectArchiveTable.TABLE_NAME);
+            for (Long projectNumber : rowIds) {
+                notifyProjectChanged(projectNumber);
+            }
+        } else if (PersonTable.TABLE_NAME.equals(tableName)) {
+            for (Long personID : rowIds) {
+                notePersonChanged(personID);
+            }
+            PersonSearchIndex index = personIndex;
+            if (index != null) {
+                try {
+                    long[] personIDs = rowIds.stream().mapToLong(Long::longValue).toArray();
+                    for (Person person : getPeopleByIDs(personIDs, lookupsOn(pollerConnection))) {
+                        index.add(person);
+                    }
+                } catch (DatabaseException ex) {
+                    //The index keeps the old details until the program is restarted.
                 }
             }
-            updateCount = statement.executeUpdate();
-        }  catch (SQLException ex) {
-            throw new DatabaseException(" Database error while update project record.", ex);
         }
+    }
 
-        return updateCount > 0;
+    /**
+     * Deletes the project versions that stopped being valid before the given time. Runs in small batches so that the
+     * history table isn't locked for long.
+     *
+     * @param cutoff Versions that were replaced before this time are deleted.
+     * @return The number of versions deleted.
+     * @throws DatabaseException If a database error occurs.
+     */
+    public int compactProjectHistory(LocalDateTime cutoff) throws DatabaseException {
+        final SqlCatalog.Shape shape = SqlCatalog.DELETE_OLD_HISTORY;
+        int deleted = 0;
+        //Runs on its own connection because it is normally started in the background.
+        try (Connection compactConnection = openConnection();
+             PreparedStatement statement = prepareOn(compactConnection, OperationClass.REPORT, shape.sql())) {
+            shape.setTimestamp(statement, "validBefore", Timestamp.valueOf(cutoff));
+            int batchCount;
+            do {
+                batchCount = statement.executeUpdate();
+                deleted += batchCount;
+            } while (batchCount == SqlCatalog.HISTORY_BATCH_SIZE);
+        } catch (SQLException ex) {
+            throw wrapException("Database error while compacting the project history", ex, null);
+        }
+        return deleted;
+    }
+
+    /**
+     * Moves the projects that were finalised before the given time from the Projects table to the ProjectsArchive
+     * table. Each batch is copied and deleted in its own transaction so that the Projects table isn't locked for long
+     * and a failure only leaves the current batch in place. The project's history and payments are left where they
+     * are.
+     * <p><br>
+     * The project with the highest number is never archived. Older servers work out the next project number from the
+     * highest one in the table when they start, so archiving it could hand its number out again.
+     *
+     * @param finalisedBefore Projects whose last change (their finalisation) was before this time are archived.
+     * @return The number of projects archived.
+     * @throws DatabaseException If a database error occurs. The batches archived before the error stay archived.
+     */
+    public int archiveFinalisedProjects(LocalDateTime finalisedBefore) throws DatabaseException {
+        final SqlCatalog.Shape selectShape = SqlCatalog.FINALISED_PROJECTS_TO_ARCHIVE;
+        //A batch fits in one IN list, so the copy and delete of a full batch always have the same shape.
+        final int batchSize = SqlCatalog.MAX_IN_LIST_SIZE;
+
+        int archived = 0;
+        //Runs on its own connection because it is normally started in the background.
+        try (Connection archiveConnection = openConnection();
+             PreparedStatement select = prepareOn(archiveConnection, OperationClass.REPORT, selectShape.sql())) {
+            archiveConnection.setAutoCommit(false);
+            selectShape.setTimestamp(select, "finalisedBefore", Timestamp.valueOf(finalisedBefore));
+            while (true) {
+                List<Long> numbers = new ArrayList<>();
+                ResultSet result = select.executeQuery();
+                while (result.next()) {
+                    numbers.add(result.getLong(1));
+                }
+                if (numbers.isEmpty()) {
+                    archiveConnection.commit();
+                    break;
+                }
+
+                final Timestamp now = versionTimestamp(archiveConnection);
+                try {
+                    try (PreparedStatement insert = prepareOn(archiveConnection, OperationClass.REPORT,
+                            SqlCatalog.archiveProjects(numbers.size()))) {
+                        insert.setTimestamp(1, now);
+                        for (int i = 0; i < numbers.size(); ++i) {
+                            insert.setLong(i + 2, numbers.get(i));
+                        }
+                        insert.executeUpdate();
+                    }
+                    try (PreparedStatement delete = prepareOn(archiveConnection, OperationClass.REPORT,
+                            SqlCatalog.deleteProjects(numbers.size()))) {
+                        for (int i = 0; i < numbers.size(); ++i) {
+                            delete.setLong(i + 1, numbers.get(i));
+                        }
+                        delete.executeUpdate();
+                    }
+                    logChanges(archiveConnection, ProjectTable.TABLE_NAME,
+                            numbers.stream().mapToLong(Long::longValue).toArray());
+                    archiveConnection.commit();
+                } catch (SQLException ex) {
+                    archiveConnection.rollback();
+                    throw ex;
+                }
+                archived += numbers.size();
+                summaryCache.tableChanged(ProjectArchiveTable.TABLE_NAME);
+                for (Long number : numbers) {
+                    notifyProjectChanged(number);
+                }
+                if (numbers.size() < batchSize) {
+                    break;
+                }
+            }
+        } catch (SQLException ex) {
+            throw wrapException("Database error while archiving finalised projects", ex, null);
+        }
+        return archived;
+    }
+
+    /**
+     * Returns the prepared UPDATE statement for the given dirty mask, preparing it the first time the mask is seen.
+     *
+     * @param dirtyFields A mask of {@code Project.FIELD_} bits.
+     * @return A PreparedStatement with one parameter per set bit (in bit order) followed by the new ValidFrom time and
+     * the project number.
+     * @throws SQLException If the statement could not be prepared.
+     */
+    private PreparedStatement getUpdateStatement(int dirtyFields) throws SQLException {
+        PreparedStatement statement = updateStatements.get(dirtyFields);
+        if (statement != null) {
+            return statement;
+        }
+
+        StringBuilder query = new StringBuilder();
+        query.append("UPDATE ").append(ProjectTable.TABLE_NAME).append(" SET ");
+        boolean first = true;
+        for (int bit = 0; bit < Project.FIELD_COUNT; ++bit) {
+            if ((dirtyFields & (1 << bit)) != 0) {
+                if (!first) {
+                    query.append(", ");
+                }
+                query.append(UPDATABLE_COLUMNS[bit]).append(" = ?");
+                first = false;
+            }
+        }
+        query.append(", ").append(ProjectTable.COL_VALID_FROM).append(" = ?");
+        query.append(" WHERE ").append(ProjectTable.COL_NUMBER).append(" = ?");
+
+        statement = prepare(OperationClass.WRITE, query.toString());
+        updateStatements.put(dirtyFields, statement);
+        return statement;
+    }
+
+    /**
+     * Binds the value of one project field to a parameter of an UPDATE statement.
+     */
+    private static void bindProjectField(PreparedStatement statement, int index, Project project, int field)
+            throws SQLException {
+        switch (field) {
+            case Project.FIELD_NAME -> statement.setString(index, project.name);
+            case Project.FIELD_ADDRESS -> statement.setString(index, project.address);
+            case Project.FIELD_ERF -> statement.setInt(index, project.erfNum);
+            case Project.FIELD_TOTAL_FEE -> statement.setBigDecimal(index, project.totalFee.toBigDecimal());
+            case Project.FIELD_TOTAL_PAID -> statement.setBigDecimal(index, project.totalPaid.toBigDecimal());
+            case Project.FIELD_DEADLINE -> statement.setDate(index,
+                    project.deadline == null ? null : Date.valueOf(project.deadline));
+            case Project.FIELD_CUSTOMER -> bindPersonID(statement, index, project.getCustomerId());
+            case Project.FIELD_ENGINEER -> bindPersonID(statement, index, project.getEngineerId());
+            case Project.FIELD_PROJ_MANAGER -> bindPersonID(statement, index, project.getProjectManagerId());
+            case Project.FIELD_ARCHITECT -> bindPersonID(statement, index, project.getArchitectId());
+            case Project.FIELD_TYPE -> statement.setLong(index, project.type.id());
+            default -> throw new IllegalArgumentException("Unknown project field flag: " + field);
+        }
+    }
+
+    private static void bindPersonID(PreparedStatement statement, int index, long personID) throws SQLException {
+        if (personID == 0) {
+            statement.setNull(index, Types.INTEGER);
+        } else {
+            statement.setLong(index, personID);
+        }
     }
 
     /**
@@ -643,24 +1921,271 @@ public class DataSource {
      * object.
      *
      * @param projectNumber The ID of the project to change.
+     * @param currentStage The ID of the stage the project is in now. The project isn't changed if it is in a
+     *                     different stage in the database.
      * @param newStage The ID of the new project stage.
      * @return {@code true} if the database is changed
      * @throws DatabaseException If a database error occurs.
      */
-    public boolean changeStage(long projectNumber, long newStage) throws DatabaseException {
-        StringBuilder query = new StringBuilder()
-                .append("UPDATE ").append(ProjectTable.TABLE_NAME).append(" SET ")
-                .append(ProjectTable.COL_STATUS).append(" = ").append(newStage).append(';');
+    public boolean changeStage(long projectNumber, long currentStage, long newStage) throws DatabaseException {
+        final SqlCatalog.Shape shape = SqlCatalog.CHANGE_STAGE;
         int updateCount = 0;
-        try(Statement statement = connection.createStatement()) {
-            updateCount = statement.executeUpdate(query.toString());
+        try(PreparedStatement statement = prepare(OperationClass.WRITE, shape)) {
+            shape.setLong(statement, "newStage", newStage);
+            shape.setLong(statement, "number", projectNumber);
+            shape.setLong(statement, "currentStage", currentStage);
+            updateCount = changeVersionedProject(projectNumber, now -> {
+                shape.setTimestamp(statement, "validFrom", now);
+                return statement.executeUpdate();
+            });
         } catch (SQLException ex) {
-            throw new DatabaseException("Error while trying to update a project stage", ex);
+            throw wrapException("Error while trying to update a project stage", ex, null);
         }
 
+        if (updateCount > 0) {
+            audit(AuditEntry.ENTITY_PROJECT, projectNumber, AuditEntry.ACTION_UPDATE, ProjectTable.COL_STATUS,
+                    ProjectStatus.get((int) currentStage).toString(), ProjectStatus.get((int) newStage).toString());
+            notifyProjectChanged(projectNumber);
+        }
         return updateCount > 0;
     }
 
+    /**
+     * Returns the recorded changes of a project, oldest first. Changes that are still waiting to be written to the
+     * audit table are written first so that the history is up-to-date.
+     *
+     * @param projectNumber The project number.
+     * @return The changes made to the project. Empty if there are none.
+     * @throws DatabaseException If a database error occurs.
+     */
+    public List<AuditEntry> getProjectHistory(long projectNumber) throws DatabaseException {
+        if (auditTrail != null) {
+            auditTrail.flush();
+        }
+        final SqlCatalog.Shape shape = SqlCatalog.AUDIT_OF_ENTITY;
+        ArrayList<AuditEntry> answer = new ArrayList<>();
+        try (PreparedStatement statement = prepare(OperationClass.SEARCH, shape)) {
+            shape.setString(statement, "entityType", AuditEntry.ENTITY_PROJECT);
+            shape.setLong(statement, "entityId", projectNumber);
+            ResultSet results = statement.executeQuery();
+            while (results.next()) {
+                AuditEntry entry = new AuditEntry();
+                entry.changedAt = results.getTimestamp(1).toLocalDateTime();
+                entry.entityType = results.getString(2);
+                entry.entityId = results.getLong(3);
+                entry.action = results.getString(4);
+                entry.fieldName = results.getString(5);
+                entry.oldValue = results.getString(6);
+                entry.newValue = results.getString(7);
+                entry.changedBy = results.getString(8);
+                answer.add(entry);
+            }
+        } catch (SQLException ex) {
+            throw wrapException("Database error while reading the history of a project", ex, null);
+        }
+        return answer;
+    }
+
+    /**
+     * Records a payment towards a project. The payment is added to the ledger and the project's TotalPaid is increased
+     * by the same amount in one transaction, so the total always matches the ledger.
+     *
+     * @param projectNumber The project the payment is for.
+     * @param amount The amount paid. Must be positive.
+     * @param paidOn The date of the payment.
+     * @param reference A reference for the payment, like an invoice number. Can be null.
+     * @return The new payment.
+     * @throws DatabaseException If a database error occurs. Nothing is recorded in this case.
+     */
+    public Payment recordPayment(long projectNumber, Money amount, LocalDate paidOn, String reference)
+            throws DatabaseException {
+        if (!amount.isPositive()) {
+            throw new IllegalArgumentException("A payment must be a positive amount: " + amount);
+        }
+        Payment payment = new Payment();
+        payment.projectNumber = projectNumber;
+        payment.amount = amount;
+        payment.paidOn = paidOn;
+        payment.reference = reference;
+        insertPayment(payment, "Database error while recording a payment");
+        return payment;
+    }
+
+    /**
+     * Reverses a payment by recording a payment of the opposite amount that refers back to it. The project's
+     * TotalPaid is reduced in the same transaction. A payment can only be reversed once.
+     *
+     * @param paymentToReverse A payment from {@link #listPayments(long)} that hasn't been reversed.
+     * @param paidOn The date of the reversal.
+     * @return The reversing payment.
+     * @throws DatabaseException If a database error occurs or the payment has already been reversed.
+     */
+    public Payment reversePayment(Payment paymentToReverse, LocalDate paidOn) throws DatabaseException {
+        if (!paymentToReverse.canBeReversed()) {
+            throw new IllegalArgumentException("Payment " + paymentToReverse.id + " can't be reversed");
+        }
+        Payment reversal = new Payment();
+        reversal.projectNumber = paymentToReverse.projectNumber;
+        reversal.amount = paymentToReverse.amount.negate();
+        reversal.paidOn = paidOn;
+        reversal.reference = paymentToReverse.reference;
+        reversal.reversesId = paymentToReverse.id;
+        insertPayment(reversal, "Database error while reversing a payment");
+        paymentToReverse.reversedById = reversal.id;
+        return reversal;
+    }
+
+    /**
+     * Adds a payment to the ledger and applies its amount to the project's TotalPaid in one transaction. Sets the ID
+     * of the payment. The change to the total is kept in the project history like any other change.
+     */
+    private void insertPayment(Payment payment, String errorMessage) throws DatabaseException {
+        final SqlCatalog.Shape insertShape = SqlCatalog.INSERT_PAYMENT;
+        //The total is adjusted in place rather than recalculated, so recording a payment costs the same no matter how
+        //many payments the project already has.
+        final SqlCatalog.Shape totalShape = SqlCatalog.ADD_TO_TOTAL_PAID;
+        try (PreparedStatement insert = prepare(OperationClass.WRITE, insertShape.sql(),
+                Statement.RETURN_GENERATED_KEYS);
+             PreparedStatement total = prepare(OperationClass.WRITE, totalShape)) {
+            final int updateCount = changeVersionedProject(payment.projectNumber, now -> {
+                insertShape.setLong(insert, "project", payment.projectNumber);
+                insertShape.setBigDecimal(insert, "amount", payment.amount.toBigDecimal());
+                insertShape.setDate(insert, "paidOn", Date.valueOf(payment.paidOn));
+                if (payment.reference == null) {
+                    insertShape.setNull(insert, "reference", Types.VARCHAR);
+                } else {
+                    insertShape.setString(insert, "reference", payment.reference);
+                }
+                if (payment.reversesId == 0) {
+                    insertShape.setNull(insert, "reverses", Types.BIGINT);
+                } else {
+                    insertShape.setLong(insert, "reverses", payment.reversesId);
+                }
+                insert.executeUpdate();
+                ResultSet keys = insert.getGeneratedKeys();
+                keys.next();
+                payment.id = keys.getLong(1);
+
+                totalShape.setBigDecimal(total, "amount", payment.amount.toBigDecimal());
+                totalShape.setTimestamp(total, "validFrom", now);
+                totalShape.setLong(total, "number", payment.projectNumber);
+                return total.executeUpdate();
+            });
+            if (updateCount == 0) {
+                throw new SQLException("Project " + payment.projectNumber + " doesn't exist");
+            }
+        } catch (SQLException ex) {
+            throw wrapException(errorMessage, ex, null);
+        }
+
+        audit(AuditEntry.ENTITY_PROJECT, payment.projectNumber, AuditEntry.ACTION_UPDATE, PaymentTable.TABLE_NAME,
+                payment.isReversal() ? "Payment " + payment.reversesId : null,
+                payment.amount + (payment.reference == null ? "" : " (" + payment.reference + ")"));
+        notifyProjectChanged(payment.projectNumber);
+    }
+
+    /**
+     * Returns the payments of a project in the order they were recorded, including reversals.
+     *
+     * @param projectNumber The project number.
+     * @return The payments. Empty if nothing has been paid.
+     * @throws DatabaseException If a database error occurs.
+     */
+    public List<Payment> listPayments(long projectNumber) throws DatabaseException {
+        //The self join finds the reversal of each payment (if any) so the list shows which payments are reversed.
+        final SqlCatalog.Shape shape = SqlCatalog.PAYMENTS_OF_PROJECT;
+        ArrayList<Payment> answer = new ArrayList<>();
+        try (PreparedStatement statement = prepare(OperationClass.LOOKUP, shape)) {
+            shape.setLong(statement, "number", projectNumber);
+            ResultSet results = statement.executeQuery();
+            while (results.next()) {
+                Payment payment = new Payment();
+                payment.id = results.getLong(1);
+                payment.projectNumber = results.getLong(2);
+                payment.amount = Money.fromBigDecimal(results.getBigDecimal(3));
+                payment.paidOn = results.getDate(4).toLocalDate();
+                payment.reference = results.getString(5);
+                payment.reversesId = results.getLong(6);
+                payment.reversedById = results.getLong(7);
+                answer.add(payment);
+            }
+        } catch (SQLException ex) {
+            throw wrapException("Database error while listing the payments of a project", ex, null);
+        }
+        return answer;
+    }
+
+    /**
+     * Checks that the TotalPaid of every project matches the sum of its payments. The projects are split into ranges
+     * of project numbers that are checked in parallel, each on its own connection, with one aggregate query per range.
+     *
+     * @param partitions The number of ranges to check at the same time. At most as many as the report bulkhead allows.
+     * @return The projects whose totals don't match, ordered by project number. Empty if everything agrees.
+     * @throws DatabaseException If a database error occurs.
+     */
+    public List<PaymentDiscrepancy> reconcilePayments(int partitions) throws DatabaseException {
+        long lowest;
+        long highest;
+        try (PreparedStatement statement = prepare(OperationClass.REPORT, SqlCatalog.PROJECT_NUMBER_RANGE)) {
+            ResultSet result = statement.executeQuery();
+            result.next();
+            lowest = result.getLong(1);
+            highest = result.getLong(2);
+            if (result.wasNull()) {
+                return new ArrayList<>();
+            }
+        } catch (SQLException ex) {
+            throw wrapException("Database error while reconciling payments", ex, null);
+        }
+
+        //More ranges than the report bulkhead lets run at once would only queue for it.
+        final int rangeCount = (int) Math.max(1, Math.min(Math.min(partitions,
+                OperationClass.REPORT.getMaxConcurrent()), highest - lowest + 1));
+        final long rangeSize = (highest - lowest + rangeCount) / rangeCount;
+        ExecutorService executor = Executors.newFixedThreadPool(rangeCount);
+        try {
+            ArrayList<CompletableFuture<List<PaymentDiscrepancy>>> ranges = new ArrayList<>();
+            for (long from = lowest; from <= highest; from += rangeSize) {
+                final long rangeFrom = from;
+                final long rangeTo = Math.min(highest, from + rangeSize - 1);
+                ranges.add(CompletableFuture.supplyAsync(() -> reconcileRange(rangeFrom, rangeTo), executor));
+            }
+            ArrayList<PaymentDiscrepancy> answer = new ArrayList<>();
+            for (CompletableFuture<List<PaymentDiscrepancy>> range : ranges) {
+                answer.addAll(range.join());
+            }
+            return answer;
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof SQLException) {
+                throw wrapException("Database error while reconciling payments", (SQLException) ex.getCause(), null);
+            }
+            throw new DatabaseException("Database error while reconciling payments", ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private List<PaymentDiscrepancy> reconcileRange(long from, long to) {
+        final SqlCatalog.Shape shape = SqlCatalog.PAYMENT_DISCREPANCIES;
+        ArrayList<PaymentDiscrepancy> answer = new ArrayList<>();
+        try (Connection rangeConnection = openConnection();
+             PreparedStatement statement = prepareOn(rangeConnection, OperationClass.REPORT, shape.sql())) {
+            shape.setLong(statement, "from", from);
+            shape.setLong(statement, "to", to);
+            ResultSet results = statement.executeQuery();
+            while (results.next()) {
+                PaymentDiscrepancy discrepancy = new PaymentDiscrepancy();
+                discrepancy.projectNumber = results.getLong(1);
+                discrepancy.recordedTotal = Money.fromBigDecimal(results.getBigDecimal(2));
+                discrepancy.ledgerTotal = Money.fromBigDecimal(results.getBigDecimal(3));
+                answer.add(discrepancy);
+            }
+        } catch (SQLException ex) {
+            throw new CompletionException(ex);
+        }
+        return answer;
+    }
+
     /**
      * Returns all people in the database as a list.
      *
@@ -668,14 +2193,12 @@ public class DataSource {
      * @throws DatabaseException If a database error occurs.
      */
     public List<Person> getAllPeople() throws DatabaseException{
-        StringBuilder query = new StringBuilder()
-                .append("SELECT * FROM ").append(PersonTable.TABLE_NAME).append(';');
         ArrayList<Person> answer = new ArrayList<>();
-        try (Statement statement = connection.createStatement()) {
-            ResultSet result = statement.executeQuery(query.toString());
+        try (Statement statement = createStatement(OperationClass.SEARCH)) {
+            ResultSet result = statement.executeQuery(SqlCatalog.ALL_PEOPLE.sql());
             answer = new ArrayList<>(getListOfPersonsFromResultSet(result));
         } catch (SQLException ex) {
-            throw new DatabaseException("Database error while fetching all person records.", ex);
+            throw wrapException("Database error while fetching all person records.", ex, null);
         }
         return answer;
     }
@@ -685,43 +2208,37 @@ public class DataSource {
      * name and surname fields and priorities results where the search term appears at the start of the field (i.e. the
      * user typed exactly want they wanted), thereafter returns results where the search term is somewhere in the
      * middle of the field (i.e. the user entered some approximate value).
+     * <p><br>
+     * Once the in-memory search index has been built (see {@link #buildPersonSearchIndex()}) the search is answered
+     * from the index instead, which also finds misspelled names and searches the e-mail address.
      *
      * @param searchName The string to search for
      * @return A list of possible matches for the user to pick from. Returns an empty list if nothing was found.
      * @throws DatabaseException If a database error is encountered.
      */
     public List<Person> searchPeople(String searchName) throws DatabaseException {
-        StringBuilder queryPrefix = new StringBuilder();
-        queryPrefix.append("SELECT ");
-        for (int i = 0; i <PersonTable.ALL_COLUMN_NAMES.length; i++) {
-            queryPrefix.append(PersonTable.ALL_COLUMN_NAMES[i]);
-            if (i < PersonTable.ALL_COLUMN_NAMES.length -1) {
-                queryPrefix.append(", ");
-            }
+        PersonSearchIndex index = personIndex;
+        if (index != null) {
+            return index.search(searchName, Integer.MAX_VALUE);
         }
-        queryPrefix.append(" FROM ").append(PersonTable.TABLE_NAME).append(" WHERE ");
-
-        StringBuilder firstNameExact = new StringBuilder(queryPrefix);
-        StringBuilder firstNameFuzzy = new StringBuilder(queryPrefix);
-        StringBuilder surnameExact = new StringBuilder(queryPrefix);
-        StringBuilder surnameFuzzy = new StringBuilder(queryPrefix);
 
-        firstNameExact.append(PersonTable.COL_FIRST_NAME).append(" LIKE ? ESCAPE '!';");
-        surnameExact.append(PersonTable.COL_SURNAME).append(" LIKE ? ESCAPE '!';");
-        firstNameFuzzy.append(PersonTable.COL_FIRST_NAME).append(" LIKE ? ESCAPE '!';");
-        surnameFuzzy.append(PersonTable.COL_SURNAME).append(" LIKE ? ESCAPE '!';");
+        //The exact and fuzzy searches of a column share a shape and only differ in the pattern.
+        final SqlCatalog.Shape firstName = SqlCatalog.PEOPLE_BY_FIRST_NAME;
+        final SqlCatalog.Shape surname = SqlCatalog.PEOPLE_BY_SURNAME;
+        final String exactPattern = likeSanitize(searchName) + "%";
+        final String fuzzyPattern = "_%" + exactPattern;
 
         ArrayList<Person> answer = new ArrayList<>();
         try(
-            PreparedStatement firstNameExactStatement = connection.prepareStatement(firstNameExact.toString());
-            PreparedStatement surnameExactStatement = connection.prepareStatement(surnameExact.toString());
-            PreparedStatement firstNameFuzzyStatement = connection.prepareStatement(firstNameFuzzy.toString());
-            PreparedStatement surnameFuzzyStatement = connection.prepareStatement(surnameFuzzy.toString());
+            PreparedStatement firstNameExactStatement = prepare(OperationClass.SEARCH, firstName);
+            PreparedStatement surnameExactStatement = prepare(OperationClass.SEARCH, surname);
+            PreparedStatement firstNameFuzzyStatement = prepare(OperationClass.SEARCH, firstName);
+            PreparedStatement surnameFuzzyStatement = prepare(OperationClass.SEARCH, surname);
         ) {
-            firstNameExactStatement.setString(1, likeSanitize(searchName) + "%");
-            surnameExactStatement.setString(1, likeSanitize(searchName) + "%");
-            firstNameFuzzyStatement.setString(1, "_%" + likeSanitize(searchName) + "%");
-            surnameFuzzyStatement.setString(1, "_%" + likeSanitize(searchName) + "%");
+            firstName.setString(firstNameExactStatement, "pattern", exactPattern);
+            surname.setString(surnameExactStatement, "pattern", exactPattern);
+            firstName.setString(firstNameFuzzyStatement, "pattern", fuzzyPattern);
+            surname.setString(surnameFuzzyStatement, "pattern", fuzzyPattern);
 
             ResultSet firstNameExactResult = firstNameExactStatement.executeQuery();
             ResultSet surnameExactResult = surnameExactStatement.executeQuery();
@@ -745,11 +2262,121 @@ public class DataSource {
             }
 
         } catch (SQLException ex) {
-            throw new DatabaseException("Database error while searching people records.", ex);
+            throw wrapException("Database error while searching people records.", ex, null);
         }
         return answer;
     }
 
+    /**
+     * Finds people whose first name, surname or full name starts with the given text. Unlike {@link #searchPeople}
+     * this is a single query limited to the best few matches so that it is fast enough to run on every key press.
+     * <p><br>
+     * The query can be cancelled from another thread with {@link #cancelPersonSearch()}. Once the in-memory search
+     * index has been built the matches come from the index and no query is run.
+     *
+     * @param prefix The text typed so far.
+     * @param limit The maximum number of matches to return.
+     * @return The matches ordered by surname and first name.
+     * @throws DatabaseException If a database error occurs or the query was cancelled.
+     */
+    public List<Person> searchPeopleByPrefix(String prefix, int limit) throws DatabaseException {
+        PersonSearchIndex index = personIndex;
+        if (index != null) {
+            return index.searchByPrefix(prefix, limit);
+        }
+
+        final SqlCatalog.Shape shape = SqlCatalog.PEOPLE_BY_PREFIX;
+        try (PreparedStatement statement = prepare(OperationClass.SEARCH, shape)) {
+            shape.setString(statement, "pattern", likeSanitize(prefix) + "%");
+            shape.setInt(statement, "limit", limit);
+            inFlightPersonSearch = statement;
+            ResultSet result = statement.executeQuery();
+            return getListOfPersonsFromResultSet(result);
+        } catch (SQLException ex) {
+            throw wrapException("Database error while searching people records.", ex, null);
+        } finally {
+            inFlightPersonSearch = null;
+        }
+    }
+
+    /**
+     * Cancels the {@link #searchPeopleByPrefix} query that is currently running, if there is one. Safe to call from
+     * any thread.
+     */
+    public void cancelPersonSearch() {
+        Statement statement = inFlightPersonSearch;
+        if (statement != null) {
+            try {
+                statement.cancel();
+            } catch (SQLException ex) {
+                //The query has most likely finished already.
+            }
+        }
+    }
+
+    /**
+     * Builds the in-memory person search index from a scan of the Person table. The rows are streamed from the server
+     * and added to the index one at a time rather than being collected in a list first. Until this has been called
+     * the person searches query the database directly.
+     *
+     * @return The number of people indexed.
+     * @throws DatabaseException If a database error occurs.
+     */
+    public int buildPersonSearchIndex() throws DatabaseException {
+        PersonSearchIndex index = new PersonSearchIndex();
+        synchronized (personIndexLock) {
+            changedDuringIndexBuild = new HashSet<>();
+        }
+        //The scan runs on its own connection so that it can stream in the background while the main connection is used.
+        //The people that changed during the scan are read again on the same connection for the same reason.
+        try (Connection scanConnection = openConnection()) {
+            //No query timeout: the rows are streamed, so the statement lasts as long as the whole scan.
+            try (Statement statement = guardOn(scanConnection.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY), OperationClass.REPORT)) {
+                //MySQL Connector/J only streams rows when the fetch size is Integer.MIN_VALUE. MariaDB uses a normal size.
+                statement.setFetchSize("mysql".equalsIgnoreCase(credentials.getVendor()) ? Integer.MIN_VALUE : 1000);
+                ResultSet result = statement.executeQuery(SqlCatalog.ALL_PEOPLE.sql());
+                final int[] columns = PERSON_COLUMN_POSITIONS.resolve(result);
+                while (result.next()) {
+                    index.add(getPersonFromResultSet(result, columns));
+                }
+            }
+
+            Set<Long> changed;
+            synchronized (personIndexLock) {
+                changed = changedDuringIndexBuild;
+                changedDuringIndexBuild = null;
+                personIndex = index;
+            }
+            //The scan may have read an older version of the people that were added or edited while it ran.
+            if (!changed.isEmpty()) {
+                long[] changedIDs = changed.stream().mapToLong(Long::longValue).toArray();
+                for (Person person : getPeopleByIDs(changedIDs, lookupsOn(scanConnection))) {
+                    index.add(person);
+                }
+            }
+        } catch (SQLException ex) {
+            synchronized (personIndexLock) {
+                changedDuringIndexBuild = null;
+            }
+            throw wrapException("Database error while building the person search index.", ex, null);
+        }
+        return index.size();
+    }
+
+    /**
+     * Remembers that a person was added or edited in case the search index is being built at the same time. Also
+     * makes the cached project listings stale because they show the customer's name.
+     */
+    private void notePersonChanged(long personID) {
+        summaryCache.tableChanged(PersonTable.TABLE_NAME);
+        synchronized (personIndexLock) {
+            if (changedDuringIndexBuild != null) {
+                changedDuringIndexBuild.add(personID);
+            }
+        }
+    }
+
     /**
      * Creates a list of Person object from the rows of a ResultSet returned from the Person table.
      *
@@ -759,13 +2386,26 @@ public class DataSource {
      */
     private List<Person> getListOfPersonsFromResultSet(ResultSet resultSet) throws SQLException {
         ArrayList<Person> answer = new ArrayList<>();
+        final int[] columns = PERSON_COLUMN_POSITIONS.resolve(resultSet);
         while (resultSet.next()) {
-            Person newPerson = getPersonFromResultSet(resultSet);
+            Person newPerson = getPersonFromResultSet(resultSet, columns);
             answer.add(newPerson);
         }
         return answer;
     }
 
+    /**
+     * The columns read by {@link #getPersonFromResultSet}, in the order of the PE_ constants.
+     */
+    private static final ColumnPositions PERSON_COLUMN_POSITIONS = new ColumnPositions(
+            PersonTable.COL_ID, PersonTable.COL_FIRST_NAME, PersonTable.COL_SURNAME, PersonTable.COL_PHYS_ADDR,
+            PersonTable.COL_EMAIL);
+    private static final int PE_ID = 0;
+    private static final int PE_FIRST_NAME = 1;
+    private static final int PE_SURNAME = 2;
+    private static final int PE_ADDRESS = 3;
+    private static final int PE_EMAIL = 4;
+
     /**
      * Helper method to create a Person object from a Result Set from the Person table. Normally you would not call
      * this method directly which is why it is private. This method gets called by the getListOfPersonsFromResultSet
@@ -773,16 +2413,17 @@ public class DataSource {
      *
      *
      * @param resultSet A ResultSet from the Person table pointing at a valid row.
+     * @param columns The positions of the columns from {@code PERSON_COLUMN_POSITIONS}.
      * @return A Person object created from the information returned.
-     * @throws SQLException If the column names don't match (i.e. the ResultSet didn't come from the Person table.
+     * @throws SQLException If some DB access error occurs.
      */
-    private Person getPersonFromResultSet(ResultSet resultSet) throws SQLException{
+    private Person getPersonFromResultSet(ResultSet resultSet, int[] columns) throws SQLException{
         Person answer = new Person();
-        answer.id = resultSet.getLong(PersonTable.COL_ID);
-        answer.firstName = resultSet.getString(PersonTable.COL_FIRST_NAME);
-        answer.surname = resultSet.getString(PersonTable.COL_SURNAME);
-        answer.address = resultSet.getString(PersonTable.COL_PHYS_ADDR);
-        answer.email = resultSet.getString(PersonTable.COL_EMAIL);
+        answer.id = resultSet.getLong(columns[PE_ID]);
+        answer.firstName = resultSet.getString(columns[PE_FIRST_NAME]);
+        answer.surname = resultSet.getString(columns[PE_SURNAME]);
+        answer.address = resultSet.getString(columns[PE_ADDRESS]);
+        answer.email = resultSet.getString(columns[PE_EMAIL]);
 
         return answer;
     }
@@ -797,16 +2438,30 @@ public class DataSource {
      * @throws DatabaseException If an error occurs with the database.
      */
     public boolean updatePerson(Person personToUpdate, String column, String newValue) throws DatabaseException {
-        String query = new StringBuilder()
-                .append("UPDATE ").append(PersonTable.TABLE_NAME).append(" SET ").append(column)
-                .append(" = ? WHERE ").append(PersonTable.COL_ID)
-                .append(" = ").append(personToUpdate.id).append(';').toString();
+        final SqlCatalog.Shape shape = SqlCatalog.updatePerson(column);
         int updateCount = 0;
-        try (PreparedStatement statement = connection.prepareStatement(query)) {
-            statement.setString(1, newValue);
-            updateCount = statement.executeUpdate();
+        try (PreparedStatement statement = prepare(OperationClass.WRITE, shape)) {
+            shape.setString(statement, "value", newValue);
+            shape.setLong(statement, "id", personToUpdate.id);
+            updateCount = inTransaction(() -> {
+                final int count = statement.executeUpdate();
+                if (count > 0) {
+                    logChanges(connection, PersonTable.TABLE_NAME, personToUpdate.id);
+                }
+                return count;
+            });
         } catch (SQLException ex) {
-            throw new DatabaseException("Database error while update a person record", ex);
+            throw wrapException("Database error while update a person record", ex, null);
+        }
+
+        notePersonChanged(personToUpdate.id);
+        PersonSearchIndex index = personIndex;
+        if (updateCount > 0) {
+            audit(AuditEntry.ENTITY_PERSON, personToUpdate.id, AuditEntry.ACTION_UPDATE, column,
+                    getPersonField(personToUpdate, column), newValue);
+        }
+        if (index != null && updateCount > 0) {
+            index.update(personToUpdate.id, column, newValue);
         }
         return updateCount > 0;
     }
@@ -842,9 +2497,24 @@ public class DataSource {
 
     /**
      * Closes the connection to the database. Call this function at the end of the program
+     * @return The number of changes that could not be written to the audit trail. Normally 0.
      * @throws SQLException If an error occurs with the database connection.
      */
-    public void close() throws SQLException {
+    public long close() throws SQLException {
+        if (changeLogPoller != null) {
+            changeLogPoller.stop();
+        }
+        long droppedAuditEntries = 0;
+        if (auditTrail != null) {
+            auditTrail.close();
+            droppedAuditEntries = auditTrail.getDroppedCount();
+        }
+        for (PreparedStatement statement : updateStatements.values()) {
+            statement.close();
+        }
+        updateStatements.clear();
+        closeDeadlineConnection();
         connection.close();
+        return droppedAuditEntries;
     }
 }
@@ -40,6 +40,10 @@ public class DatabaseCredentials {
         return connectionURL.toString();
     }
 
+    public String getVendor() {
+        return vendor;
+    }
+
     public String getUser() {
         return user;
     }
@@ -0,0 +1,84 @@
+package database;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the statements run on the main connection, their latency and the rows they return, per {@link DataSource}
+ * method. The counters are {@link LongAdder}s, so recording is cheap and lock-free, and they are only added up when
+ * the metrics are scraped.
+ */
+class DatabaseMetrics {
+    private static final String DATA_SOURCE_CLASS = DataSource.class.getName();
+    private static final StackWalker STACK_WALKER = StackWalker.getInstance();
+
+    /**
+     * The counters of one DataSource method.
+     */
+    static class MethodStats {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rows = new LongAdder();
+    }
+
+    private final ConcurrentHashMap<String, MethodStats> methods = new ConcurrentHashMap<>();
+
+    MethodStats forMethod(String method) {
+        return methods.computeIfAbsent(method, key -> new MethodStats());
+    }
+
+    /**
+     * Finds the DataSource method that was called from outside the class and led to the current statement. Lambdas
+     * and helpers inside DataSource are attributed to the public method that used them. Walks the stack, so it is
+     * called once when a statement is created rather than each time it is run.
+     *
+     * @return The method name, or "unknown" if the statement wasn't run from DataSource.
+     */
+    static String callingMethod() {
+        return STACK_WALKER.walk(frames -> {
+            String outermost = null;
+            for (StackWalker.StackFrame frame : (Iterable<StackWalker.StackFrame>) frames::iterator) {
+                if (frame.getClassName().equals(DATA_SOURCE_CLASS)) {
+                    outermost = frame.getMethodName();
+                } else if (outermost != null) {
+                    break;
+                }
+            }
+            return outermost == null ? "unknown" : outermost;
+        });
+    }
+
+    /**
+     * Writes the statement counters in the Prometheus text format.
+     */
+    void writeTo(StringBuilder out) {
+        //Sorted so that the output is stable between scrapes.
+        TreeMap<String, MethodStats> sorted = new TreeMap<>(methods);
+
+        out.append("# HELP pms_db_statement_duration_seconds Time taken to run the statements of each DataSource method.\n");
+        out.append("# TYPE pms_db_statement_duration_seconds histogram\n");
+        for (Map.Entry<String, MethodStats> entry : sorted.entrySet()) {
+            entry.getValue().latency.writeTo(out, "pms_db_statement_duration_seconds", methodLabel(entry.getKey()));
+        }
+
+        out.append("# HELP pms_db_statement_errors_total Statements of each DataSource method that failed.\n");
+        out.append("# TYPE pms_db_statement_errors_total counter\n");
+        for (Map.Entry<String, MethodStats> entry : sorted.entrySet()) {
+            out.append("pms_db_statement_errors_total{").append(methodLabel(entry.getKey())).append("} ")
+                    .append(entry.getValue().errors.sum()).append('\n');
+        }
+
+        out.append("# HELP pms_db_rows_fetched_total Rows read from the results of each DataSource method.\n");
+        out.append("# TYPE pms_db_rows_fetched_total counter\n");
+        for (Map.Entry<String, MethodStats> entry : sorted.entrySet()) {
+            out.append("pms_db_rows_fetched_total{").append(methodLabel(entry.getKey())).append("} ")
+                    .append(entry.getValue().rows.sum()).append('\n');
+        }
+    }
+
+    private static String methodLabel(String method) {
+        return "method=\"" + method + '"';
+    }
+}
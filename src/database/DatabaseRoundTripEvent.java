@@ -0,0 +1,44 @@
+package database;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A JDK Flight Recorder event for each statement run on the main connection. The event lasts from the execute call
+ * until the last row has been read (or the result set is closed). It is only created when a recording that enables
+ * it is running.
+ */
+@Name("pms.DatabaseRoundTrip")
+@Label("Database Round Trip")
+@Category({"PMS", "Database"})
+@Description("A statement run by the DataSource and the reading of its results")
+@StackTrace(false)
+class DatabaseRoundTripEvent extends Event {
+    @Label("Operation")
+    @Description("The DataSource method that ran the statement")
+    String operation;
+
+    @Label("Operation Class")
+    String operationClass;
+
+    @Label("SQL Shape")
+    @Description("The SQL with its literal values replaced by '?'")
+    String sqlShape;
+
+    @Label("Rows")
+    @Description("Rows read from the result or, for an update, the rows changed")
+    long rows;
+
+    @Label("Connection Wait")
+    @Description("Time spent waiting for a free slot in the bulkhead of the operation class")
+    @Timespan(Timespan.NANOSECONDS)
+    long connectionWait;
+
+    @Label("Succeeded")
+    boolean succeeded;
+}
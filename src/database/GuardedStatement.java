@@ -0,0 +1,210 @@
+package database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Wraps a JDBC statement so that every execute call goes through the {@link Bulkhead} and {@link CircuitBreaker} of
+ * the statement's {@link OperationClass} and is counted in the {@link DatabaseMetrics}. The result sets it returns are
+ * {@link CountingResultSet}s so that the rows read from them are counted. All the other calls are passed straight to
+ * the statement. The DataSource method the metrics are recorded under is looked up once, when the statement is
+ * created.
+ * <p><br>
+ * While a JFR recording that enables it is running, each execute call also emits a {@link DatabaseRoundTripEvent}.
+ * The event of a query is committed when its rows have all been read, or when its result set or the statement is
+ * closed or the statement is run again, whichever comes first. The statements and rows are also counted in the
+ * {@link ActionTrace} of the calling thread if it has one.
+ */
+class GuardedStatement implements InvocationHandler {
+    //String and number literals in SQL. Replaced by '?' to get the shape of a statement.
+    private static final Pattern LITERALS = Pattern.compile("'(?:[^']|'')*'|\\b\\d+(?:\\.\\d+)?\\b");
+    //The shapes of the SQL seen so far, so that the statements prepared on every call aren't matched again each time.
+    private static final ConcurrentHashMap<String, String> SHAPES = new ConcurrentHashMap<>();
+    //Enough for all the catalog and listing shapes. Other SQL is matched each time rather than growing the map.
+    private static final int MAX_SHAPES = 512;
+
+    private final Statement statement;
+    //The SQL of a prepared statement. Null for a plain statement, which is given its SQL when it is executed.
+    private final String sql;
+    //The shape of the prepared statement's SQL, worked out once. Null for a plain statement.
+    private final String sqlShape;
+    private final OperationClass operation;
+    private final Bulkhead bulkhead;
+    private final CircuitBreaker breaker;
+    //The DataSource method that created the statement and its counters.
+    private final String callingMethod;
+    private final DatabaseMetrics.MethodStats stats;
+    //The read of the last result set, until its event has been committed.
+    private PendingRead pendingRead;
+
+    /**
+     * The rows read from a result set and the event, if there is one, that is committed when the read ends.
+     */
+    static class PendingRead {
+        final DatabaseRoundTripEvent event;
+        long rows;
+
+        PendingRead(DatabaseRoundTripEvent event) {
+            this.event = event;
+        }
+
+        void commit() {
+            //The event is committed only once, whichever way the read ends first.
+            if (event != null && !event.succeeded) {
+                event.rows = rows;
+                event.succeeded = true;
+                event.commit();
+            }
+        }
+    }
+
+    private GuardedStatement(Statement statement, String sql, OperationClass operation, Bulkhead bulkhead,
+                             CircuitBreaker breaker, DatabaseMetrics metrics) {
+        this.statement = statement;
+        this.sql = sql;
+        this.sqlShape = sql != null ? shapeOf(sql) : null;
+        this.operation = operation;
+        this.bulkhead = bulkhead;
+        this.breaker = breaker;
+        callingMethod = DatabaseMetrics.callingMethod();
+        stats = metrics.forMethod(callingMethod);
+    }
+
+    static PreparedStatement wrap(PreparedStatement statement, String sql, OperationClass operation,
+                                  Bulkhead bulkhead, CircuitBreaker breaker, DatabaseMetrics metrics) {
+        return (PreparedStatement) Proxy.newProxyInstance(GuardedStatement.class.getClassLoader(),
+                new Class<?>[] {PreparedStatement.class},
+                new GuardedStatement(statement, sql, operation, bulkhead, breaker, metrics));
+    }
+
+    static Statement wrap(Statement statement, OperationClass operation, Bulkhead bulkhead, CircuitBreaker breaker,
+                          DatabaseMetrics metrics) {
+        return (Statement) Proxy.newProxyInstance(GuardedStatement.class.getClassLoader(),
+                new Class<?>[] {Statement.class},
+                new GuardedStatement(statement, null, operation, bulkhead, breaker, metrics));
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (!method.getName().startsWith("execute")) {
+            if (method.getName().equals("close")) {
+                //Closing the statement closes its result set, which may not have been read to the end or closed.
+                endPendingRead();
+            }
+            return invokeOn(statement, method, args);
+        }
+        //Running the statement again closes its last result set.
+        endPendingRead();
+
+        //An open breaker fails straight away without waiting for the bulkhead.
+        breaker.beforeCall();
+        final long waitStart = System.nanoTime();
+        try {
+            bulkhead.acquire();
+        } catch (SQLException ex) {
+            breaker.onAborted();
+            throw ex;
+        }
+        final ActionTrace trace = ActionTrace.current();
+        DatabaseRoundTripEvent event = new DatabaseRoundTripEvent();
+        //A plain statement is given its SQL when it is run, so only its shape has to be worked out here.
+        final String sqlShape = this.sqlShape != null || (trace == null && !event.isEnabled()) ? this.sqlShape
+                : shapeOf(args != null && args.length > 0 ? (String) args[0] : "");
+        if (trace != null) {
+            trace.statementExecuted(sqlShape);
+        }
+        if (event.isEnabled()) {
+            event.begin();
+            event.operation = callingMethod;
+            event.operationClass = operation.name();
+            event.sqlShape = sqlShape;
+            event.connectionWait = System.nanoTime() - waitStart;
+        } else {
+            event = null;
+        }
+
+        final long start = System.nanoTime();
+        try {
+            Object result = invokeOn(statement, method, args);
+            breaker.onSuccess();
+            if (result instanceof ResultSet) {
+                //The event ends when the rows have been read.
+                pendingRead = new PendingRead(event);
+                result = new CountingResultSet((ResultSet) result, stats, trace, pendingRead);
+            } else if (event != null) {
+                event.rows = rowsChanged(result);
+                event.succeeded = true;
+                event.commit();
+            }
+            return result;
+        } catch (SQLException ex) {
+            stats.errors.increment();
+            breaker.onFailure(ex);
+            commitFailed(event);
+            throw ex;
+        } catch (RuntimeException | Error ex) {
+            stats.errors.increment();
+            breaker.onAborted();
+            commitFailed(event);
+            throw ex;
+        } finally {
+            stats.latency.record(System.nanoTime() - start);
+            bulkhead.release();
+        }
+    }
+
+    private void endPendingRead() {
+        if (pendingRead != null) {
+            pendingRead.commit();
+            pendingRead = null;
+        }
+    }
+
+    private static void commitFailed(DatabaseRoundTripEvent event) {
+        if (event != null) {
+            event.succeeded = false;
+            event.commit();
+        }
+    }
+
+    private static long rowsChanged(Object result) {
+        if (result instanceof Integer || result instanceof Long) {
+            return ((Number) result).longValue();
+        }
+        if (result instanceof int[]) {
+            long total = 0;
+            for (int count : (int[]) result) {
+                total += Math.max(count, 0);
+            }
+            return total;
+        }
+        return 0;
+    }
+
+    static String shapeOf(String sql) {
+        String answer = SHAPES.get(sql);
+        if (answer == null) {
+            answer = LITERALS.matcher(sql).replaceAll("?");
+            if (SHAPES.size() < MAX_SHAPES) {
+                SHAPES.putIfAbsent(sql, answer);
+            }
+        }
+        return answer;
+    }
+
+    private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException ex) {
+            throw ex.getCause();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package database;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A latency histogram with fixed buckets. Recording only increments two {@link LongAdder}s, so it is cheap and doesn't
+ * lock even when several threads record at once. The buckets are only added up when the histogram is written out.
+ */
+class LatencyHistogram {
+    //The upper bounds of the buckets in milliseconds. Values above the last bound are only counted in +Inf.
+    private static final double[] BUCKET_BOUNDS_MILLIS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+    private static final long[] BUCKET_BOUNDS_NANOS = new long[BUCKET_BOUNDS_MILLIS.length];
+    static {
+        for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+            BUCKET_BOUNDS_NANOS[i] = (long) (BUCKET_BOUNDS_MILLIS[i] * TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    //Non-cumulative counts. The last one is for the values above the largest bound.
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long nanos) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_NANOS.length && nanos > BUCKET_BOUNDS_NANOS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Writes the histogram in the Prometheus text format, in seconds.
+     *
+     * @param out Where to write it.
+     * @param name The metric name (without the _bucket, _sum and _count suffixes).
+     * @param labels The labels of this histogram, e.g. {@code method="getAllPeople"}. Can be empty.
+     */
+    void writeTo(StringBuilder out, String name, String labels) {
+        final String separator = labels.isEmpty() ? "" : ",";
+        long cumulative = 0;
+        for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+            cumulative += buckets[i].sum();
+            out.append(name).append("_bucket{").append(labels).append(separator).append("le=\"")
+                    .append(BUCKET_BOUNDS_MILLIS[i] / 1000).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += buckets[BUCKET_BOUNDS_MILLIS.length].sum();
+        out.append(name).append("_bucket{").append(labels).append(separator).append("le=\"+Inf\"} ")
+                .append(cumulative).append('\n');
+        out.append(name).append("_sum{").append(labels).append("} ")
+                .append(sumNanos.sum() / 1e9).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ").append(cumulative).append('\n');
+    }
+}
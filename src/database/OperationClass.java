@@ -0,0 +1,46 @@
+package database;
+
+/**
+ * The kinds of database operations, grouped by how long the user can be expected to wait for them. Each has a
+ * query timeout in seconds that can be changed with the system property {@code pms.timeout.<name>}, for example
+ * {@code -Dpms.timeout.search=30}.
+ * <p><br>
+ * Each kind also has its own {@link CircuitBreaker} and {@link Bulkhead} in the {@link DataSource}, so that a
+ * problem with the reports doesn't stop the lookups and vice versa. The bulkhead sizes are the number of statements
+ * of the kind that can run at the same time and how long a statement waits for a free slot.
+ */
+enum OperationClass {
+    //Fetching a single record by its key.
+    LOOKUP(5, 4, 1000),
+    //Project listings and searches. The fuzzy searches can scan the whole table.
+    SEARCH(10, 2, 1000),
+    //Inserts, updates and deletes. Mostly held up by lock waits.
+    WRITE(15, 2, 2000),
+    //Reports and maintenance that read or change many rows. These can wait for a free slot.
+    REPORT(120, 2, 120_000);
+
+    private final int timeoutSeconds;
+    private final int maxConcurrent;
+    private final long maxWaitMillis;
+
+    OperationClass(int defaultTimeoutSeconds, int maxConcurrent, long maxWaitMillis) {
+        timeoutSeconds = Integer.getInteger("pms.timeout." + name().toLowerCase(), defaultTimeoutSeconds);
+        this.maxConcurrent = maxConcurrent;
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * @return The query timeout in seconds. 0 means no timeout.
+     */
+    int getTimeoutSeconds() {
+        return timeoutSeconds;
+    }
+
+    int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+}
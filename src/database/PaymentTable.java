@@ -0,0 +1,104 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Payments table is the ledger of the amounts paid towards each project. Projects.TotalPaid is kept equal to the
+ * sum of a project's payments so that the amount paid to-date can still be read without adding them up.
+ * <p><br>
+ * Payments are never edited or deleted. A payment is reversed by adding a second payment of the opposite amount that
+ * refers back to it.
+ * <p><br>
+ * The project number isn't a foreign key because the payments stay here when their project is moved to the
+ * ProjectsArchive table.
+ */
+public class PaymentTable {
+
+    static public final String TABLE_NAME = "Payments";
+
+    static public final String COL_ID = "ID";
+    static public final String COL_PROJECT = "ProjectNum";
+    static public final String COL_AMOUNT = "Amount";
+    static public final String COL_PAID_ON = "PaidOn";
+    static public final String COL_REFERENCE = "Reference";
+    static public final int COL_REFERENCE_SIZE = 80;
+    static public final String COL_REVERSES = "ReversesID";
+    static public final String COL_RECORDED_AT = "RecordedAt";
+
+    //The foreign key to the Projects table that tables created before finalised projects were archived still have.
+    static public final String PROJECT_FOREIGN_KEY_NAME = TABLE_NAME + "_Project_fk";
+
+    static public final String[] ALL_COLUMN_NAMES = {
+        COL_ID,
+        COL_PROJECT,
+        COL_AMOUNT,
+        COL_PAID_ON,
+        COL_REFERENCE,
+        COL_REVERSES,
+        COL_RECORDED_AT
+    };
+
+    static public final String OPENING_BALANCE_REFERENCE = "Opening balance";
+
+    /**
+     * Generates the SQL to create the Payments table. The unique key on the reversed payment makes sure a payment can
+     * only be reversed once.
+     *
+     * @return An SQL query to insert the table into the database.
+     */
+    public static String getCreationQuery() {
+        final String padding = "    ";
+        StringBuilder query = new StringBuilder();
+        query.append("CREATE TABLE ").append(TABLE_NAME).append('\n')
+                .append("(\n")
+                .append(padding).append(COL_ID).append(" BIGINT UNSIGNED AUTO_INCREMENT,\n")
+                .append(padding).append(COL_PROJECT).append(" INT UNSIGNED NOT NULL,\n")
+                .append(padding).append(COL_AMOUNT).append(" DECIMAL(20, 2) NOT NULL,\n")
+                .append(padding).append(COL_PAID_ON).append(" DATE NOT NULL,\n")
+                .append(padding).append(COL_REFERENCE).append(" VARCHAR(").append(COL_REFERENCE_SIZE).append(") NULL,\n")
+                .append(padding).append(COL_REVERSES).append(" BIGINT UNSIGNED NULL,\n")
+                .append(padding).append(COL_RECORDED_AT).append(" DATETIME DEFAULT CURRENT_TIMESTAMP NOT NULL,\n")
+                .append(padding).append("CONSTRAINT ").append(TABLE_NAME).append("_pk\n")
+                .append(padding).append(padding).append("PRIMARY KEY (").append(COL_ID).append("),\n")
+                .append(padding).append("CONSTRAINT ").append(TABLE_NAME).append("_Reverses_uk\n")
+                .append(padding).append(padding).append("UNIQUE (").append(COL_REVERSES).append("),\n")
+                .append(padding).append("INDEX ").append(TABLE_NAME).append("_Project_idx (")
+                .append(COL_PROJECT).append(", ").append(COL_ID).append(")\n")
+                .append(");");
+        return query.toString();
+    }
+
+    /**
+     * Generates the SQL that drops the foreign key to the Projects table from a Payments table created before
+     * finalised projects were archived.
+     *
+     * @return An SQL query to alter the table.
+     */
+    public static String getDropProjectForeignKeyQuery() {
+        return new StringBuilder()
+                .append("ALTER TABLE ").append(TABLE_NAME).append(" DROP FOREIGN KEY ")
+                .append(PROJECT_FOREIGN_KEY_NAME).toString();
+    }
+
+    /**
+     * Generates the SQL that turns the TotalPaid amount already stored on each project into an opening balance
+     * payment, so that the ledger agrees with the totals from the start.
+     *
+     * @return A List of Strings containing INSERT queries.
+     */
+    public static List<String> getInitialDataQueries() {
+        ArrayList<String> answer = new ArrayList<>();
+        answer.add(new StringBuilder()
+                .append("INSERT INTO ").append(TABLE_NAME).append(" (")
+                .append(COL_PROJECT).append(", ")
+                .append(COL_AMOUNT).append(", ")
+                .append(COL_PAID_ON).append(", ")
+                .append(COL_REFERENCE).append(") SELECT ")
+                .append(ProjectTable.COL_NUMBER).append(", ")
+                .append(ProjectTable.COL_TOTAL_PAID).append(", CURDATE(), '")
+                .append(OPENING_BALANCE_REFERENCE).append("' FROM ").append(ProjectTable.TABLE_NAME)
+                .append(" WHERE ").append(ProjectTable.COL_TOTAL_PAID).append(" <> 0;").toString());
+        return answer;
+    }
+}
@@ -0,0 +1,144 @@
+package database;
+
+import MainProgram.Person;
+
+import java.util.Arrays;
+
+/**
+ * A small identity map from Person ID to Person object. It is used while loading a set of projects so that a person
+ * who is attached to many projects is only created once and every project shares the same Person object.
+ * <p><br>
+ * The map uses open addressing with linear probing over a primitive {@code long[]} so that the keys are never boxed.
+ * An ID of 0 is used to mark empty slots. This is safe because the Person table's IDs are auto-incremented from 1.
+ */
+class PersonIdentityMap {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[] keys;
+    private Person[] values;
+    private int size;
+
+    PersonIdentityMap() {
+        keys = new long[DEFAULT_CAPACITY];
+        values = new Person[DEFAULT_CAPACITY];
+    }
+
+    /**
+     * Returns the Person with the given ID if it has been loaded already.
+     *
+     * @param id The Person ID
+     * @return The Person object or {@code null} if it isn't in the map.
+     */
+    Person get(long id) {
+        if (id == 0) return null;
+        int mask = keys.length - 1;
+        int slot = hash(id) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == id) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Adds a Person to the map, replacing any Person that was there with the same ID.
+     *
+     * @param person The Person to add. Must have a valid (non-zero) ID.
+     */
+    void put(Person person) {
+        if (person.id == 0) {
+            throw new IllegalArgumentException("Cannot add a person without a database ID to the identity map");
+        }
+        if ((size + 1) * 4 > keys.length * 3) {
+            resize();
+        }
+        if (insert(keys, values, person.id, person)) {
+            ++size;
+        }
+    }
+
+    /**
+     * Removes the Person with the given ID from the map.
+     *
+     * @param id The Person ID
+     * @return {@code true} if the person was in the map.
+     */
+    boolean remove(long id) {
+        if (id == 0) return false;
+        int mask = keys.length - 1;
+        int slot = hash(id) & mask;
+        while (keys[slot] != id) {
+            if (keys[slot] == 0) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = 0;
+        values[slot] = null;
+        --size;
+
+        //Re-insert the rest of the cluster so that later entries can still be found by linear probing.
+        slot = (slot + 1) & mask;
+        while (keys[slot] != 0) {
+            long movedKey = keys[slot];
+            Person movedValue = values[slot];
+            keys[slot] = 0;
+            values[slot] = null;
+            insert(keys, values, movedKey, movedValue);
+            slot = (slot + 1) & mask;
+        }
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Inserts into the given arrays.
+     *
+     * @return {@code true} if a new slot was used. {@code false} if an existing entry was replaced.
+     */
+    private static boolean insert(long[] keys, Person[] values, long id, Person person) {
+        int mask = keys.length - 1;
+        int slot = hash(id) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == id) {
+                values[slot] = person;
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = id;
+        values[slot] = person;
+        return true;
+    }
+
+    private void resize() {
+        long[] newKeys = new long[keys.length * 2];
+        Person[] newValues = new Person[values.length * 2];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                insert(newKeys, newValues, keys[i], values[i]);
+            }
+        }
+        keys = newKeys;
+        values = newValues;
+    }
+
+    /**
+     * Mixes the bits of the ID so that sequential IDs spread out over the table.
+     */
+    private static int hash(long id) {
+        long h = id * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
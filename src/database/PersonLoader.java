@@ -0,0 +1,79 @@
+package database;
+
+import MainProgram.Person;
+
+import java.util.Arrays;
+
+/**
+ * Resolves the people referenced by a set of projects on demand. When projects are loaded their person IDs are queued
+ * here instead of being fetched straight away. The first time any of those people is needed, every queued ID is
+ * fetched together with a single {@code WHERE ID IN (...)} query, so touching the engineer of each project in a list
+ * of 300 projects costs one query rather than 300.
+ * <p><br>
+ * Loaded people are kept in an identity map so that each ID resolves to one shared Person object.
+ */
+public class PersonLoader {
+    private final DataSource dataSource;
+    private final PersonIdentityMap people = new PersonIdentityMap();
+
+    private long[] pendingIDs = new long[16];
+    private int pendingCount = 0;
+
+    PersonLoader(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Queues a person ID to be fetched with the next batch.
+     *
+     * @param id The Person ID. 0 (no person) is ignored.
+     */
+    void enqueue(long id) {
+        if (id == 0 || people.get(id) != null) {
+            return;
+        }
+        if (pendingCount == pendingIDs.length) {
+            pendingIDs = Arrays.copyOf(pendingIDs, pendingCount * 2);
+        }
+        pendingIDs[pendingCount++] = id;
+    }
+
+    /**
+     * Returns the Person with the given ID, fetching it (and every other queued ID) if it hasn't been loaded yet.
+     *
+     * @param id The Person ID.
+     * @return The Person object or {@code null} if the ID is 0 or the person doesn't exist.
+     * @throws DatabaseException If a database error occurs while fetching the batch.
+     */
+    public Person get(long id) throws DatabaseException {
+        if (id == 0) return null;
+
+        Person answer = people.get(id);
+        if (answer == null) {
+            enqueue(id);
+            loadPending();
+            answer = people.get(id);
+        }
+        return answer;
+    }
+
+    /**
+     * Adds a person that is already in memory so that it is shared rather than fetched again.
+     *
+     * @param person A Person with a valid database ID.
+     */
+    public void add(Person person) {
+        people.put(person);
+    }
+
+    private void loadPending() throws DatabaseException {
+        if (pendingCount == 0) {
+            return;
+        }
+        long[] batch = Arrays.copyOf(pendingIDs, pendingCount);
+        pendingCount = 0;
+        for (Person person : dataSource.getPeopleByIDs(batch)) {
+            people.put(person);
+        }
+    }
+}
@@ -0,0 +1,469 @@
+package database;
+
+import MainProgram.Person;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An in-memory search index over the first name, surname and e-mail of every person. It answers the person searches
+ * without going to the database:
+ * <ul>
+ *     <li>Prefix matches use a compressed prefix trie (radix tree) of the lower-cased name and e-mail tokens.</li>
+ *     <li>Matches in the middle of a token and misspelled names ("Benites" for "Benitez") use an index of the
+ *     3-character sequences (trigrams) in each token. Candidates that share enough trigrams with the search term are
+ *     then ranked by their edit distance to it, up to a small maximum distance.</li>
+ * </ul>
+ * The index is built once from a full scan of the Person table and is then kept up to date by
+ * {@link DataSource#insertPerson} and {@link DataSource#updatePerson}. It is safe to use from several threads.
+ */
+class PersonSearchIndex {
+    //Match quality, lower is better. Used to rank the results.
+    private static final int PREFIX_SCORE = 0;
+    private static final int INFIX_SCORE = 1;
+    private static final int FUZZY_SCORE = 2;
+    private static final char PADDING = '$';
+
+    private final TrieNode root = new TrieNode("");
+    private final HashMap<String, LongList> trigrams = new HashMap<>();
+    //The index keeps its own copy of each person so that callers changing their objects can't corrupt it.
+    private final PersonIdentityMap people = new PersonIdentityMap();
+
+    /**
+     * Adds a person to the index (or re-indexes them if they are already in it).
+     *
+     * @param person The person to add. Must have a valid database ID.
+     */
+    synchronized void add(Person person) {
+        remove(person.id);
+        Person snapshot = copyOf(person);
+        people.put(snapshot);
+        HashSet<String> personTrigrams = new HashSet<>();
+        for (String token : tokensOf(snapshot)) {
+            root.insert(token, 0, snapshot.id);
+            addTrigrams(token, personTrigrams);
+        }
+        for (String trigram : personTrigrams) {
+            trigrams.computeIfAbsent(trigram, key -> new LongList()).add(snapshot.id);
+        }
+    }
+
+    /**
+     * Changes one field of a person that is already in the index.
+     *
+     * @param id The Person ID.
+     * @param column The Person table column that changed.
+     * @param newValue The new value.
+     */
+    synchronized void update(long id, String column, String newValue) {
+        Person current = people.get(id);
+        if (current == null) {
+            return;
+        }
+        Person changed = copyOf(current);
+        switch (column) {
+            case PersonTable.COL_FIRST_NAME -> changed.firstName = newValue;
+            case PersonTable.COL_SURNAME -> changed.surname = newValue;
+            case PersonTable.COL_EMAIL -> changed.email = newValue;
+            case PersonTable.COL_PHYS_ADDR -> changed.address = newValue;
+            default -> throw new IllegalArgumentException("Unknown Person column: " + column);
+        }
+        add(changed);
+    }
+
+    /**
+     * Removes a person from the index. Does nothing if they aren't in it.
+     */
+    synchronized void remove(long id) {
+        Person existing = people.get(id);
+        if (existing == null) {
+            return;
+        }
+        HashSet<String> personTrigrams = new HashSet<>();
+        for (String token : tokensOf(existing)) {
+            root.remove(token, 0, id);
+            addTrigrams(token, personTrigrams);
+        }
+        for (String trigram : personTrigrams) {
+            LongList ids = trigrams.get(trigram);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.size() == 0) {
+                    trigrams.remove(trigram);
+                }
+            }
+        }
+        people.remove(id);
+    }
+
+    synchronized int size() {
+        return people.size();
+    }
+
+    /**
+     * Finds people where every word of the query is the start of one of their names or e-mail address, e.g. "jam co"
+     * finds Jamie Cohen.
+     *
+     * @param query The text to search for.
+     * @param limit The maximum number of results.
+     * @return Copies of the matching people, ordered by surname and first name.
+     */
+    synchronized List<Person> searchByPrefix(String query, int limit) {
+        HashMap<Long, Integer> scores = null;
+        for (String word : wordsOf(query)) {
+            HashMap<Long, Integer> wordScores = new HashMap<>();
+            root.collectPrefix(word, 0, wordScores);
+            scores = combine(scores, wordScores);
+        }
+        return rankedResults(scores, limit);
+    }
+
+    /**
+     * Finds people matching the query, allowing for words that are in the middle of a name and for small spelling
+     * mistakes. Prefix matches are ranked first, then matches in the middle of a name and then near matches ordered by
+     * their edit distance.
+     *
+     * @param query The text to search for.
+     * @param limit The maximum number of results.
+     * @return Copies of the matching people, best matches first.
+     */
+    synchronized List<Person> search(String query, int limit) {
+        HashMap<Long, Integer> scores = null;
+        for (String word : wordsOf(query)) {
+            HashMap<Long, Integer> wordScores = new HashMap<>();
+            root.collectPrefix(word, 0, wordScores);
+            collectInfixAndFuzzy(word, wordScores);
+            scores = combine(scores, wordScores);
+        }
+        return rankedResults(scores, limit);
+    }
+
+    /**
+     * Uses the trigram index to find tokens that contain the word or are within a small edit distance of it.
+     */
+    private void collectInfixAndFuzzy(String word, Map<Long, Integer> wordScores) {
+        if (word.length() < 3) {
+            return;
+        }
+        HashSet<String> wordTrigrams = new HashSet<>();
+        addTrigrams(word, wordTrigrams);
+
+        //Each edit changes at most 3 trigrams, so a token within maxDistance edits must still share this many.
+        final int maxDistance = word.length() <= 4 ? 1 : 2;
+        final int minShared = Math.max(1, wordTrigrams.size() - 3 * maxDistance);
+
+        HashMap<Long, int[]> sharedCounts = new HashMap<>();
+        for (String trigram : wordTrigrams) {
+            LongList ids = trigrams.get(trigram);
+            if (ids == null) {
+                continue;
+            }
+            for (int i = 0; i < ids.size(); i++) {
+                sharedCounts.computeIfAbsent(ids.get(i), key -> new int[1])[0]++;
+            }
+        }
+
+        for (Map.Entry<Long, int[]> candidate : sharedCounts.entrySet()) {
+            if (candidate.getValue()[0] < minShared) {
+                continue;
+            }
+            final long id = candidate.getKey();
+            int best = Integer.MAX_VALUE;
+            for (String token : tokensOf(people.get(id))) {
+                if (token.contains(word)) {
+                    best = INFIX_SCORE;
+                    break;
+                }
+                int distance = boundedEditDistance(word, token, maxDistance);
+                if (distance <= maxDistance) {
+                    best = Math.min(best, FUZZY_SCORE + distance);
+                }
+            }
+            if (best != Integer.MAX_VALUE) {
+                wordScores.merge(id, best, Math::min);
+            }
+        }
+    }
+
+    /**
+     * Keeps only the people matched by every word so far and adds up their scores.
+     */
+    private static HashMap<Long, Integer> combine(HashMap<Long, Integer> scores, HashMap<Long, Integer> wordScores) {
+        if (scores == null) {
+            return wordScores;
+        }
+        HashMap<Long, Integer> answer = new HashMap<>();
+        for (Map.Entry<Long, Integer> entry : scores.entrySet()) {
+            Integer wordScore = wordScores.get(entry.getKey());
+            if (wordScore != null) {
+                answer.put(entry.getKey(), entry.getValue() + wordScore);
+            }
+        }
+        return answer;
+    }
+
+    private List<Person> rankedResults(HashMap<Long, Integer> scores, int limit) {
+        ArrayList<Person> answer = new ArrayList<>();
+        if (scores == null) {
+            return answer;
+        }
+        ArrayList<Map.Entry<Long, Integer>> entries = new ArrayList<>(scores.entrySet());
+        Comparator<Map.Entry<Long, Integer>> byScore = Map.Entry.comparingByValue();
+        entries.sort(byScore
+                .thenComparing(entry -> nullToEmpty(people.get(entry.getKey()).surname))
+                .thenComparing(entry -> nullToEmpty(people.get(entry.getKey()).firstName)));
+        for (int i = 0; i < entries.size() && i < limit; i++) {
+            answer.add(copyOf(people.get(entries.get(i).getKey())));
+        }
+        return answer;
+    }
+
+    /**
+     * Levenshtein distance that gives up early once the distance is known to be more than {@code maxDistance}.
+     *
+     * @return The edit distance, or {@code maxDistance + 1} if it is larger than {@code maxDistance}.
+     */
+    static int boundedEditDistance(String a, String b, int maxDistance) {
+        if (Math.abs(a.length() - b.length()) > maxDistance) {
+            return maxDistance + 1;
+        }
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMinimum = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMinimum = Math.min(rowMinimum, current[j]);
+            }
+            if (rowMinimum > maxDistance) {
+                return maxDistance + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.min(previous[b.length()], maxDistance + 1);
+    }
+
+    /**
+     * Adds the trigrams of a token, padded at the start and end so that short tokens and the start of a token are
+     * indexed too.
+     */
+    private static void addTrigrams(String token, HashSet<String> output) {
+        String padded = PADDING + token + PADDING;
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            output.add(padded.substring(i, i + 3));
+        }
+    }
+
+    private static List<String> tokensOf(Person person) {
+        ArrayList<String> answer = new ArrayList<>(3);
+        if (person.firstName != null && !person.firstName.isBlank()) {
+            answer.add(person.firstName.trim().toLowerCase());
+        }
+        if (person.surname != null && !person.surname.isBlank()) {
+            answer.add(person.surname.trim().toLowerCase());
+        }
+        if (person.email != null && !person.email.isBlank()) {
+            answer.add(person.email.trim().toLowerCase());
+        }
+        return answer;
+    }
+
+    private static String[] wordsOf(String query) {
+        String trimmed = query.trim().toLowerCase();
+        return trimmed.isEmpty() ? new String[0] : trimmed.split("\\s+");
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static Person copyOf(Person person) {
+        Person answer = new Person();
+        answer.id = person.id;
+        answer.firstName = person.firstName;
+        answer.surname = person.surname;
+        answer.email = person.email;
+        answer.address = person.address;
+        return answer;
+    }
+
+    /**
+     * A node of the compressed prefix trie. Each edge is labelled with a string rather than a single character, so a
+     * chain of nodes with one child each is stored as a single node.
+     */
+    private static final class TrieNode {
+        private static final TrieNode[] NO_CHILDREN = new TrieNode[0];
+
+        private String label;
+        private TrieNode[] children = NO_CHILDREN;
+        //The people with a token that ends at this node. Null if there are none.
+        private LongList ids;
+
+        private TrieNode(String label) {
+            this.label = label;
+        }
+
+        private void insert(String token, int offset, long id) {
+            TrieNode node = this;
+            while (offset < token.length()) {
+                int childIndex = node.findChild(token.charAt(offset));
+                if (childIndex < 0) {
+                    TrieNode leaf = new TrieNode(token.substring(offset));
+                    leaf.ids = new LongList();
+                    leaf.ids.add(id);
+                    node.addChild(leaf);
+                    return;
+                }
+                TrieNode child = node.children[childIndex];
+                int common = commonPrefixLength(child.label, token, offset);
+                if (common < child.label.length()) {
+                    //Split the edge where the token and the label differ.
+                    TrieNode split = new TrieNode(child.label.substring(0, common));
+                    child.label = child.label.substring(common);
+                    split.children = new TrieNode[] {child};
+                    node.children[childIndex] = split;
+                    child = split;
+                }
+                node = child;
+                offset += common;
+            }
+            if (node.ids == null) {
+                node.ids = new LongList();
+            }
+            if (!node.ids.contains(id)) {
+                node.ids.add(id);
+            }
+        }
+
+        private void remove(String token, int offset, long id) {
+            TrieNode node = this;
+            while (offset < token.length()) {
+                int childIndex = node.findChild(token.charAt(offset));
+                if (childIndex < 0 || !token.startsWith(node.children[childIndex].label, offset)) {
+                    return;
+                }
+                node = node.children[childIndex];
+                offset += node.label.length();
+            }
+            if (node.ids != null) {
+                node.ids.remove(id);
+            }
+        }
+
+        /**
+         * Finds the node for the prefix and adds every ID in its subtree with a prefix score.
+         */
+        private void collectPrefix(String prefix, int offset, Map<Long, Integer> output) {
+            TrieNode node = this;
+            while (offset < prefix.length()) {
+                int childIndex = node.findChild(prefix.charAt(offset));
+                if (childIndex < 0) {
+                    return;
+                }
+                TrieNode child = node.children[childIndex];
+                final int remaining = prefix.length() - offset;
+                if (remaining <= child.label.length()) {
+                    //The prefix ends part way along this edge.
+                    if (!child.label.startsWith(prefix.substring(offset))) {
+                        return;
+                    }
+                    child.collectAll(output);
+                    return;
+                }
+                if (!prefix.startsWith(child.label, offset)) {
+                    return;
+                }
+                node = child;
+                offset += child.label.length();
+            }
+            node.collectAll(output);
+        }
+
+        private void collectAll(Map<Long, Integer> output) {
+            if (ids != null) {
+                for (int i = 0; i < ids.size(); i++) {
+                    output.put(ids.get(i), PREFIX_SCORE);
+                }
+            }
+            for (TrieNode child : children) {
+                child.collectAll(output);
+            }
+        }
+
+        private int findChild(char first) {
+            for (int i = 0; i < children.length; i++) {
+                if (children[i].label.charAt(0) == first) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void addChild(TrieNode child) {
+            children = Arrays.copyOf(children, children.length + 1);
+            children[children.length - 1] = child;
+        }
+
+        private static int commonPrefixLength(String label, String token, int offset) {
+            int length = 0;
+            while (length < label.length() && offset + length < token.length()
+                    && label.charAt(length) == token.charAt(offset + length)) {
+                ++length;
+            }
+            return length;
+        }
+    }
+
+    /**
+     * A growable list of primitive longs used for the lists of IDs.
+     */
+    private static final class LongList {
+        private long[] values = new long[4];
+        private int size;
+
+        private void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private boolean contains(long value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void remove(long value) {
+            for (int i = 0; i < size; i++) {
+                if (values[i] == value) {
+                    values[i] = values[--size];
+                    return;
+                }
+            }
+        }
+
+        private long get(int index) {
+            return values[index];
+        }
+
+        private int size() {
+            return size;
+        }
+    }
+}
@@ -21,6 +21,13 @@ public class PersonTable {
     static public final String COL_PHYS_ADDR = "PhysAddress";
     static public final int COL_PHYS_ADDR_SIZE = 120;
 
+    //The columns with the types of their values, for building queries with Query and Predicate.
+    static public final Column<Long> ID = new Column<>(TABLE_NAME, COL_ID, Long.class);
+    static public final Column<String> FIRST_NAME = new Column<>(TABLE_NAME, COL_FIRST_NAME, String.class);
+    static public final Column<String> SURNAME = new Column<>(TABLE_NAME, COL_SURNAME, String.class);
+    static public final Column<String> EMAIL = new Column<>(TABLE_NAME, COL_EMAIL, String.class);
+    static public final Column<String> PHYS_ADDR = new Column<>(TABLE_NAME, COL_PHYS_ADDR, String.class);
+
     static public final String[] ALL_COLUMN_NAMES = {
         COL_ID,
         COL_FIRST_NAME,
@@ -0,0 +1,97 @@
+package database;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A condition of a WHERE clause made from {@link Column}s. Values are always parameters, never part of the SQL.
+ * Predicates can't be changed; {@link #and} and {@link #or} create new ones.
+ */
+public final class Predicate {
+    private final String sql;
+    private final List<Object> parameters;
+    //True if the top level of the SQL is an OR, which must be put in brackets before it is combined with AND.
+    private final boolean isOr;
+
+    Predicate(String sql, Object... parameters) {
+        this(sql, List.of(parameters), false);
+    }
+
+    private Predicate(String sql, List<Object> parameters, boolean isOr) {
+        this.sql = sql;
+        this.parameters = parameters;
+        this.isOr = isOr;
+    }
+
+    /**
+     * Matches a text column against a LIKE pattern. The pattern uses '!' as the escape character.
+     */
+    public static Predicate like(Column<String> column, String pattern) {
+        return new Predicate(column.qualifiedName() + " LIKE ? ESCAPE '!'", pattern);
+    }
+
+    /**
+     * Matches the rows whose date column is before the database's current date.
+     */
+    public static Predicate beforeToday(Column<Date> column) {
+        return new Predicate(column.qualifiedName() + " < CURDATE()");
+    }
+
+    /**
+     * Matches the rows whose date column is after the database's current date.
+     */
+    public static Predicate afterToday(Column<Date> column) {
+        return new Predicate(column.qualifiedName() + " > CURDATE()");
+    }
+
+    /**
+     * Matches the rows that match any of the given predicates.
+     */
+    public static Predicate anyOf(Predicate first, Predicate... others) {
+        Predicate answer = first;
+        for (Predicate other : others) {
+            answer = answer.or(other);
+        }
+        return answer;
+    }
+
+    public Predicate and(Predicate other) {
+        return new Predicate(bracketed(this) + " AND " + bracketed(other), join(other), false);
+    }
+
+    public Predicate or(Predicate other) {
+        return new Predicate(sql + " OR " + other.sql, join(other), true);
+    }
+
+    private static String bracketed(Predicate predicate) {
+        return predicate.isOr ? "(" + predicate.sql + ")" : predicate.sql;
+    }
+
+    private List<Object> join(Predicate other) {
+        ArrayList<Object> answer = new ArrayList<>(parameters.size() + other.parameters.size());
+        answer.addAll(parameters);
+        answer.addAll(other.parameters);
+        return Collections.unmodifiableList(answer);
+    }
+
+    /**
+     * @return The SQL of the condition with a '?' for each parameter.
+     */
+    public String toSql() {
+        return sql;
+    }
+
+    /**
+     * @return The values of the parameters in the order of the '?'s.
+     */
+    public List<Object> getParameters() {
+        return parameters;
+    }
+
+    @Override
+    public String toString() {
+        return sql;
+    }
+}
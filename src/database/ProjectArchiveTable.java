@@ -0,0 +1,46 @@
+package database;
+
+/**
+ * The ProjectsArchive table holds the finalised projects that have been moved out of the Projects table. A project is
+ * archived some time after it was finalised so that the Projects table only holds the working set of projects.
+ * <p><br>
+ * The columns are the same as the Projects table plus the time the project was archived. There are no foreign keys,
+ * like the ProjectHistory table, and the payments of an archived project stay in the Payments table.
+ */
+public class ProjectArchiveTable {
+
+    static public final String TABLE_NAME = "ProjectsArchive";
+
+    static public final String COL_ARCHIVED_AT = "ArchivedAt";
+
+    /**
+     * Generates the SQL to create the ProjectsArchive table.
+     *
+     * @return An SQL query to insert the table into the database.
+     */
+    public static String getCreationQuery() {
+        final String padding = "    ";
+        StringBuilder query = new StringBuilder();
+        query.append("CREATE TABLE ").append(TABLE_NAME).append('\n')
+                .append("(\n")
+                .append(padding).append(ProjectTable.COL_NUMBER).append(" INT UNSIGNED NOT NULL,\n")
+                .append(padding).append(ProjectTable.COL_PROJECT_NAME).append(" VARCHAR(").append(ProjectTable.COL_PROJECT_NAME_SIZE).append(") NOT NULL,\n")
+                .append(padding).append(ProjectTable.COL_TOTAL_FEE).append(" DECIMAL(20, 2) UNSIGNED NOT NULL,\n")
+                .append(padding).append(ProjectTable.COL_TOTAL_PAID).append(" DECIMAL(20, 2) UNSIGNED NOT NULL,\n")
+                .append(padding).append(ProjectTable.COL_ERF).append(" INT UNSIGNED NULL,\n")
+                .append(padding).append(ProjectTable.COL_PHYS_ADDR).append(" VARCHAR(").append(ProjectTable.COL_PHYS_ADDR_SIZE).append(") NULL,\n")
+                .append(padding).append(ProjectTable.COL_DEADLINE).append(" DATE NULL,\n")
+                .append(padding).append(ProjectTable.COL_ENGINEER).append(" INT UNSIGNED NULL,\n")
+                .append(padding).append(ProjectTable.COL_PROJ_MANAGER).append(" INT UNSIGNED NULL,\n")
+                .append(padding).append(ProjectTable.COL_CUSTOMER).append(" INT UNSIGNED NOT NULL,\n")
+                .append(padding).append(ProjectTable.COL_ARCHITECT).append(" INT UNSIGNED NULL,\n")
+                .append(padding).append(ProjectTable.COL_STATUS).append(" INT UNSIGNED NOT NULL,\n")
+                .append(padding).append(ProjectTable.COL_TYPE).append(" INT UNSIGNED NOT NULL,\n")
+                .append(padding).append(ProjectTable.COL_VALID_FROM).append(" DATETIME(6) NOT NULL,\n")
+                .append(padding).append(COL_ARCHIVED_AT).append(" DATETIME(6) NOT NULL,\n")
+                .append(padding).append("CONSTRAINT ").append(TABLE_NAME).append("_pk\n")
+                .append(padding).append(padding).append("PRIMARY KEY (").append(ProjectTable.COL_NUMBER).append(")\n")
+                .append(");");
+        return query.toString();
+    }
+}
@@ -0,0 +1,15 @@
+package database;
+
+/**
+ * Implemented by components that need to know when a project record is added, changed or deleted through the
+ * {@link DataSource}. Register with {@link DataSource#addProjectChangeListener(ProjectChangeListener)}.
+ */
+public interface ProjectChangeListener {
+    /**
+     * Called after a change to a project has been written to the database. Listeners are called on the thread that
+     * made the change so they should return quickly.
+     *
+     * @param projectNumber The number of the project that was added, changed or deleted.
+     */
+    public void projectChanged(long projectNumber);
+}
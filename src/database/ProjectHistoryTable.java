@@ -0,0 +1,73 @@
+package database;
+
+/**
+ * The ProjectHistory table keeps the earlier versions of each project. Whenever a project is changed or deleted the
+ * row as it was is copied here with the time it stopped being valid, so the Projects table only ever holds the
+ * current version of each project.
+ * <p><br>
+ * A version is valid from {@code ValidFrom} (inclusive) to {@code ValidTo} (exclusive). The current version in the
+ * Projects table is valid from its own ValidFrom column onwards.
+ */
+public class ProjectHistoryTable {
+
+    static public final String TABLE_NAME = "ProjectHistory";
+
+    static public final String COL_VALID_TO = "ValidTo";
+
+    //The project columns copied into the history, in the same order as the creation query.
+    static public final String[] VERSIONED_COLUMN_NAMES = {
+            ProjectTable.COL_NUMBER,
+            ProjectTable.COL_PROJECT_NAME,
+            ProjectTable.COL_TOTAL_FEE,
+            ProjectTable.COL_TOTAL_PAID,
+            ProjectTable.COL_ERF,
+            ProjectTable.COL_PHYS_ADDR,
+            ProjectTable.COL_DEADLINE,
+            ProjectTable.COL_ENGINEER,
+            ProjectTable.COL_PROJ_MANAGER,
+            ProjectTable.COL_CUSTOMER,
+            ProjectTable.COL_ARCHITECT,
+            ProjectTable.COL_STATUS,
+            ProjectTable.COL_TYPE,
+            ProjectTable.COL_VALID_FROM
+    };
+
+    /**
+     * Generates the SQL to create the ProjectHistory table. There are no foreign keys because the history outlives the
+     * projects and people it refers to.
+     * <p><br>
+     * The primary key finds the version of one project at a given time with a single index seek (the first row of the
+     * project with a ValidTo after the time). The second index does the same for all projects at once and is also
+     * used by the compaction to find the oldest versions.
+     *
+     * @return An SQL query to insert the table into the database.
+     */
+    public static String getCreationQuery() {
+        final String padding = "    ";
+        StringBuilder query = new StringBuilder();
+        query.append("CREATE TABLE ").append(TABLE_NAME).append('\n')
+                .append("(\n")
+                .append(padding).append(ProjectTable.COL_NUMBER).append(" INT UNSIGNED NOT NULL,\n")
+                .append(padding).append(ProjectTable.COL_PROJECT_NAME).append(" VARCHAR(").append(ProjectTable.COL_PROJECT_NAME_SIZE).append(") NOT NULL,\n")
+                .append(padding).append(ProjectTable.COL_TOTAL_FEE).append(" DECIMAL(20, 2) UNSIGNED NOT NULL,\n")
+                .append(padding).append(ProjectTable.COL_TOTAL_PAID).append(" DECIMAL(20, 2) UNSIGNED NOT NULL,\n")
+                .append(padding).append(ProjectTable.COL_ERF).append(" INT UNSIGNED NULL,\n")
+                .append(padding).append(ProjectTable.COL_PHYS_ADDR).append(" VARCHAR(").append(ProjectTable.COL_PHYS_ADDR_SIZE).append(") NULL,\n")
+                .append(padding).append(ProjectTable.COL_DEADLINE).append(" DATE NULL,\n")
+                .append(padding).append(ProjectTable.COL_ENGINEER).append(" INT UNSIGNED NULL,\n")
+                .append(padding).append(ProjectTable.COL_PROJ_MANAGER).append(" INT UNSIGNED NULL,\n")
+                .append(padding).append(ProjectTable.COL_CUSTOMER).append(" INT UNSIGNED NOT NULL,\n")
+                .append(padding).append(ProjectTable.COL_ARCHITECT).append(" INT UNSIGNED NULL,\n")
+                .append(padding).append(ProjectTable.COL_STATUS).append(" INT UNSIGNED NOT NULL,\n")
+                .append(padding).append(ProjectTable.COL_TYPE).append(" INT UNSIGNED NOT NULL,\n")
+                .append(padding).append(ProjectTable.COL_VALID_FROM).append(" DATETIME(6) NOT NULL,\n")
+                .append(padding).append(COL_VALID_TO).append(" DATETIME(6) NOT NULL,\n")
+                .append(padding).append("CONSTRAINT ").append(TABLE_NAME).append("_pk\n")
+                .append(padding).append(padding).append("PRIMARY KEY (").append(ProjectTable.COL_NUMBER).append(", ")
+                .append(COL_VALID_TO).append("),\n")
+                .append(padding).append("INDEX ").append(TABLE_NAME).append("_ValidTo_idx (")
+                .append(COL_VALID_TO).append(", ").append(ProjectTable.COL_VALID_FROM).append(")\n")
+                .append(");");
+        return query.toString();
+    }
+}
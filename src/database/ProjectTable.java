@@ -1,5 +1,8 @@
 package database;
 
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -24,7 +27,27 @@ public class ProjectTable {
     static public final String COL_ARCHITECT = "Architect";
     static public final String COL_STATUS = "Status";
     static public final String COL_TYPE = "Type";
+    //When the current version of the row was written. Older versions are kept in the ProjectHistory table.
+    static public final String COL_VALID_FROM = "ValidFrom";
 
+    //The index used by the archiving to find the finalised projects.
+    static public final String STATUS_INDEX_NAME = TABLE_NAME + "_Status_idx";
+
+    //The columns with the types of their values, for building queries with Query and Predicate.
+    static public final Column<Long> NUMBER = new Column<>(TABLE_NAME, COL_NUMBER, Long.class);
+    static public final Column<String> PROJECT_NAME = new Column<>(TABLE_NAME, COL_PROJECT_NAME, String.class);
+    static public final Column<BigDecimal> TOTAL_FEE = new Column<>(TABLE_NAME, COL_TOTAL_FEE, BigDecimal.class);
+    static public final Column<BigDecimal> TOTAL_PAID = new Column<>(TABLE_NAME, COL_TOTAL_PAID, BigDecimal.class);
+    static public final Column<String> PHYS_ADDR = new Column<>(TABLE_NAME, COL_PHYS_ADDR, String.class);
+    static public final Column<Date> DEADLINE = new Column<>(TABLE_NAME, COL_DEADLINE, Date.class);
+    static public final Column<Integer> ERF = new Column<>(TABLE_NAME, COL_ERF, Integer.class);
+    static public final Column<Long> ENGINEER = new Column<>(TABLE_NAME, COL_ENGINEER, Long.class);
+    static public final Column<Long> PROJ_MANAGER = new Column<>(TABLE_NAME, COL_PROJ_MANAGER, Long.class);
+    static public final Column<Long> CUSTOMER = new Column<>(TABLE_NAME, COL_CUSTOMER, Long.class);
+    static public final Column<Long> ARCHITECT = new Column<>(TABLE_NAME, COL_ARCHITECT, Long.class);
+    static public final Column<Long> STATUS = new Column<>(TABLE_NAME, COL_STATUS, Long.class);
+    static public final Column<Long> TYPE = new Column<>(TABLE_NAME, COL_TYPE, Long.class);
+    static public final Column<Timestamp> VALID_FROM = new Column<>(TABLE_NAME, COL_VALID_FROM, Timestamp.class);
 
     static public final String[] ALL_COLUMN_NAMES = {
             COL_NUMBER,
@@ -63,8 +86,11 @@ public class ProjectTable {
                 .append(padding).append(COL_ARCHITECT).append(" INT UNSIGNED NULL,\n")
                 .append(padding).append(COL_STATUS).append(" INT UNSIGNED DEFAULT 1 NOT NULL,\n")
                 .append(padding).append(COL_TYPE).append(" INT UNSIGNED NOT NULL,\n")
+                .append(padding).append(COL_VALID_FROM).append(" DATETIME(6) DEFAULT CURRENT_TIMESTAMP(6) NOT NULL,\n")
                 .append(padding).append("CONSTRAINT ").append(TABLE_NAME).append("_pk\n")
                 .append(padding).append(padding).append("PRIMARY KEY (Num),\n")
+                .append(padding).append("INDEX ").append(STATUS_INDEX_NAME).append(" (")
+                .append(COL_STATUS).append(", ").append(COL_VALID_FROM).append("),\n")
                 .append(padding).append("CONSTRAINT ").append(TABLE_NAME).append("_Arch_Person_fk\n")
                 .append(padding).append(padding).append("FOREIGN KEY (").append(COL_ARCHITECT)
                 .append(foreignKeyReferenceString).append('\n')
@@ -87,6 +113,30 @@ public class ProjectTable {
         return query.toString();
     }
 
+    /**
+     * Generates the SQL that adds the ValidFrom column to a Projects table created before the project history was
+     * kept. The existing rows are treated as valid from the time of the upgrade.
+     *
+     * @return An SQL query to alter the table.
+     */
+    public static String getAddValidFromQuery() {
+        return new StringBuilder()
+                .append("ALTER TABLE ").append(TABLE_NAME).append(" ADD COLUMN ").append(COL_VALID_FROM)
+                .append(" DATETIME(6) DEFAULT CURRENT_TIMESTAMP(6) NOT NULL").toString();
+    }
+
+    /**
+     * Generates the SQL that adds the status index to a Projects table created before finalised projects were
+     * archived. The archiving finds the projects that were finalised before a given time with it.
+     *
+     * @return An SQL query to alter the table.
+     */
+    public static String getAddStatusIndexQuery() {
+        return new StringBuilder()
+                .append("ALTER TABLE ").append(TABLE_NAME).append(" ADD INDEX ").append(STATUS_INDEX_NAME)
+                .append(" (").append(COL_STATUS).append(", ").append(COL_VALID_FROM).append(')').toString();
+    }
+
     public static List<String> getInitialDataQueries() {
         ArrayList<String> answer = new ArrayList<>();
         answer.add(new StringBuilder()
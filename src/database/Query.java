@@ -0,0 +1,191 @@
+package database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds a SELECT from {@link Column}s and {@link Predicate}s. All the values are parameters, so queries that only
+ * differ in their values render the same SQL and reuse the same prepared statement and query plan.
+ * <p><br>
+ * A query can't be changed; each method returns a new query. A query without the WHERE clause can be kept in a
+ * constant and completed for each call. The queries made from it with {@link #where} share a cache of their SQL by
+ * the SQL of the predicate, so each shape of WHERE clause is only rendered once.
+ * <pre>{@code
+ * Query.select(PersonTable.FIRST_NAME, PersonTable.SURNAME)
+ *         .from(PersonTable.TABLE_NAME)
+ *         .where(PersonTable.SURNAME.eq(surname))
+ *         .orderBy(PersonTable.FIRST_NAME)
+ *         .limit(10);
+ * }</pre>
+ */
+public final class Query {
+    private final List<Column<?>> columns;
+    private final String source;
+    private final List<Object> sourceParameters;
+    private final List<String> joins;
+    private final Predicate where;
+    private final List<String> orderBy;
+    private final Integer limit;
+    //The rendered SQL by the SQL of the WHERE predicate, shared by the queries that only differ in their predicate and
+    //source parameters.
+    private final ConcurrentHashMap<String, String> renderedByWhere;
+
+    //Enough for all the listing shapes. Queries beyond it are rendered each time rather than growing the cache.
+    private static final int MAX_RENDERED_SHAPES = 256;
+
+    private Query(List<Column<?>> columns, String source, List<Object> sourceParameters, List<String> joins,
+                  Predicate where, List<String> orderBy, Integer limit) {
+        this(columns, source, sourceParameters, joins, where, orderBy, limit, new ConcurrentHashMap<>());
+    }
+
+    private Query(List<Column<?>> columns, String source, List<Object> sourceParameters, List<String> joins,
+                  Predicate where, List<String> orderBy, Integer limit,
+                  ConcurrentHashMap<String, String> renderedByWhere) {
+        this.columns = columns;
+        this.source = source;
+        this.sourceParameters = sourceParameters;
+        this.joins = joins;
+        this.where = where;
+        this.orderBy = orderBy;
+        this.limit = limit;
+        this.renderedByWhere = renderedByWhere;
+    }
+
+    /**
+     * Starts a query of the given columns. Selects all the columns of the source if none are given.
+     */
+    public static Query select(Column<?>... columns) {
+        return new Query(List.of(columns), null, List.of(), List.of(), null, List.of(), null);
+    }
+
+    /**
+     * Sets the table to select from.
+     */
+    public Query from(String table) {
+        return new Query(columns, table, List.of(), joins, where, orderBy, limit);
+    }
+
+    /**
+     * Selects from a derived table, e.g. {@code (SELECT ... WHERE ValidFrom <= ?) AS Projects}.
+     *
+     * @param derivedTable The SQL of the derived table, including its alias.
+     * @param parameters The values of the parameters in the derived table. They come before the other parameters.
+     */
+    public Query from(String derivedTable, Object... parameters) {
+        return new Query(columns, derivedTable, List.of(parameters), joins, where, orderBy, limit);
+    }
+
+    /**
+     * Replaces the values of the parameters in the derived table. The SQL doesn't change.
+     */
+    public Query withSourceParameters(Object... parameters) {
+        return new Query(columns, source, List.of(parameters), joins, where, orderBy, limit, renderedByWhere);
+    }
+
+    /**
+     * Joins a table on two columns being equal.
+     *
+     * @param table The table to join.
+     * @param left A column of a table that is already in the query.
+     * @param right A column of the joined table.
+     */
+    public <T> Query join(String table, Column<T> left, Column<T> right) {
+        return new Query(columns, source, sourceParameters,
+                append(joins, " JOIN " + table + " ON " + left.qualifiedName() + " = " + right.qualifiedName()),
+                where, orderBy, limit);
+    }
+
+    /**
+     * Sets the WHERE clause. A {@code null} predicate selects all the rows.
+     */
+    public Query where(Predicate predicate) {
+        return new Query(columns, source, sourceParameters, joins, predicate, orderBy, limit, renderedByWhere);
+    }
+
+    public Query orderBy(Column<?> column) {
+        return new Query(columns, source, sourceParameters, joins, where,
+                append(orderBy, column.qualifiedName()), limit);
+    }
+
+    public Query orderByDescending(Column<?> column) {
+        return new Query(columns, source, sourceParameters, joins, where,
+                append(orderBy, column.qualifiedName() + " DESC"), limit);
+    }
+
+    /**
+     * Limits the number of rows. The limit is a parameter too.
+     */
+    public Query limit(int rowCount) {
+        return new Query(columns, source, sourceParameters, joins, where, orderBy, rowCount);
+    }
+
+    private static List<String> append(List<String> list, String item) {
+        ArrayList<String> answer = new ArrayList<>(list);
+        answer.add(item);
+        return Collections.unmodifiableList(answer);
+    }
+
+    /**
+     * @return The SQL of the query with a '?' for each parameter.
+     */
+    public String toSql() {
+        final String key = where == null ? "" : where.toSql();
+        String answer = renderedByWhere.get(key);
+        if (answer == null) {
+            answer = render();
+            if (renderedByWhere.size() < MAX_RENDERED_SHAPES) {
+                renderedByWhere.putIfAbsent(key, answer);
+            }
+        }
+        return answer;
+    }
+
+    private String render() {
+        if (source == null) {
+            throw new IllegalStateException("The query has no FROM table.");
+        }
+        StringBuilder query = new StringBuilder("SELECT ");
+        if (columns.isEmpty()) {
+            query.append('*');
+        }
+        for (int i = 0; i < columns.size(); i++) {
+            query.append(i == 0 ? "" : ", ").append(columns.get(i).qualifiedName());
+        }
+        query.append(" FROM ").append(source);
+        for (String join : joins) {
+            query.append(join);
+        }
+        if (where != null) {
+            query.append(" WHERE ").append(where.toSql());
+        }
+        if (!orderBy.isEmpty()) {
+            query.append(" ORDER BY ").append(String.join(", ", orderBy));
+        }
+        if (limit != null) {
+            query.append(" LIMIT ?");
+        }
+        return query.toString();
+    }
+
+    /**
+     * @return The values of the parameters in the order of the '?'s.
+     */
+    public Object[] getParameters() {
+        ArrayList<Object> answer = new ArrayList<>(sourceParameters);
+        if (where != null) {
+            answer.addAll(where.getParameters());
+        }
+        if (limit != null) {
+            answer.add(limit);
+        }
+        return answer.toArray();
+    }
+
+    @Override
+    public String toString() {
+        return toSql() + " " + Arrays.toString(getParameters());
+    }
+}
@@ -0,0 +1,136 @@
+package database;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the results of recent queries in memory so that the same listing isn't fetched again while the tables it reads
+ * haven't changed.
+ * <p><br>
+ * Every table has a version number that is increased after each change to it. A result is stored with the versions
+ * of the tables it was read from and is only returned while all of them are the same. Results of queries that use
+ * the current date are stored with the date they were read on and are not returned on any other date. The caller
+ * gives the date, so that it can be the database server's rather than this computer's. Only the least recently used
+ * {@link #MAX_ENTRIES} results are kept.
+ * <p><br>
+ * Changes made by other programs using the same database are marked too, when the DataSource's change log poller sees
+ * them. Until the next poll (every couple of seconds by default) a result may still include the other program's
+ * change or lack it. With polling turned off those changes are not noticed.
+ *
+ * @param <T> The type of the rows in the results. The lists are copied but the rows are shared, so they must be
+ *            immutable.
+ */
+class QueryCache<T> {
+    static final int MAX_ENTRIES = 64;
+
+    private final HashMap<String, Long> tableVersions = new HashMap<>();
+    private final LinkedHashMap<List<Object>, Entry<T>> entries =
+            new LinkedHashMap<>(MAX_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry<T>> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private static class Entry<T> {
+        final long[] versions;
+        final LocalDate date;
+        final List<T> rows;
+
+        Entry(long[] versions, LocalDate date, List<T> rows) {
+            this.versions = versions;
+            this.date = date;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Creates the key of a query from its SQL and parameters.
+     */
+    static List<Object> key(String query, Object... parameters) {
+        ArrayList<Object> key = new ArrayList<>(parameters.length + 1);
+        key.add(query);
+        key.addAll(Arrays.asList(parameters));
+        return key;
+    }
+
+    /**
+     * Returns the current versions of the given tables. Read them before running a query and pass them to
+     * {@link #put} so that a change made while the query runs makes the stored result stale straight away.
+     */
+    synchronized long[] versions(String... tables) {
+        long[] answer = new long[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            answer[i] = tableVersions.getOrDefault(tables[i], 0L);
+        }
+        return answer;
+    }
+
+    /**
+     * Returns a copy of the stored result of a query if it is still up to date.
+     *
+     * @param key The key from {@link #key}.
+     * @param today The current date, in the same clock as the one given to {@link #put}.
+     * @param tables The tables the query reads, in the same order as when the result was stored.
+     * @return The rows or {@code null} if there is no up to date result.
+     */
+    synchronized List<T> get(List<Object> key, LocalDate today, String... tables) {
+        Entry<T> entry = entries.get(key);
+        if (entry != null && Arrays.equals(entry.versions, versions(tables))
+                && (entry.date == null || entry.date.equals(today))) {
+            hits.increment();
+            return new ArrayList<>(entry.rows);
+        }
+        misses.increment();
+        //A stale entry is kept until it is replaced or evicted. It may still be useful to getStale.
+        return null;
+    }
+
+    /**
+     * Returns a copy of the last stored result of a query even if it is out of date. Used when the database can't be
+     * reached.
+     *
+     * @param key The key from {@link #key}.
+     * @return The rows or {@code null} if the query has never been stored (or has been evicted).
+     */
+    synchronized List<T> getStale(List<Object> key) {
+        Entry<T> entry = entries.get(key);
+        return entry == null ? null : new ArrayList<>(entry.rows);
+    }
+
+    /**
+     * Stores the result of a query.
+     *
+     * @param key The key from {@link #key}.
+     * @param versions The table versions read with {@link #versions} before the query was run.
+     * @param date The date the result was read on if it depends on the current date, otherwise {@code null}.
+     * @param rows The result. A copy is stored.
+     */
+    synchronized void put(List<Object> key, long[] versions, LocalDate date, List<T> rows) {
+        entries.put(key, new Entry<>(versions, date, new ArrayList<>(rows)));
+    }
+
+    long getHitCount() {
+        return hits.sum();
+    }
+
+    long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Marks the results read from a table as stale. Call it after every change to the table is committed.
+     */
+    synchronized void tableChanged(String table) {
+        tableVersions.merge(table, 1L, Long::sum);
+    }
+}
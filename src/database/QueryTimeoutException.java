@@ -0,0 +1,34 @@
+package database;
+
+import java.util.List;
+
+/**
+ * Thrown when a query took longer than the timeout of its {@link OperationClass} or was cancelled by the user. The
+ * connection can still be used. Searches that run several queries include the results of the queries that finished.
+ */
+public class QueryTimeoutException extends DatabaseException {
+    private static final long serialVersionUID = 1L;
+
+    private final boolean cancelled;
+    private final List<?> partialResult;
+
+    public QueryTimeoutException(String message, Throwable cause, boolean cancelled, List<?> partialResult) {
+        super(message, cause);
+        this.cancelled = cancelled;
+        this.partialResult = partialResult == null ? List.of() : List.copyOf(partialResult);
+    }
+
+    /**
+     * @return {@code true} if the user cancelled the query, {@code false} if it timed out.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return The results found before the query was stopped. Empty if there are none.
+     */
+    public List<?> getPartialResult() {
+        return partialResult;
+    }
+}
@@ -0,0 +1,69 @@
+package database;
+
+/**
+ * The SchemaInfo table holds a single row with the version of the database schema. The program reads it at start-up
+ * and only inspects and upgrades the other tables when the stored version is different from {@link #CURRENT_VERSION}.
+ */
+public class SchemaInfoTable {
+
+    static public final String TABLE_NAME = "SchemaInfo";
+
+    static public final String COL_ID = "ID";
+    static public final String COL_VERSION = "Version";
+
+    static public final String[] ALL_COLUMN_NAMES = {
+        COL_ID,
+        COL_VERSION
+    };
+
+    //The table only ever has the one row.
+    static public final int ROW_ID = 1;
+
+    /**
+     * The version of the schema this build of the program expects. Increase it whenever a table is added or changed,
+     * and make sure that DataSource.checkAndInitialiseTables brings a database with an older version up to date. The
+     * version is only stored once every upgrade step has succeeded, so each step must be safe to run again.
+     */
+    static public final int CURRENT_VERSION = 6;
+
+    /**
+     * Generates the SQL to create the SchemaInfo table.
+     *
+     * @return An SQL query to insert the table into the database.
+     */
+    public static String getCreationQuery() {
+        final String padding = "  ";
+        StringBuilder query = new StringBuilder();
+        query.append("CREATE TABLE ").append(TABLE_NAME).append(" (\n")
+            .append(padding).append(COL_ID).append(" INT(10) UNSIGNED NOT NULL,\n")
+            .append(padding).append(COL_VERSION).append(" INT(10) UNSIGNED NOT NULL,\n")
+            .append(padding).append("PRIMARY KEY (").append(COL_ID).append(")\n")
+            .append(")");
+        return query.toString();
+    }
+
+    /**
+     * Generates the SQL to read the stored schema version. The query is a primary key lookup.
+     *
+     * @return An SQL query returning one row with the version, or no rows if it hasn't been stored yet.
+     */
+    public static String getVersionQuery() {
+        StringBuilder query = new StringBuilder();
+        query.append("SELECT ").append(COL_VERSION).append(" FROM ").append(TABLE_NAME)
+            .append(" WHERE ").append(COL_ID).append(" = ").append(ROW_ID);
+        return query.toString();
+    }
+
+    /**
+     * Generates the SQL to store the schema version. The version is the single parameter of the query.
+     *
+     * @return An SQL query with one parameter for use in a PreparedStatement.
+     */
+    public static String getVersionUpdateQuery() {
+        StringBuilder query = new StringBuilder();
+        query.append("INSERT INTO ").append(TABLE_NAME).append(" (").append(COL_ID).append(", ").append(COL_VERSION)
+            .append(") VALUES (").append(ROW_ID).append(", ?) ON DUPLICATE KEY UPDATE ")
+            .append(COL_VERSION).append(" = VALUES(").append(COL_VERSION).append(')');
+        return query.toString();
+    }
+}
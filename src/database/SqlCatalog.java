@@ -0,0 +1,449 @@
+package database;
+
+import MainProgram.ProjectStatus;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The SQL of the statements that {@link DataSource} runs, rendered once from the column constants of the table
+ * classes when the class is loaded. Running one of them only needs a statement to be prepared and its parameters
+ * bound; no SQL is built on each call. The schema set-up and the project listings (see {@link Query}) build theirs
+ * elsewhere.
+ * <p><br>
+ * The parameters are named in the SQL as {@code :name}. They are replaced by '?' when the shape is created and
+ * bound by name through the shape, so a parameter that is used several times is only given once.
+ */
+final class SqlCatalog {
+    private static final Pattern NAMED_PARAMETER = Pattern.compile(":([A-Za-z]\\w*)");
+
+    private SqlCatalog() {
+    }
+
+    /**
+     * The SQL of one statement with the positions of its named parameters.
+     */
+    static final class Shape {
+        private final String sql;
+        private final Map<String, int[]> positions;
+
+        private Shape(String namedSql) {
+            HashMap<String, ArrayList<Integer>> found = new HashMap<>();
+            Matcher matcher = NAMED_PARAMETER.matcher(namedSql);
+            StringBuilder rendered = new StringBuilder();
+            int position = 0;
+            while (matcher.find()) {
+                found.computeIfAbsent(matcher.group(1), key -> new ArrayList<>()).add(++position);
+                matcher.appendReplacement(rendered, "?");
+            }
+            matcher.appendTail(rendered);
+            sql = rendered.toString();
+
+            HashMap<String, int[]> answer = new HashMap<>();
+            for (Map.Entry<String, ArrayList<Integer>> entry : found.entrySet()) {
+                answer.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+            }
+            positions = Collections.unmodifiableMap(answer);
+        }
+
+        /**
+         * @return The SQL with '?' in place of the named parameters, for use in a PreparedStatement.
+         */
+        String sql() {
+            return sql;
+        }
+
+        void setString(PreparedStatement statement, String name, String value) throws SQLException {
+            for (int position : positionsOf(name)) {
+                statement.setString(position, value);
+            }
+        }
+
+        void setLong(PreparedStatement statement, String name, long value) throws SQLException {
+            for (int position : positionsOf(name)) {
+                statement.setLong(position, value);
+            }
+        }
+
+        void setInt(PreparedStatement statement, String name, int value) throws SQLException {
+            for (int position : positionsOf(name)) {
+                statement.setInt(position, value);
+            }
+        }
+
+        void setTimestamp(PreparedStatement statement, String name, Timestamp value) throws SQLException {
+            for (int position : positionsOf(name)) {
+                statement.setTimestamp(position, value);
+            }
+        }
+
+        void setBigDecimal(PreparedStatement statement, String name, BigDecimal value) throws SQLException {
+            for (int position : positionsOf(name)) {
+                statement.setBigDecimal(position, value);
+            }
+        }
+
+        void setDate(PreparedStatement statement, String name, Date value) throws SQLException {
+            for (int position : positionsOf(name)) {
+                statement.setDate(position, value);
+            }
+        }
+
+        /**
+         * Sets a parameter to NULL.
+         *
+         * @param sqlType The type of the parameter from {@link java.sql.Types}.
+         */
+        void setNull(PreparedStatement statement, String name, int sqlType) throws SQLException {
+            for (int position : positionsOf(name)) {
+                statement.setNull(position, sqlType);
+            }
+        }
+
+        private int[] positionsOf(String name) {
+            int[] answer = positions.get(name);
+            if (answer == null) {
+                //A misspelt name is a programming error. Fail instead of leaving the parameter unbound.
+                throw new IllegalArgumentException("The statement has no parameter named " + name + ": " + sql);
+            }
+            return answer;
+        }
+
+        @Override
+        public String toString() {
+            return sql;
+        }
+    }
+
+    private static String list(String... columns) {
+        return String.join(", ", columns);
+    }
+
+    private static final String PERSON_COLUMNS = list(PersonTable.ALL_COLUMN_NAMES);
+
+    /**
+     * A project by its number. Parameter {@code :number}.
+     */
+    static final Shape PROJECT_BY_NUMBER = new Shape(new StringBuilder()
+            .append("SELECT * FROM ").append(ProjectTable.TABLE_NAME)
+            .append(" WHERE ").append(ProjectTable.COL_NUMBER).append(" = :number").toString());
+
+    /**
+     * An archived project by its number. Parameter {@code :number}.
+     */
+    static final Shape ARCHIVED_PROJECT_BY_NUMBER = new Shape(new StringBuilder()
+            .append("SELECT * FROM ").append(ProjectArchiveTable.TABLE_NAME)
+            .append(" WHERE ").append(ProjectTable.COL_NUMBER).append(" = :number").toString());
+
+    /**
+     * Copies the current row of a project to the ProjectHistory table. Parameters {@code :validTo} and
+     * {@code :number}.
+     */
+    static final Shape COPY_PROJECT_TO_HISTORY = new Shape(new StringBuilder()
+            .append("INSERT INTO ").append(ProjectHistoryTable.TABLE_NAME)
+            .append(" (").append(list(ProjectHistoryTable.VERSIONED_COLUMN_NAMES))
+            .append(", ").append(ProjectHistoryTable.COL_VALID_TO)
+            .append(") SELECT ").append(list(ProjectHistoryTable.VERSIONED_COLUMN_NAMES))
+            .append(", :validTo FROM ").append(ProjectTable.TABLE_NAME)
+            .append(" WHERE ").append(ProjectTable.COL_NUMBER).append(" = :number").toString());
+
+    /**
+     * The most project versions deleted by one run of {@link #DELETE_OLD_HISTORY}.
+     */
+    static final int HISTORY_BATCH_SIZE = 1000;
+
+    /**
+     * Deletes a batch of the oldest project versions that stopped being valid before a time. Parameter
+     * {@code :validBefore}.
+     */
+    static final Shape DELETE_OLD_HISTORY = new Shape(new StringBuilder()
+            .append("DELETE FROM ").append(ProjectHistoryTable.TABLE_NAME)
+            .append(" WHERE ").append(ProjectHistoryTable.COL_VALID_TO).append(" < :validBefore")
+            .append(" ORDER BY ").append(ProjectHistoryTable.COL_VALID_TO)
+            .append(" LIMIT ").append(HISTORY_BATCH_SIZE).toString());
+
+    /**
+     * The lowest and highest project numbers.
+     */
+    static final Shape PROJECT_NUMBER_RANGE = new Shape(new StringBuilder()
+            .append("SELECT MIN(").append(ProjectTable.COL_NUMBER).append("), MAX(")
+            .append(ProjectTable.COL_NUMBER).append(") FROM ").append(ProjectTable.TABLE_NAME).toString());
+
+    /**
+     * The projects in a range of numbers whose TotalPaid doesn't match the sum of their payments, with both totals.
+     * Parameters {@code :from} and {@code :to}.
+     */
+    static final Shape PAYMENT_DISCREPANCIES = new Shape(new StringBuilder()
+            .append("SELECT pr.").append(ProjectTable.COL_NUMBER)
+            .append(", pr.").append(ProjectTable.COL_TOTAL_PAID)
+            .append(", COALESCE(SUM(pa.").append(PaymentTable.COL_AMOUNT).append("), 0) AS Ledger")
+            .append(" FROM ").append(ProjectTable.TABLE_NAME).append(" pr")
+            .append(" LEFT JOIN ").append(PaymentTable.TABLE_NAME).append(" pa ON pa.")
+            .append(PaymentTable.COL_PROJECT).append(" = pr.").append(ProjectTable.COL_NUMBER)
+            .append(" WHERE pr.").append(ProjectTable.COL_NUMBER).append(" BETWEEN :from AND :to")
+            .append(" GROUP BY pr.").append(ProjectTable.COL_NUMBER).append(", pr.").append(ProjectTable.COL_TOTAL_PAID)
+            .append(" HAVING pr.").append(ProjectTable.COL_TOTAL_PAID).append(" <> Ledger")
+            .append(" ORDER BY pr.").append(ProjectTable.COL_NUMBER).toString());
+
+    /**
+     * The database server's current time at the precision of the version columns. Used as the time of a new project
+     * version so that all the programs sharing the database agree on the order of the versions.
+     */
+    static final Shape SERVER_TIME = new Shape("SELECT CURRENT_TIMESTAMP(6)");
+
+    /**
+     * Adds a project. Parameters {@code :name}, {@code :type}, {@code :customer} and {@code :validFrom}.
+     */
+    static final Shape INSERT_PROJECT = new Shape(new StringBuilder()
+            .append("INSERT INTO ").append(ProjectTable.TABLE_NAME).append(" (")
+            .append(list(ProjectTable.COL_PROJECT_NAME, ProjectTable.COL_TYPE, ProjectTable.COL_CUSTOMER,
+                    ProjectTable.COL_VALID_FROM))
+            .append(") VALUES (:name, :type, :customer, :validFrom)").toString());
+
+    /**
+     * Deletes a project. Parameter {@code :number}.
+     */
+    static final Shape DELETE_PROJECT = new Shape(new StringBuilder()
+            .append("DELETE FROM ").append(ProjectTable.TABLE_NAME)
+            .append(" WHERE ").append(ProjectTable.COL_NUMBER).append(" = :number").toString());
+
+    /**
+     * Deletes the payments towards a project. Parameter {@code :number}.
+     */
+    static final Shape DELETE_PROJECT_PAYMENTS = new Shape(new StringBuilder()
+            .append("DELETE FROM ").append(PaymentTable.TABLE_NAME)
+            .append(" WHERE ").append(PaymentTable.COL_PROJECT).append(" = :number").toString());
+
+    /**
+     * Moves a project from one stage to the next. Parameters {@code :newStage}, {@code :validFrom}, {@code :number}
+     * and {@code :currentStage}; the project isn't changed unless it is in the current stage.
+     */
+    static final Shape CHANGE_STAGE = new Shape(new StringBuilder()
+            .append("UPDATE ").append(ProjectTable.TABLE_NAME).append(" SET ")
+            .append(ProjectTable.COL_STATUS).append(" = :newStage, ")
+            .append(ProjectTable.COL_VALID_FROM).append(" = :validFrom WHERE ")
+            .append(ProjectTable.COL_NUMBER).append(" = :number AND ")
+            .append(ProjectTable.COL_STATUS).append(" = :currentStage").toString());
+
+    /**
+     * The audit entries of one entity, oldest first. Parameters {@code :entityType} and {@code :entityId}.
+     */
+    static final Shape AUDIT_OF_ENTITY = new Shape(new StringBuilder()
+            .append("SELECT ").append(list(AuditTable.COL_CHANGED_AT, AuditTable.COL_ENTITY_TYPE,
+                    AuditTable.COL_ENTITY_ID, AuditTable.COL_ACTION, AuditTable.COL_FIELD, AuditTable.COL_OLD_VALUE,
+                    AuditTable.COL_NEW_VALUE, AuditTable.COL_CHANGED_BY))
+            .append(" FROM ").append(AuditTable.TABLE_NAME)
+            .append(" WHERE ").append(AuditTable.COL_ENTITY_TYPE).append(" = :entityType AND ")
+            .append(AuditTable.COL_ENTITY_ID).append(" = :entityId")
+            .append(" ORDER BY ").append(AuditTable.COL_ID).toString());
+
+    /**
+     * Adds a payment to the ledger. Parameters {@code :project}, {@code :amount}, {@code :paidOn},
+     * {@code :reference} and {@code :reverses}.
+     */
+    static final Shape INSERT_PAYMENT = new Shape(new StringBuilder()
+            .append("INSERT INTO ").append(PaymentTable.TABLE_NAME).append(" (")
+            .append(list(PaymentTable.COL_PROJECT, PaymentTable.COL_AMOUNT, PaymentTable.COL_PAID_ON,
+                    PaymentTable.COL_REFERENCE, PaymentTable.COL_REVERSES))
+            .append(") VALUES (:project, :amount, :paidOn, :reference, :reverses)").toString());
+
+    /**
+     * Adds an amount to a project's total paid. Parameters {@code :amount}, {@code :validFrom} and {@code :number}.
+     */
+    static final Shape ADD_TO_TOTAL_PAID = new Shape(new StringBuilder()
+            .append("UPDATE ").append(ProjectTable.TABLE_NAME).append(" SET ")
+            .append(ProjectTable.COL_TOTAL_PAID).append(" = ").append(ProjectTable.COL_TOTAL_PAID).append(" + :amount, ")
+            .append(ProjectTable.COL_VALID_FROM).append(" = :validFrom")
+            .append(" WHERE ").append(ProjectTable.COL_NUMBER).append(" = :number").toString());
+
+    /**
+     * The payments towards a project in the order they were recorded, each with the ID of the payment that reversed
+     * it (if any). Parameter {@code :number}.
+     */
+    static final Shape PAYMENTS_OF_PROJECT = new Shape(new StringBuilder()
+            .append("SELECT p.").append(PaymentTable.COL_ID)
+            .append(", p.").append(PaymentTable.COL_PROJECT)
+            .append(", p.").append(PaymentTable.COL_AMOUNT)
+            .append(", p.").append(PaymentTable.COL_PAID_ON)
+            .append(", p.").append(PaymentTable.COL_REFERENCE)
+            .append(", p.").append(PaymentTable.COL_REVERSES)
+            .append(", r.").append(PaymentTable.COL_ID)
+            .append(" FROM ").append(PaymentTable.TABLE_NAME).append(" p")
+            .append(" LEFT JOIN ").append(PaymentTable.TABLE_NAME).append(" r ON r.")
+            .append(PaymentTable.COL_REVERSES).append(" = p.").append(PaymentTable.COL_ID)
+            .append(" WHERE p.").append(PaymentTable.COL_PROJECT).append(" = :number")
+            .append(" ORDER BY p.").append(PaymentTable.COL_ID).toString());
+
+    /**
+     * Adds a person. Parameters {@code :firstName}, {@code :surname}, {@code :address} and {@code :email}.
+     */
+    static final Shape INSERT_PERSON = new Shape(new StringBuilder()
+            .append("INSERT INTO ").append(PersonTable.TABLE_NAME).append(" (")
+            .append(list(PersonTable.COL_FIRST_NAME, PersonTable.COL_SURNAME, PersonTable.COL_PHYS_ADDR,
+                    PersonTable.COL_EMAIL))
+            .append(") VALUES (:firstName, :surname, :address, :email)").toString());
+
+    /**
+     * The UPDATE of each column of the Person table that can be edited. Parameters {@code :value} and {@code :id}.
+     */
+    private static final Map<String, Shape> UPDATE_PERSON = updatePersonShapes(PersonTable.COL_FIRST_NAME,
+            PersonTable.COL_SURNAME, PersonTable.COL_EMAIL, PersonTable.COL_PHYS_ADDR);
+
+    private static Map<String, Shape> updatePersonShapes(String... columns) {
+        HashMap<String, Shape> answer = new HashMap<>();
+        for (String column : columns) {
+            answer.put(column, new Shape(new StringBuilder()
+                    .append("UPDATE ").append(PersonTable.TABLE_NAME).append(" SET ").append(column)
+                    .append(" = :value WHERE ").append(PersonTable.COL_ID).append(" = :id").toString()));
+        }
+        return Collections.unmodifiableMap(answer);
+    }
+
+    /**
+     * The statement that changes one column of a person. Parameters {@code :value} and {@code :id}.
+     *
+     * @param column A column of the Person table other than the ID.
+     * @throws IllegalArgumentException If the column can't be edited.
+     */
+    static Shape updatePerson(String column) {
+        Shape answer = UPDATE_PERSON.get(column);
+        if (answer == null) {
+            throw new IllegalArgumentException("The Person column " + column + " can't be updated.");
+        }
+        return answer;
+    }
+
+    /**
+     * The most values put in one {@code IN (...)} list by the statements with a list of IDs.
+     */
+    static final int MAX_IN_LIST_SIZE = 500;
+
+    /**
+     * A statement that ends with an {@code IN (...)} list with a '?' for each value. There is one shape for each list
+     * size; each is rendered the first time the size is used.
+     */
+    private static final class InListShape {
+        private final String start;
+        private final AtomicReferenceArray<String> rendered = new AtomicReferenceArray<>(MAX_IN_LIST_SIZE + 1);
+
+        /**
+         * @param start The SQL up to and including "IN (".
+         */
+        InListShape(String start) {
+            this.start = start;
+        }
+
+        String sql(int count) {
+            String answer = rendered.get(count);
+            if (answer == null) {
+                StringBuilder query = new StringBuilder(start);
+                for (int i = 0; i < count; ++i) {
+                    query.append(i == 0 ? "?" : ", ?");
+                }
+                answer = query.append(')').toString();
+                rendered.set(count, answer);
+            }
+            return answer;
+        }
+    }
+
+    private static final InListShape PEOPLE_BY_IDS = new InListShape(new StringBuilder()
+            .append("SELECT * FROM ").append(PersonTable.TABLE_NAME).append(" WHERE ")
+            .append(PersonTable.COL_ID).append(" IN (").toString());
+
+    /**
+     * The people with any of the given number of IDs, as an SQL query with a '?' for each ID.
+     *
+     * @param count The number of IDs, from 1 to {@link #MAX_IN_LIST_SIZE}.
+     */
+    static String peopleByIDs(int count) {
+        return PEOPLE_BY_IDS.sql(count);
+    }
+
+    private static final InListShape ARCHIVE_PROJECTS = new InListShape(new StringBuilder()
+            .append("INSERT INTO ").append(ProjectArchiveTable.TABLE_NAME)
+            .append(" (").append(list(ProjectHistoryTable.VERSIONED_COLUMN_NAMES))
+            .append(", ").append(ProjectArchiveTable.COL_ARCHIVED_AT)
+            .append(") SELECT ").append(list(ProjectHistoryTable.VERSIONED_COLUMN_NAMES))
+            .append(", ? FROM ").append(ProjectTable.TABLE_NAME)
+            .append(" WHERE ").append(ProjectTable.COL_NUMBER).append(" IN (").toString());
+
+    /**
+     * Copies the given number of projects to the ProjectsArchive table, as an SQL statement whose first '?' is the
+     * time they are archived at, followed by a '?' for each project number.
+     *
+     * @param count The number of projects, from 1 to {@link #MAX_IN_LIST_SIZE}.
+     */
+    static String archiveProjects(int count) {
+        return ARCHIVE_PROJECTS.sql(count);
+    }
+
+    private static final InListShape DELETE_PROJECTS = new InListShape(new StringBuilder()
+            .append("DELETE FROM ").append(ProjectTable.TABLE_NAME)
+            .append(" WHERE ").append(ProjectTable.COL_NUMBER).append(" IN (").toString());
+
+    /**
+     * Deletes the given number of projects, as an SQL statement with a '?' for each project number. Their payments
+     * and history are left alone.
+     *
+     * @param count The number of projects, from 1 to {@link #MAX_IN_LIST_SIZE}.
+     */
+    static String deleteProjects(int count) {
+        return DELETE_PROJECTS.sql(count);
+    }
+
+    /**
+     * Locks and returns the numbers of the next {@link #MAX_IN_LIST_SIZE} projects that were finalised before a time,
+     * leaving out the project with the highest number. Parameter {@code :finalisedBefore}.
+     */
+    static final Shape FINALISED_PROJECTS_TO_ARCHIVE = new Shape(new StringBuilder()
+            .append("SELECT ").append(ProjectTable.COL_NUMBER).append(" FROM ").append(ProjectTable.TABLE_NAME)
+            .append(" WHERE ").append(ProjectTable.COL_STATUS).append(" = ").append(ProjectStatus.FINAL.id())
+            .append(" AND ").append(ProjectTable.COL_VALID_FROM).append(" < :finalisedBefore")
+            .append(" AND ").append(ProjectTable.COL_NUMBER).append(" < (SELECT MAX(")
+            .append(ProjectTable.COL_NUMBER).append(") FROM ").append(ProjectTable.TABLE_NAME).append(')')
+            .append(" ORDER BY ").append(ProjectTable.COL_NUMBER)
+            .append(" LIMIT ").append(MAX_IN_LIST_SIZE).append(" FOR UPDATE").toString());
+
+    /**
+     * All the people.
+     */
+    static final Shape ALL_PEOPLE = new Shape("SELECT * FROM " + PersonTable.TABLE_NAME);
+
+    /**
+     * People whose first name matches a LIKE pattern (escaped with '!'). Parameter {@code :pattern}.
+     */
+    static final Shape PEOPLE_BY_FIRST_NAME = new Shape(new StringBuilder()
+            .append("SELECT ").append(PERSON_COLUMNS).append(" FROM ").append(PersonTable.TABLE_NAME)
+            .append(" WHERE ").append(PersonTable.COL_FIRST_NAME).append(" LIKE :pattern ESCAPE '!'").toString());
+
+    /**
+     * People whose surname matches a LIKE pattern (escaped with '!'). Parameter {@code :pattern}.
+     */
+    static final Shape PEOPLE_BY_SURNAME = new Shape(new StringBuilder()
+            .append("SELECT ").append(PERSON_COLUMNS).append(" FROM ").append(PersonTable.TABLE_NAME)
+            .append(" WHERE ").append(PersonTable.COL_SURNAME).append(" LIKE :pattern ESCAPE '!'").toString());
+
+    /**
+     * People whose first name, surname or full name matches a LIKE pattern (escaped with '!'), ordered by name.
+     * Parameters {@code :pattern} and {@code :limit}.
+     */
+    static final Shape PEOPLE_BY_PREFIX = new Shape(new StringBuilder()
+            .append("SELECT * FROM ").append(PersonTable.TABLE_NAME).append(" WHERE ")
+            .append(PersonTable.COL_FIRST_NAME).append(" LIKE :pattern ESCAPE '!' OR ")
+            .append(PersonTable.COL_SURNAME).append(" LIKE :pattern ESCAPE '!' OR ")
+            .append("CONCAT(").append(PersonTable.COL_FIRST_NAME).append(", ' ', ")
+            .append(PersonTable.COL_SURNAME).append(") LIKE :pattern ESCAPE '!' ")
+            .append("ORDER BY ").append(PersonTable.COL_SURNAME).append(", ")
+            .append(PersonTable.COL_FIRST_NAME).append(" LIMIT :limit").toString());
+}